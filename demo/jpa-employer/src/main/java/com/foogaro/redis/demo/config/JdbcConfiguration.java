@@ -0,0 +1,19 @@
+package com.foogaro.redis.demo.config;
+
+import com.foogaro.redis.demo.entity.Employer;
+import com.foogaro.redis.demo.repository.jpa.JpaEmployerRepository;
+import com.foogaro.redis.wbs.core.jdbc.JdbcBatchSink;
+import com.foogaro.redis.wbs.core.jdbc.UpsertDialect;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+@Configuration
+public class JdbcConfiguration {
+
+    @Bean
+    public JdbcBatchSink<Employer> employerJdbcBatchSink(DataSource dataSource) {
+        return new JdbcBatchSink<>(Employer.class, JpaEmployerRepository.class, dataSource, UpsertDialect.MYSQL);
+    }
+}
@@ -1,7 +1,9 @@
 package com.foogaro.redis.demo.controller;
 
 import com.foogaro.redis.demo.entity.Employer;
+import com.foogaro.redis.demo.service.jpa.JpaEmployerService;
 import com.foogaro.redis.demo.service.redis.RedisEmployerService;
+import com.foogaro.redis.wbs.core.cache.CacheWarmer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -15,6 +17,9 @@ public class EmployerController {
     @Autowired
     private RedisEmployerService redisEmployerService;
 
+    @Autowired
+    private JpaEmployerService jpaEmployerService;
+
     @GetMapping
     public Iterable<Employer> findAll() {
         return redisEmployerService.findAll();
@@ -54,4 +59,9 @@ public class EmployerController {
         redisEmployerService.deleteEmployer(id);
         return ResponseEntity.noContent().build();
     }
+
+    @PostMapping("/warm-up")
+    public CacheWarmer.Result warmUp() {
+        return jpaEmployerService.warmUpCache();
+    }
 }
@@ -1,11 +1,12 @@
 package com.foogaro.redis.demo.repository.jpa;
 
 import com.foogaro.redis.demo.entity.Employer;
+import com.foogaro.redis.wbs.core.cache.ScrollableRepository;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
 @Repository
-public interface JpaEmployerRepository extends JpaRepository<Employer, Long> {
+public interface JpaEmployerRepository extends JpaRepository<Employer, Long>, ScrollableRepository<Employer> {
 
     Employer findByEmail(String email);
 
@@ -2,6 +2,9 @@ package com.foogaro.redis.demo.service.jpa;
 
 import com.foogaro.redis.demo.entity.Employer;
 import com.foogaro.redis.demo.repository.jpa.JpaEmployerRepository;
+import com.foogaro.redis.demo.service.redis.RedisEmployerService;
+import com.foogaro.redis.wbs.core.cache.CacheWarmer;
+import com.foogaro.redis.wbs.core.service.PendingWriteIndex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
@@ -14,11 +17,23 @@ public class JpaEmployerService {
     @Autowired
     private JpaEmployerRepository repository;
 
+    @Autowired
+    private PendingWriteIndex pendingWriteIndex;
+
+    @Autowired
+    private RedisEmployerService redisEmployerService;
+
+    @Autowired
+    private CacheWarmer cacheWarmer;
+
     public List<Employer> getAllEmployers() {
         return repository.findAll();
     }
 
     public Optional<Employer> getEmployerById(Long id) {
+        if (pendingWriteIndex.isPending(Employer.class, JpaEmployerRepository.class, id)) {
+            return redisEmployerService.findById(id);
+        }
         return repository.findById(id);
     }
 
@@ -33,4 +48,8 @@ public class JpaEmployerService {
     public Employer getEmployerByEmail(String email) {
         return repository.findByEmail(email);
     }
+
+    public CacheWarmer.Result warmUpCache() {
+        return cacheWarmer.warmUp(Employer.class, repository);
+    }
 }
@@ -5,7 +5,9 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.foogaro.redis.demo.entity.Employer;
 import com.foogaro.redis.demo.repository.redis.RedisEmployerRepository;
 import com.foogaro.redis.wbs.core.Misc;
+import com.foogaro.redis.wbs.core.cache.NearCache;
 import com.foogaro.redis.wbs.core.service.EntityService;
+import com.foogaro.redis.wbs.core.service.PendingWriteIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -33,6 +35,12 @@ public class RedisEmployerService extends EntityService<Employer> {
     @Autowired
     private RedisEmployerRepository repository;
 
+    @Autowired
+    private NearCache<Employer> nearCache;
+
+    @Autowired
+    private PendingWriteIndex pendingWriteIndex;
+
     private ObjectMapper objectMapper = new ObjectMapper();
 
     public Iterable<Employer> findAll() {
@@ -40,11 +48,12 @@ public class RedisEmployerService extends EntityService<Employer> {
     }
 
     public Optional<Employer> findById(Long id) {
-        return repository.findById(id);
+        return nearCache.get(id, key -> repository.findById(id));
     }
 
     public Employer findByEmail(String email) {
-        return repository.findByEmail(email);
+        return nearCache.getBy("email", email, Employer::getEmail, () -> Optional.ofNullable(repository.findByEmail(email)))
+                .orElse(null);
     }
 
     public void saveEmployer(Employer employer) {
@@ -56,7 +65,7 @@ public class RedisEmployerService extends EntityService<Employer> {
                     .withId(RecordId.autoGenerate())
                     .ofMap(map)
                     .withStreamKey(getStreamKey());
-            RecordId recordId = redisTemplate.opsForStream().add(record);
+            RecordId recordId = pendingWriteIndex.add(getEntityClass(), record, employer.getId());
             logger.debug("RecordId {} added for ingestion to the Stream {}", recordId.getValue(), getStreamKey());
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
@@ -71,7 +80,7 @@ public class RedisEmployerService extends EntityService<Employer> {
                 .withId(RecordId.autoGenerate())
                 .ofMap(map)
                 .withStreamKey(getStreamKey());
-        RecordId recordId = redisTemplate.opsForStream().add(record);
+        RecordId recordId = pendingWriteIndex.add(getEntityClass(), record, id);
         logger.debug("RecordId {} added for deletion to the Stream {}", recordId.getValue(), getStreamKey());
 //        redisTemplate.opsForStream().add(getStreamKey(), map);
     }
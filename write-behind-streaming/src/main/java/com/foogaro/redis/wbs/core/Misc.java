@@ -3,6 +3,14 @@ package com.foogaro.redis.wbs.core;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class Misc {
 
@@ -10,30 +18,143 @@ public class Misc {
 
     public final static String EVENT_CONTENT_KEY = "content";
     public final static String EVENT_OPERATION_KEY = "operation";
+    public final static String EVENT_ID_KEY = "id";
+    public final static String EVENT_PRIORITY_KEY = "priority";
 
     public final static String KEY_SEPARATOR = ":";
     public final static String VALUE_SEPARATOR = "_";
 
     private final static String STREAM_KEY_PREFIX = "wb:stream:entity:";
     private final static String STREAM_KEY_DLQ_SUFFIX = ":dlq";
+    private final static String STREAM_KEY_PENDING_SUFFIX = ":pending";
+    private final static String STREAM_KEY_GROUPS_SUFFIX = ":groups";
+    private final static String STREAM_KEY_SNAPSHOT_SUFFIX = ":snapshot";
+    private final static String STREAM_KEY_SNAPSHOT_OFFSET_SUFFIX = ":snapshot:offset";
+    private final static String STREAM_KEY_SNAPSHOT_GAP_SUFFIX = ":snapshot:gap";
+    private final static String STREAM_KEY_FANOUT_SUFFIX = ":fanout:";
 
     public final static String CONSUMER_GROUP_SUFFIX = "_group";
     public final static String CONSUMER_SUFFIX = "_consumer";
 
+    /***
+     * The keys and names derived from the classes, computed once per class,
+     * as they are looked up for every record consumed.
+     */
+    private final static ClassValue<String> STREAM_KEYS = classValue(type -> STREAM_KEY_PREFIX + type.getSimpleName().toLowerCase());
+    private final static ClassValue<String> DLQ_STREAM_KEYS = classValue(type -> getStreamKey(type) + STREAM_KEY_DLQ_SUFFIX);
+    private final static ClassValue<String> PENDING_INDEX_KEYS = classValue(type -> getStreamKey(type) + STREAM_KEY_PENDING_SUFFIX);
+    private final static ClassValue<String> GROUPS_KEYS = classValue(type -> getStreamKey(type) + STREAM_KEY_GROUPS_SUFFIX);
+    private final static ClassValue<String> CONSUMER_GROUPS = classValue(type -> type.getSimpleName().toLowerCase() + CONSUMER_GROUP_SUFFIX);
+    private final static ClassValue<Map<Class<?>, String>> CONSUMER_NAMES = classValue(type -> new ConcurrentHashMap<>());
+
+    private static <V> ClassValue<V> classValue(final Function<Class<?>, V> function) {
+        return new ClassValue<>() {
+            @Override
+            protected V computeValue(Class<?> type) {
+                return function.apply(type);
+            }
+        };
+    }
+
     public static String getStreamKey(final Class<?> entityClass) {
-        return STREAM_KEY_PREFIX + entityClass.getSimpleName().toLowerCase();
+        return STREAM_KEYS.get(entityClass);
     }
 
     public static String getDLQStreamKey(final Class<?> entityClass) {
-        return STREAM_KEY_PREFIX + entityClass.getSimpleName().toLowerCase() + STREAM_KEY_DLQ_SUFFIX;
+        return DLQ_STREAM_KEYS.get(entityClass);
+    }
+
+    public static String getStreamKeyPattern() {
+        return STREAM_KEY_PREFIX + "*";
+    }
+
+    public static boolean isDLQStreamKey(final String streamKey) {
+        return streamKey.endsWith(STREAM_KEY_DLQ_SUFFIX);
+    }
+
+    public static String getPendingIndexKey(final Class<?> entityClass) {
+        return PENDING_INDEX_KEYS.get(entityClass);
+    }
+
+    public static String getGroupsKey(final Class<?> entityClass) {
+        return GROUPS_KEYS.get(entityClass);
+    }
+
+    public static String getSnapshotKey(final String streamKey) {
+        return streamKey + STREAM_KEY_SNAPSHOT_SUFFIX;
+    }
+
+    public static String getSnapshotOffsetKey(final String streamKey) {
+        return streamKey + STREAM_KEY_SNAPSHOT_OFFSET_SUFFIX;
+    }
+
+    public static String getSnapshotGapKey(final String streamKey) {
+        return streamKey + STREAM_KEY_SNAPSHOT_GAP_SUFFIX;
+    }
+
+    public static String getFanOutAppliedKey(final String streamKey, final RecordId recordId) {
+        return streamKey + STREAM_KEY_FANOUT_SUFFIX + recordId.getValue();
     }
 
     public static String getConsumerGroup(final Class<?> repositoryClass) {
-        return repositoryClass.getSimpleName().toLowerCase() + CONSUMER_GROUP_SUFFIX;
+        return CONSUMER_GROUPS.get(repositoryClass);
     }
 
     public static String getConsumerName(final Class<?> entityClass, final Class<?> repositoryClass) {
-        return entityClass.getSimpleName().toLowerCase() + VALUE_SEPARATOR + repositoryClass.getSimpleName().toLowerCase() + CONSUMER_SUFFIX;
+        Map<Class<?>, String> consumerNames = CONSUMER_NAMES.get(entityClass);
+        String consumerName = consumerNames.get(repositoryClass);
+        if (consumerName == null) {
+            consumerName = entityClass.getSimpleName().toLowerCase() + VALUE_SEPARATOR + repositoryClass.getSimpleName().toLowerCase() + CONSUMER_SUFFIX;
+            consumerNames.putIfAbsent(repositoryClass, consumerName);
+        }
+        return consumerName;
+    }
+
+    /***
+     * @return the name of the consumer of the given index, the first one being named after the listener.
+     */
+    public static String getConsumerName(final Class<?> entityClass, final Class<?> repositoryClass, final int index) {
+        String consumerName = getConsumerName(entityClass, repositoryClass);
+        return index <= 1 ? consumerName : consumerName + VALUE_SEPARATOR + index;
+    }
+
+    /***
+     * @return the ID of the entity the event refers to: the {@code id} field, or the content of delete events.
+     */
+    public static String getEntityId(final MapRecord<String, String, String> record) {
+        String id = record.getValue().get(EVENT_ID_KEY);
+        return id == null && Operation.DELETE.getValue().equals(record.getValue().get(EVENT_OPERATION_KEY))
+                ? record.getValue().get(EVENT_CONTENT_KEY) : id;
+    }
+
+    /***
+     * Compares two stream IDs by their timestamp first and then by their sequence number, as Redis does.
+     */
+    /***
+     * @return the ID field of the entity, i.e. the field annotated with a JPA or Spring Data {@code @Id},
+     * or else the field named {@code id}, if any.
+     */
+    public static Optional<Field> getIdField(final Class<?> entityClass) {
+        Field named = null;
+        for (Class<?> type = entityClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                for (Annotation annotation : field.getAnnotations()) {
+                    String annotationName = annotation.annotationType().getName();
+                    if (annotationName.equals("jakarta.persistence.Id") || annotationName.equals("org.springframework.data.annotation.Id")) {
+                        return Optional.of(field);
+                    }
+                }
+                if (named == null && field.getName().equals(EVENT_ID_KEY)) {
+                    named = field;
+                }
+            }
+        }
+        return Optional.ofNullable(named);
+    }
+
+    public static int compare(final RecordId id1, final RecordId id2) {
+        int byTimestamp = Long.compare(id1.getTimestamp(), id2.getTimestamp());
+        return byTimestamp != 0 ? byTimestamp : Long.compare(id1.getSequence(), id2.getSequence());
     }
 
     public static void dumpMessage(final MapRecord<String, String, String> message) {
@@ -0,0 +1,12 @@
+package com.foogaro.redis.wbs.core.aggregate;
+
+/***
+ * Marker type used in place of the repository type for the stream of {@link AggregateEvent}s:
+ * the consumer group and the consumer name are derived from it.
+ */
+public final class Aggregate {
+
+    private Aggregate() {
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.foogaro.redis.wbs.core.aggregate;
+
+import java.util.List;
+
+/***
+ * Changes of several entities resulting from one business operation, produced as a single stream record
+ * by the {@link AggregateEventProducer} and applied in a single database transaction by the {@link AggregateProcessor}.
+ */
+public record AggregateEvent(List<Change> changes) {
+
+    public record Change(String entity, String operation, String id, String content) {
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.foogaro.redis.wbs.core.aggregate;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.foogaro.redis.wbs.core.Misc;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.foogaro.redis.wbs.core.Misc.EVENT_CONTENT_KEY;
+import static com.foogaro.redis.wbs.core.Misc.getStreamKey;
+
+/***
+ * Produces {@link AggregateEvent}s on their stream, built with {@link #newEvent()}.
+ */
+public class AggregateEventProducer {
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    public AggregateEventProducer(RedisConnectionFactory connectionFactory, ObjectMapper objectMapper) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.objectMapper = objectMapper;
+    }
+
+    public Builder newEvent() {
+        return new Builder();
+    }
+
+    public RecordId send(AggregateEvent event) {
+        try {
+            return redisTemplate.opsForStream().add(StreamRecords.newRecord()
+                    .ofMap(Map.of(EVENT_CONTENT_KEY, objectMapper.writeValueAsString(event)))
+                    .withStreamKey(getStreamKey(AggregateEvent.class)));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public class Builder {
+
+        private final List<AggregateEvent.Change> changes = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder save(Object entity, Object id) {
+            try {
+                changes.add(new AggregateEvent.Change(entity.getClass().getName(), Misc.Operation.UPDATE.getValue(),
+                        String.valueOf(id), objectMapper.writeValueAsString(entity)));
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
+            return this;
+        }
+
+        public Builder delete(Class<?> entityClass, Object id) {
+            changes.add(new AggregateEvent.Change(entityClass.getName(), Misc.Operation.DELETE.getValue(), String.valueOf(id), null));
+            return this;
+        }
+
+        public AggregateEvent build() {
+            return new AggregateEvent(List.copyOf(changes));
+        }
+
+        public RecordId send() {
+            return AggregateEventProducer.this.send(build());
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.foogaro.redis.wbs.core.aggregate;
+
+import com.foogaro.redis.wbs.core.handler.AbstractPendingMessageHandler;
+import com.foogaro.redis.wbs.core.processor.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/***
+ * Retries the {@link AggregateEvent}s whose transaction failed, dead-lettering them like any other pending message.
+ */
+public class AggregatePendingMessageHandler extends AbstractPendingMessageHandler<AggregateEvent, Aggregate> {
+
+    @Autowired
+    private AggregateProcessor processor;
+
+    public AggregatePendingMessageHandler() {
+        super(AggregateEvent.class, Aggregate.class);
+    }
+
+    @Override
+    public Processor<AggregateEvent, Aggregate> getProcessor() {
+        return processor;
+    }
+}
@@ -0,0 +1,182 @@
+package com.foogaro.redis.wbs.core.aggregate;
+
+import com.foogaro.redis.wbs.core.Misc;
+import com.foogaro.redis.wbs.core.annotation.WriteBehind;
+import com.foogaro.redis.wbs.core.exception.AcknowledgeMessageException;
+import com.foogaro.redis.wbs.core.exception.ProcessMessageException;
+import com.foogaro.redis.wbs.core.jdbc.JdbcBatchSink;
+import com.foogaro.redis.wbs.core.processor.AbstractProcessor;
+import com.foogaro.redis.wbs.core.processor.RecordView;
+import com.foogaro.redis.wbs.core.ratelimit.WriteRateLimiter;
+import com.foogaro.redis.wbs.core.service.BeanFinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ClassUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.foogaro.redis.wbs.core.Misc.getConsumerGroup;
+
+/***
+ * Applies each {@link AggregateEvent} in a single transaction of the {@link PlatformTransactionManager},
+ * acknowledging it once committed, so that either all its changes are persisted or the record is retried.
+ */
+public class AggregateProcessor extends AbstractProcessor<AggregateEvent, Aggregate> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private ListableBeanFactory beanFactory;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private BeanFinder beanFinder;
+    private volatile TransactionTemplate transactionTemplate;
+    private final Map<Class<?>, Repository<?, ?>> transactionalRepositories = new ConcurrentHashMap<>();
+    private final Map<String, Class<?>> entityClasses = new ConcurrentHashMap<>();
+
+    public AggregateProcessor() {
+        super(AggregateEvent.class, Aggregate.class);
+    }
+
+    @Override
+    public BeanFinder getRepositoryFinder() {
+        if (beanFinder == null) {
+            beanFinder = new BeanFinder(beanFactory);
+        }
+        return beanFinder;
+    }
+
+    @Override
+    public List<Repository<AggregateEvent, ?>> getRepositories() {
+        return List.of();
+    }
+
+    @Override
+    public Optional<JdbcBatchSink<AggregateEvent>> getJdbcBatchSink() {
+        return Optional.empty();
+    }
+
+    @Override
+    public void process(final RecordView<AggregateEvent> view) throws ProcessMessageException {
+        MapRecord<String, String, String> record = view.getRecord();
+        List<AggregateEvent.Change> changes;
+        try {
+            changes = view.getEntity().changes();
+        } catch (Exception e) {
+            logger.error("Error decoding aggregate message: {}", record.getId(), e);
+            throw new RuntimeException(new ProcessMessageException(e));
+        }
+        WriteRateLimiter.Permit permit = acquireWrites(changes.size());
+        try {
+            getTransactionTemplate().executeWithoutResult(status -> {
+                int from = 0;
+                for (int i = 1; i <= changes.size(); i++) {
+                    if (i == changes.size() || !isSameRun(changes.get(from), changes.get(i))) {
+                        apply(changes.subList(from, i));
+                        from = i;
+                    }
+                }
+            });
+            logger.debug("Applied {} changes of aggregate message: {}", changes.size(), record.getId());
+        } catch (Exception e) {
+            logger.error("Error applying aggregate message: {}", record.getId(), e);
+            throw new RuntimeException(new ProcessMessageException(e));
+        } finally {
+            permit.close();
+        }
+    }
+
+    @Override
+    public void acknowledge(final MapRecord<String, String, String> record) throws AcknowledgeMessageException {
+        try {
+            getRedisTemplate().opsForStream().acknowledge(getConsumerGroup(getRepositoryClass()), record);
+            notifyAcknowledged(getConsumerGroup(getRepositoryClass()), record);
+            logger.debug("Acknowledged aggregate message: {}", record.getId());
+        } catch (Exception e) {
+            logger.error("Error acknowledging message: {}", record.getId(), e);
+            throw new RuntimeException(new AcknowledgeMessageException(e));
+        }
+    }
+
+    private static boolean isSameRun(AggregateEvent.Change first, AggregateEvent.Change change) {
+        return first.entity().equals(change.entity()) && isDelete(first) == isDelete(change);
+    }
+
+    private static boolean isDelete(AggregateEvent.Change change) {
+        return Misc.Operation.DELETE.getValue().equals(change.operation());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(List<AggregateEvent.Change> run) {
+        Class<Object> entityClass = (Class<Object>) getEntityClass(run.get(0).entity());
+        List<String> ids = run.stream().map(AggregateEvent.Change::id).toList();
+        Optional<JdbcBatchSink<Object>> sink = getRepositoryFinder().findJdbcBatchSink(entityClass);
+        if (sink.isPresent()) {
+            if (isDelete(run.get(0))) {
+                sink.get().delete(ids);
+            } else {
+                sink.get().upsert(decode(entityClass, run));
+            }
+            return;
+        }
+        Repository<Object, ?> repository = getRepository(entityClass);
+        if (isDelete(run.get(0))) {
+            ids.forEach(id -> getRepositoryFinder().executeIdOperation(repository, id, CrudRepository::deleteById));
+        } else {
+            getRepositoryFinder().executeOperation(repository, decode(entityClass, run), CrudRepository::saveAll);
+        }
+    }
+
+    private List<Object> decode(Class<Object> entityClass, List<AggregateEvent.Change> run) {
+        List<Object> entities = new ArrayList<>(run.size());
+        for (AggregateEvent.Change change : run) {
+            try {
+                entities.add(getObjectMapper().readValue(change.content(), entityClass));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Invalid content of " + change.entity() + " " + change.id(), e);
+            }
+        }
+        return entities;
+    }
+
+    /***
+     * Only entities annotated with {@code @WriteBehind} can be written by an aggregate.
+     */
+    private Class<?> getEntityClass(String name) {
+        return entityClasses.computeIfAbsent(name, key -> {
+            Class<?> entityClass = ClassUtils.resolveClassName(key, getClass().getClassLoader());
+            if (!entityClass.isAnnotationPresent(WriteBehind.class)) {
+                throw new IllegalArgumentException("Entity " + key + " is not annotated with @WriteBehind");
+            }
+            return entityClass;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Repository<Object, ?> getRepository(Class<Object> entityClass) {
+        return (Repository<Object, ?>) transactionalRepositories.computeIfAbsent(entityClass, key -> getRepositoryFinder()
+                .findTransactionalRepositories(entityClass).stream()
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No transactional repository found for entity " + entityClass.getName())));
+    }
+
+    private TransactionTemplate getTransactionTemplate() {
+        if (transactionTemplate == null) {
+            transactionTemplate = new TransactionTemplate(transactionManager);
+        }
+        return transactionTemplate;
+    }
+}
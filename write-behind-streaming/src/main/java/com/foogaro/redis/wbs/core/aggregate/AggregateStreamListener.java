@@ -0,0 +1,61 @@
+package com.foogaro.redis.wbs.core.aggregate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.foogaro.redis.wbs.core.listener.AbstractStreamListener;
+import com.foogaro.redis.wbs.core.orchestrator.AbstractProcessOrchestrator;
+import com.foogaro.redis.wbs.core.orchestrator.ProcessOrchestrator;
+import com.foogaro.redis.wbs.core.processor.Processor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.stream.StreamMessageListenerContainer;
+
+/***
+ * Listener of the stream of {@link AggregateEvent}s, processing and acknowledging each record as one unit.
+ */
+public class AggregateStreamListener extends AbstractStreamListener<AggregateEvent, Aggregate> {
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private StreamMessageListenerContainer<String, MapRecord<String, String, String>> streamMessageListenerContainer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private AggregateProcessor processor;
+
+    private final ProcessOrchestrator<AggregateEvent, Aggregate> processOrchestrator = new AbstractProcessOrchestrator<>() {
+    };
+
+    public AggregateStreamListener() {
+        super(AggregateEvent.class, Aggregate.class);
+    }
+
+    @Override
+    public RedisTemplate<String, String> getRedisTemplate() {
+        return redisTemplate;
+    }
+
+    @Override
+    public StreamMessageListenerContainer<String, MapRecord<String, String, String>> getStreamMessageListenerContainer() {
+        return streamMessageListenerContainer;
+    }
+
+    @Override
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    @Override
+    public ProcessOrchestrator<AggregateEvent, Aggregate> getProcessOrchestrator() {
+        return processOrchestrator;
+    }
+
+    @Override
+    public Processor<AggregateEvent, Aggregate> getProcessor() {
+        return processor;
+    }
+}
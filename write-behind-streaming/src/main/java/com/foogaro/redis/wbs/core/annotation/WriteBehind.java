@@ -9,4 +9,21 @@ import java.lang.annotation.*;
 @Documented
 @Indexed
 public @interface WriteBehind {
+
+    int DEFAULT_PRIORITY = 1;
+
+    /***
+     * When enabled, the entity stream is read once by a single consumer group and each record
+     * is written to all the repositories managing the entity in parallel, instead of having
+     * one consumer group per repository.
+     */
+    boolean fanOut() default false;
+
+    /***
+     * The weight of the entity stream when the {@link com.foogaro.redis.wbs.core.scheduler.PriorityScheduler} is enabled:
+     * under contention, streams are drained in proportion to their priority, e.g. <code>10</code> for billing
+     * and <code>1</code> for audit. Single events can override it with a {@code priority} field.
+     */
+    int priority() default DEFAULT_PRIORITY;
+
 }
@@ -13,6 +13,7 @@ import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
 import javax.lang.model.util.Types;
@@ -26,6 +27,11 @@ import java.util.Set;
 //@SupportedSourceVersion(SourceVersion.RELEASE_21)
 public class WriteBehindAnnotationProcessor extends AbstractProcessor {
 
+    private static final String FAN_OUT_PREFIX = "FanOut";
+    private static final ClassName FAN_OUT_TYPE = ClassName.get("com.foogaro.redis.wbs.core.fanout", "FanOut");
+    private static final ClassName IMPORT_RUNTIME_HINTS_TYPE = ClassName.get("org.springframework.context.annotation", "ImportRuntimeHints");
+    private static final String SPRING_DATA_REPOSITORY = "org.springframework.data.repository.Repository";
+
     private Types typeUtils;
     private Elements elementUtils;
     private Filer filer;
@@ -84,15 +90,33 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
                     continue;
                 }
 
+                generateRuntimeHints(packageName, className, entityElement, findIdType(repositories.iterator().next().asType()));
+
+                if (entityElement.getAnnotation(WriteBehind.class).fanOut()) {
+                    // One processor per repo acting as sink, one listener for all of them
+                    for (TypeElement repository : repositories) {
+                        String repositoryPrefix = getRepositoryPrefix(repository.getSimpleName().toString());
+                        generateProcessor(packageName, className, entityElement, repository, repositoryPrefix);
+                    }
+                    generateFanOutProcessor(packageName, className, entityElement, repositories);
+                    generateFanOutProcessOrchestrator(packageName, className, entityElement);
+                    generateStreamListener(packageName, className, entityElement, FAN_OUT_TYPE, null, FAN_OUT_PREFIX);
+                    generatePendingMessageHandler(packageName, className, entityElement, FAN_OUT_TYPE,
+                            FAN_OUT_PREFIX, FAN_OUT_PREFIX + className + "PendingMessageHandler");
+                    continue;
+                }
+
                 // Create the classes for each repo found
                 for (TypeElement repository : repositories) {
                     String repositoryType = repository.getSimpleName().toString();
                     String repositoryPrefix = getRepositoryPrefix(repositoryType);
+                    TypeName repositoryTypeName = TypeName.get(repository.asType());
 
-                    generateStreamListener(packageName, className, entityElement, repository, repositoryPrefix);
+                    generateStreamListener(packageName, className, entityElement, repositoryTypeName, repository, repositoryPrefix);
                     generateProcessor(packageName, className, entityElement, repository, repositoryPrefix);
                     generateProcessOrchestrator(packageName, className, entityElement, repository, repositoryPrefix);
-                    generatePendingMessageHandler(packageName, className, entityElement, repository, repositoryPrefix);
+                    generatePendingMessageHandler(packageName, className, entityElement, repositoryTypeName,
+                            repositoryPrefix, repositoryPrefix + "PendingMessageHandler");
                 }
             }
         } catch (Exception e) {
@@ -143,6 +167,27 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
         );
     }
 
+    /***
+     * @return the type of the ID managed by the repository, i.e. the second type argument of Spring Data's
+     * <code>Repository</code>, or <code>null</code> if it cannot be resolved at compile time
+     */
+    private TypeMirror findIdType(TypeMirror type) {
+        for (TypeMirror supertype : typeUtils.directSupertypes(type)) {
+            if (!(supertype instanceof DeclaredType declaredType)) continue;
+            TypeElement element = (TypeElement) declaredType.asElement();
+            if (element.getQualifiedName().contentEquals(SPRING_DATA_REPOSITORY)) {
+                List<? extends TypeMirror> typeArguments = declaredType.getTypeArguments();
+                if (typeArguments.size() == 2 && typeArguments.get(1).getKind() == TypeKind.DECLARED) {
+                    return typeUtils.erasure(typeArguments.get(1));
+                }
+                return null;
+            }
+            TypeMirror idType = findIdType(supertype);
+            if (idType != null) return idType;
+        }
+        return null;
+    }
+
     private String getRepositoryPrefix(String repositoryType) {
         if (repositoryType.startsWith("Jpa")) return "Jpa";
         if (repositoryType.startsWith("Mongo")) return "Mongo";
@@ -151,23 +196,28 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
         return repositoryType.replaceAll("Repository$", "");
     }
 
-    private void generateStreamListener(String packageName, String className,
-                                        TypeElement entityElement, TypeElement repository, String prefix) {
+    /***
+     * @param repository the repository written by the listener, <code>null</code> for fan-out listeners
+     */
+    private void generateStreamListener(String packageName, String className, TypeElement entityElement,
+                                        TypeName repositoryType, TypeElement repository, String prefix) {
         String listenerClassName = prefix + className + "StreamListener";
+        TypeMirror idType = repository != null ? findIdType(repository.asType()) : null;
+        if (repository != null && idType == null) {
+            error(repository, "Cannot resolve the ID type of repository %s, declare it as a class type argument of the repository",
+                    repository.getSimpleName());
+            return;
+        }
+        String repositoryFieldName = repository != null
+                ? Character.toLowerCase(repository.getSimpleName().charAt(0)) + repository.getSimpleName().toString().substring(1)
+                : null;
 
         TypeName superclass = ParameterizedTypeName.get(
                 ClassName.get("com.foogaro.redis.wbs.core.listener", "AbstractStreamListener"),
                 TypeName.get(entityElement.asType()),
-                TypeName.get(repository.asType())
+                repositoryType
         );
 
-        FieldSpec repositoryField = FieldSpec.builder(
-                        TypeName.get(repository.asType()),
-                        "employerRepository",
-                        Modifier.PRIVATE)
-                .addAnnotation(Autowired.class)
-                .build();
-
         FieldSpec redisTemplateField = FieldSpec.builder(
                         ParameterizedTypeName.get(
                                 ClassName.get("org.springframework.data.redis.core", "RedisTemplate"),
@@ -237,19 +287,6 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
                 .addStatement("return objectMapper")
                 .build();
 
-        MethodSpec deleteEntityMethod = MethodSpec.methodBuilder("deleteEntity")
-                .addModifiers(Modifier.PROTECTED)
-                .addParameter(Object.class, "id")
-                .addStatement("employerRepository.deleteById(($T) id)", Long.class)
-                .build();
-
-        MethodSpec saveEntityMethod = MethodSpec.methodBuilder("saveEntity")
-                .addModifiers(Modifier.PROTECTED)
-                .addParameter(TypeName.get(entityElement.asType()), "entity")
-                .returns(TypeName.get(entityElement.asType()))
-                .addStatement("return employerRepository.save(entity)")
-                .build();
-
         MethodSpec getProcessOrchestratorMethod = MethodSpec.methodBuilder("getProcessOrchestrator")
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PUBLIC)
@@ -264,26 +301,64 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
                 .addStatement("return processor")
                 .build();
 
-        TypeSpec streamListener = TypeSpec.classBuilder(listenerClassName)
+        TypeName repositoryClass = repository != null ? TypeName.get(typeUtils.erasure(repository.asType())) : repositoryType;
+        MethodSpec constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("super($T.class, $T.class)", TypeName.get(entityElement.asType()), repositoryClass)
+                .build();
+
+        TypeSpec.Builder streamListener = TypeSpec.classBuilder(listenerClassName)
                 .addModifiers(Modifier.PUBLIC)
                 .superclass(superclass)
                 .addAnnotation(Component.class)
-                .addField(repositoryField)
+                .addAnnotation(AnnotationSpec.builder(IMPORT_RUNTIME_HINTS_TYPE)
+                        .addMember("value", "$T.class", getRuntimeHintsClassName(packageName, className))
+                        .build());
+
+        if (repository != null) {
+            FieldSpec repositoryField = FieldSpec.builder(
+                            TypeName.get(repository.asType()),
+                            repositoryFieldName,
+                            Modifier.PRIVATE)
+                    .addAnnotation(Autowired.class)
+                    .build();
+            streamListener.addField(repositoryField);
+        }
+
+        streamListener
                 .addField(redisTemplateField)
                 .addField(streamListenerContainerField)
                 .addField(objectMapperField)
                 .addField(processOrchestratorField)
                 .addField(processorField)
+                .addMethod(constructor)
                 .addMethod(getRedisTemplateMethod)
                 .addMethod(getStreamListenerContainerMethod)
-                .addMethod(getObjectMapperMethod)
-                .addMethod(deleteEntityMethod)
-                .addMethod(saveEntityMethod)
+                .addMethod(getObjectMapperMethod);
+
+        if (repository != null) {
+            MethodSpec deleteEntityMethod = MethodSpec.methodBuilder("deleteEntity")
+                    .addModifiers(Modifier.PROTECTED)
+                    .addParameter(Object.class, "id")
+                    .addStatement("$N.deleteById(($T) id)", repositoryFieldName, TypeName.get(idType))
+                    .build();
+
+            MethodSpec saveEntityMethod = MethodSpec.methodBuilder("saveEntity")
+                    .addModifiers(Modifier.PROTECTED)
+                    .addParameter(TypeName.get(entityElement.asType()), "entity")
+                    .returns(TypeName.get(entityElement.asType()))
+                    .addStatement("return $N.save(entity)", repositoryFieldName)
+                    .build();
+            streamListener
+                    .addMethod(deleteEntityMethod)
+                    .addMethod(saveEntityMethod);
+        }
+
+        streamListener
                 .addMethod(getProcessOrchestratorMethod)
-                .addMethod(getProcessorMethod)
-                .build();
+                .addMethod(getProcessorMethod);
 
-        writeJavaFile(packageName + ".listener", streamListener);
+        writeJavaFile(packageName + ".listener", streamListener.build());
     }
 
     private void generateProcessor(String packageName, String className,
@@ -320,12 +395,25 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
                 .addStatement("return beanFinder")
                 .build();
 
+        TypeMirror idType = findIdType(repository.asType());
+        MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC);
+        if (idType != null) {
+            constructor.addStatement("super($T.class, $T.class, $T.class)", TypeName.get(entityElement.asType()),
+                    TypeName.get(typeUtils.erasure(repository.asType())), TypeName.get(idType));
+        } else {
+            constructor.addStatement("super($T.class, $T.class)", TypeName.get(entityElement.asType()),
+                    TypeName.get(typeUtils.erasure(repository.asType())));
+        }
+        addPriority(constructor, entityElement);
+
         TypeSpec processor = TypeSpec.classBuilder(processorClassName)
                 .addModifiers(Modifier.PUBLIC)
                 .superclass(superclass)
                 .addAnnotation(Component.class)
                 .addField(beanFactoryField)
                 .addField(beanFinderField)
+                .addMethod(constructor.build())
                 .addMethod(getRepositoryFinderMethod)
                 .build();
 
@@ -351,14 +439,109 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
         writeJavaFile(packageName + ".processor", orchestrator);
     }
 
-    private void generatePendingMessageHandler(String packageName, String className,
-                                               TypeElement entityElement, TypeElement repository, String prefix) {
-        String handlerClassName = prefix + "PendingMessageHandler";
+    private void generateFanOutProcessor(String packageName, String className,
+                                         TypeElement entityElement, Set<TypeElement> repositories) {
+        String processorClassName = FAN_OUT_PREFIX + className + "Processor";
+        TypeName entityType = TypeName.get(entityElement.asType());
+
+        TypeName superclass = ParameterizedTypeName.get(
+                ClassName.get("com.foogaro.redis.wbs.core.processor", "AbstractFanOutProcessor"),
+                entityType
+        );
+
+        FieldSpec beanFactoryField = FieldSpec.builder(
+                        ClassName.get("org.springframework.beans.factory", "ListableBeanFactory"),
+                        "beanFactory",
+                        Modifier.PRIVATE)
+                .addAnnotation(Autowired.class)
+                .build();
+
+        FieldSpec beanFinderField = FieldSpec.builder(
+                        ClassName.get("com.foogaro.redis.wbs.core.service", "BeanFinder"),
+                        "beanFinder",
+                        Modifier.PRIVATE)
+                .build();
+
+        MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("super($T.class)", entityType);
+        addPriority(constructorBuilder, entityElement);
+        MethodSpec constructor = constructorBuilder.build();
+
+        MethodSpec getRepositoryFinderMethod = MethodSpec.methodBuilder("getRepositoryFinder")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ClassName.get("com.foogaro.redis.wbs.core.service", "BeanFinder"))
+                .beginControlFlow("if (beanFinder == null)")
+                .addStatement("beanFinder = new $T(beanFactory)",
+                        ClassName.get("com.foogaro.redis.wbs.core.service", "BeanFinder"))
+                .endControlFlow()
+                .addStatement("return beanFinder")
+                .build();
+
+        TypeSpec.Builder processor = TypeSpec.classBuilder(processorClassName)
+                .addModifiers(Modifier.PUBLIC)
+                .superclass(superclass)
+                .addAnnotation(Component.class)
+                .addField(beanFactoryField)
+                .addField(beanFinderField);
+
+        CodeBlock.Builder sinks = CodeBlock.builder();
+        for (TypeElement repository : repositories) {
+            String sinkClassName = getRepositoryPrefix(repository.getSimpleName().toString()) + className + "Processor";
+            String sinkFieldName = Character.toLowerCase(sinkClassName.charAt(0)) + sinkClassName.substring(1);
+            processor.addField(FieldSpec.builder(
+                            ClassName.get(packageName + ".processor", sinkClassName),
+                            sinkFieldName,
+                            Modifier.PRIVATE)
+                    .addAnnotation(Autowired.class)
+                    .build());
+            sinks.add(sinks.isEmpty() ? "$N" : ", $N", sinkFieldName);
+        }
+
+        MethodSpec getSinkProcessorsMethod = MethodSpec.methodBuilder("getSinkProcessors")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(
+                        ClassName.get(List.class),
+                        ParameterizedTypeName.get(
+                                ClassName.get("com.foogaro.redis.wbs.core.processor", "Processor"),
+                                entityType,
+                                WildcardTypeName.subtypeOf(Object.class))))
+                .addStatement("return $T.of($L)", List.class, sinks.build())
+                .build();
+
+        processor
+                .addMethod(constructor)
+                .addMethod(getRepositoryFinderMethod)
+                .addMethod(getSinkProcessorsMethod);
+
+        writeJavaFile(packageName + ".processor", processor.build());
+    }
+
+    private void generateFanOutProcessOrchestrator(String packageName, String className, TypeElement entityElement) {
+        String orchestratorClassName = FAN_OUT_PREFIX + className + "ProcessOrchestrator";
 
+        TypeName superclass = ParameterizedTypeName.get(
+                ClassName.get("com.foogaro.redis.wbs.core.orchestrator", "AbstractFanOutProcessOrchestrator"),
+                TypeName.get(entityElement.asType())
+        );
+
+        TypeSpec orchestrator = TypeSpec.classBuilder(orchestratorClassName)
+                .addModifiers(Modifier.PUBLIC)
+                .superclass(superclass)
+                .addAnnotation(Component.class)
+                .build();
+
+        writeJavaFile(packageName + ".processor", orchestrator);
+    }
+
+    private void generatePendingMessageHandler(String packageName, String className, TypeElement entityElement,
+                                               TypeName repositoryType, String prefix, String handlerClassName) {
         TypeName superclass = ParameterizedTypeName.get(
                 ClassName.get("com.foogaro.redis.wbs.core.handler", "AbstractPendingMessageHandler"),
                 TypeName.get(entityElement.asType()),
-                TypeName.get(repository.asType())
+                repositoryType
         );
 
         FieldSpec processorField = FieldSpec.builder(
@@ -375,17 +558,60 @@ public class WriteBehindAnnotationProcessor extends AbstractProcessor {
                 .addStatement("return processor")
                 .build();
 
+        MethodSpec constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("super($T.class, $T.class)", TypeName.get(entityElement.asType()), repositoryType)
+                .build();
+
         TypeSpec handler = TypeSpec.classBuilder(handlerClassName)
                 .addModifiers(Modifier.PUBLIC)
                 .superclass(superclass)
                 .addAnnotation(Component.class)
                 .addField(processorField)
+                .addMethod(constructor)
                 .addMethod(getProcessorMethod)
                 .build();
 
         writeJavaFile(packageName + ".handler", handler);
     }
 
+    /***
+     * Assigns the priority field rather than calling the overridable setter, which would let <code>this</code> escape
+     * from the constructor.
+     */
+    private void addPriority(MethodSpec.Builder constructor, TypeElement entityElement) {
+        int priority = entityElement.getAnnotation(WriteBehind.class).priority();
+        if (priority != WriteBehind.DEFAULT_PRIORITY) {
+            constructor.addStatement("this.priority = $L", priority);
+        }
+    }
+
+    private ClassName getRuntimeHintsClassName(String packageName, String className) {
+        return ClassName.get(packageName + ".aot", className + "WriteBehindRuntimeHints");
+    }
+
+    /***
+     * @param idType the type of the ID of the entity, <code>null</code> if it cannot be resolved at compile time
+     */
+    private void generateRuntimeHints(String packageName, String className, TypeElement entityElement, TypeMirror idType) {
+        ClassName hintsClassName = getRuntimeHintsClassName(packageName, className);
+
+        MethodSpec constructor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement(idType != null ? "super($T.class, $T.class)" : "super($T.class, null)",
+                        idType != null ? new Object[]{TypeName.get(entityElement.asType()), TypeName.get(idType)}
+                                : new Object[]{TypeName.get(entityElement.asType())})
+                .build();
+
+        TypeSpec hints = TypeSpec.classBuilder(hintsClassName)
+                .addModifiers(Modifier.PUBLIC)
+                .superclass(ClassName.get("com.foogaro.redis.wbs.core.aot", "AbstractWriteBehindRuntimeHints"))
+                .addMethod(constructor)
+                .build();
+
+        writeJavaFile(hintsClassName.packageName(), hints);
+    }
+
     private void writeJavaFile(String packageName, TypeSpec typeSpec) {
         try {
             JavaFile.builder(packageName, typeSpec)
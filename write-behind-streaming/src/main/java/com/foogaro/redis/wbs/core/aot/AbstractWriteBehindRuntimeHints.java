@@ -0,0 +1,35 @@
+package com.foogaro.redis.wbs.core.aot;
+
+import org.springframework.aot.hint.*;
+
+import java.util.List;
+
+/***
+ * Runtime hints of a {@code @WriteBehind} entity for AOT-processed applications and native images,
+ * subclassed by the annotation processor for each entity with the type of its ID.
+ */
+public abstract class AbstractWriteBehindRuntimeHints implements RuntimeHintsRegistrar {
+
+    private final BindingReflectionHintsRegistrar bindingRegistrar = new BindingReflectionHintsRegistrar();
+
+    private final Class<?> entityClass;
+    private final Class<?> idType;
+
+    /***
+     * @param idType the type of the ID of the entity, <code>null</code> if unknown at compile time
+     */
+    protected AbstractWriteBehindRuntimeHints(Class<?> entityClass, Class<?> idType) {
+        this.entityClass = entityClass;
+        this.idType = idType;
+    }
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        bindingRegistrar.registerReflectionHints(hints.reflection(), entityClass);
+        hints.reflection().registerType(entityClass, MemberCategory.DECLARED_FIELDS);
+        if (idType != null && !idType.isPrimitive()) {
+            hints.reflection().registerType(idType, type -> type.withConstructor(
+                    List.of(TypeReference.of(String.class)), ExecutableMode.INVOKE));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.foogaro.redis.wbs.core.autoscale;
+
+import com.foogaro.redis.wbs.core.listener.AbstractStreamListener;
+import com.foogaro.redis.wbs.core.listener.SubscriptionStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Scales the consumers of each listener within the JVM, between a minimum and a maximum, following the lag
+ * and the pending entries of its group, with hysteresis and a cooldown to prevent flapping.
+ */
+public class ConsumerAutoscaler {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /***
+     * The scaling bounds and thresholds.
+     * @param scaleUpLag the lag, or growth of the pending entries between two samples, putting a listener under pressure
+     * @param scaleDownLag the lag within which a listener is idle, lower than the scale up lag
+     * @param scaleUpSamples the consecutive samples under pressure before adding a consumer
+     * @param scaleDownSamples the consecutive idle samples before removing a consumer
+     */
+    public record Policy(int minConsumers, int maxConsumers, long scaleUpLag, long scaleDownLag,
+                         int scaleUpSamples, int scaleDownSamples, Duration cooldown) {
+    }
+
+    /***
+     * The last sample of a listener.
+     * @param pressure the consecutive samples under pressure
+     * @param idle the consecutive idle samples
+     * @param lastScaling when it was last scaled, <code>null</code> if never
+     */
+    public record State(String stream, String group, int consumers, Long lag, long pending,
+                        int pressure, int idle, Instant lastScaling) {
+    }
+
+    private final ObjectProvider<AbstractStreamListener<?, ?>> listeners;
+    private final Policy policy;
+    private final Duration interval;
+    private final ApplicationEventPublisher eventPublisher;
+    private final MeterRegistry meterRegistry;
+    private final Map<AbstractStreamListener<?, ?>, State> states = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wb-autoscaler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param interval how often the groups are sampled
+     * @param eventPublisher where to publish the scalings, <code>null</code> for none
+     * @param meterRegistry where to publish the consumers and the scalings, <code>null</code> for none
+     */
+    public ConsumerAutoscaler(ObjectProvider<AbstractStreamListener<?, ?>> listeners, Policy policy, Duration interval,
+                              ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry) {
+        this.listeners = listeners;
+        this.policy = policy;
+        this.interval = interval;
+        this.eventPublisher = eventPublisher;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void start() {
+        scheduler.scheduleWithFixedDelay(this::scaleAll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /***
+     * @return the last sample of each running listener, by stream and group.
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> byGroup = new TreeMap<>();
+        states.values().forEach(state -> byGroup.put(state.stream() + " " + state.group(), state));
+        return byGroup;
+    }
+
+    public void scaleAll() {
+        listeners.orderedStream().forEach(listener -> {
+            if (!listener.isRunning()) {
+                states.remove(listener);
+                return;
+            }
+            try {
+                scale(listener);
+            } catch (Exception e) {
+                logger.warn("Error scaling the consumers of listener {} - {}", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        });
+    }
+
+    private void scale(AbstractStreamListener<?, ?> listener) {
+        SubscriptionStatus status = listener.getSubscriptionStatus();
+        long pending = listener.getPendingCount();
+        State previous = states.get(listener);
+        if (previous == null && meterRegistry != null) {
+            Gauge.builder("wb.autoscaler.consumers", listener, AbstractStreamListener::getConsumerCount)
+                    .tags("stream", status.stream(), "group", status.group())
+                    .register(meterRegistry);
+        }
+        long growth = previous != null ? pending - previous.pending() : 0;
+        long lag = status.lag() != null ? status.lag() : status.behind() ? policy.scaleUpLag() : 0;
+        boolean underPressure = lag >= policy.scaleUpLag() || growth >= policy.scaleUpLag();
+        boolean idle = lag <= policy.scaleDownLag() && growth <= 0;
+        int pressure = underPressure && previous != null ? previous.pressure() + 1 : underPressure ? 1 : 0;
+        int idleSamples = idle && previous != null ? previous.idle() + 1 : idle ? 1 : 0;
+        Instant lastScaling = previous != null ? previous.lastScaling() : null;
+
+        int consumers = listener.getConsumerCount();
+        boolean coolingDown = lastScaling != null && Instant.now().isBefore(lastScaling.plus(policy.cooldown()));
+        String reason = null;
+        int target = consumers;
+        if (consumers < policy.minConsumers()) {
+            target = consumers + 1;
+            reason = "below minimum";
+        } else if (consumers > policy.maxConsumers()) {
+            target = consumers - 1;
+            reason = "above maximum";
+        } else if (!coolingDown && pressure >= policy.scaleUpSamples() && consumers < policy.maxConsumers()) {
+            target = consumers + 1;
+            reason = "lag " + lag + ", pending growth " + growth;
+        } else if (!coolingDown && idleSamples >= policy.scaleDownSamples() && consumers > policy.minConsumers()) {
+            target = consumers - 1;
+            reason = "idle for " + idleSamples + " samples";
+        }
+        if (target != consumers && (target > consumers ? listener.addConsumer() : listener.removeConsumer())) {
+            logger.info("Consumers of group {} on stream {} scaled from {} to {}: {}", status.group(), status.stream(), consumers, target, reason);
+            if (meterRegistry != null) {
+                Counter.builder("wb.autoscaler.scalings")
+                        .tags("stream", status.stream(), "group", status.group(), "direction", target > consumers ? "up" : "down")
+                        .register(meterRegistry)
+                        .increment();
+            }
+            if (eventPublisher != null) {
+                eventPublisher.publishEvent(new ConsumerScalingEvent(status.stream(), status.group(), consumers, target,
+                        status.lag(), pending, reason));
+            }
+            consumers = target;
+            lastScaling = Instant.now();
+            pressure = 0;
+            idleSamples = 0;
+        }
+        states.put(listener, new State(status.stream(), status.group(), consumers, status.lag(), pending, pressure, idleSamples, lastScaling));
+    }
+}
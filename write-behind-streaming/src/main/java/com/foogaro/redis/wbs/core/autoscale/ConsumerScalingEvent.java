@@ -0,0 +1,12 @@
+package com.foogaro.redis.wbs.core.autoscale;
+
+/***
+ * Published by the {@link ConsumerAutoscaler} when it adds or removes a consumer of a listener.
+ * @param from the number of consumers before scaling
+ * @param to the number of consumers after scaling
+ * @param lag the entries of the stream not yet delivered to the group, <code>null</code> if unknown
+ * @param pending the entries delivered to the group and not yet acknowledged
+ * @param reason why the listener was scaled
+ */
+public record ConsumerScalingEvent(String stream, String group, int from, int to, Long lag, long pending, String reason) {
+}
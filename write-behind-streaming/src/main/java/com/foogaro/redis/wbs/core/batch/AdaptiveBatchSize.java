@@ -0,0 +1,89 @@
+package com.foogaro.redis.wbs.core.batch;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/***
+ * Batch size controller driven by the latency of the sink, with additive increase after full batches
+ * and multiplicative decrease when the p99 latency exceeds the target, within the bounds given.
+ */
+public class AdaptiveBatchSize {
+
+    private static final int WINDOW = 32;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 1.1;
+
+    private final int min;
+    private final int max;
+    private final int step;
+    private final long targetNanos;
+    private final long[] latencies = new long[WINDOW];
+    private int samples;
+    private int next;
+    private double nanosPerRecord;
+    private volatile int size;
+    private volatile long p99Nanos;
+
+    /***
+     * @param initial the initial batch size
+     * @param min the minimum batch size
+     * @param max the maximum batch size
+     * @param step how much the batch size grows at a time
+     * @param target the p99 latency of a batch write above which batches shrink
+     */
+    public AdaptiveBatchSize(int initial, int min, int max, int step, Duration target) {
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.step = Math.max(1, step);
+        this.targetNanos = target.toNanos();
+        this.size = Math.min(this.max, Math.max(this.min, initial));
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Duration getP99() {
+        return Duration.ofNanos(p99Nanos);
+    }
+
+    /***
+     * Records the latency of a batch write and adjusts the batch size.
+     * @param records the number of records written
+     * @param full whether the batch was as big as the batch size, i.e. more records were waiting
+     * @param elapsed how long the write took
+     */
+    public synchronized void record(int records, boolean full, Duration elapsed) {
+        if (records <= 0) return;
+        long nanos = elapsed.toNanos();
+        latencies[next] = nanos;
+        next = (next + 1) % WINDOW;
+        samples = Math.min(WINDOW, samples + 1);
+        p99Nanos = percentile99();
+
+        double perRecord = (double) nanos / records;
+        if (p99Nanos > targetNanos) {
+            size = Math.max(min, (int) (size * DECREASE_FACTOR));
+            // the window reflects the old size, start over to avoid shrinking again on the same samples
+            samples = 0;
+            next = 0;
+        } else if (full && (nanosPerRecord == 0 || perRecord <= nanosPerRecord * TOLERANCE)) {
+            size = Math.min(max, size + step);
+        }
+        nanosPerRecord = nanosPerRecord == 0 ? perRecord : nanosPerRecord + SMOOTHING * (perRecord - nanosPerRecord);
+    }
+
+    /***
+     * Records a failed batch write, which shrinks the batch size as an overloaded sink would.
+     */
+    public synchronized void failed() {
+        size = Math.max(min, (int) (size * DECREASE_FACTOR));
+    }
+
+    private long percentile99() {
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.99 * samples) - 1];
+    }
+}
@@ -0,0 +1,146 @@
+package com.foogaro.redis.wbs.core.bulkhead;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/***
+ * The permits for the records in flight, the writer thread and the pending message thread of one entity and consumer group,
+ * isolated from those of the others so that a slow table holds back its own stream only.
+ */
+public class Bulkhead {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final int capacity;
+    private final Semaphore permits;
+    private final ExecutorService writer;
+    private final ExecutorService pending;
+    private final AtomicBoolean pendingRunning = new AtomicBoolean();
+    private final Counter saturated;
+    private final Counter skipped;
+    private final Timer waits;
+
+    /***
+     * @param name the name of the bulkhead, i.e. the consumer name of the listener
+     * @param capacity the number of records in flight
+     * @param meterRegistry where to publish the saturation of the bulkhead, <code>null</code> for none
+     */
+    public Bulkhead(String name, int capacity, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.capacity = Math.max(1, capacity);
+        this.permits = new Semaphore(this.capacity);
+        this.writer = Executors.newSingleThreadExecutor(runnable -> newThread(runnable, "wb-bulkhead-" + name));
+        this.pending = Executors.newSingleThreadExecutor(runnable -> newThread(runnable, "wb-bulkhead-pel-" + name));
+        if (meterRegistry != null) {
+            int size = this.capacity;
+            Gauge.builder("wb.bulkhead.in-flight", permits, value -> size - value.availablePermits())
+                    .tag("bulkhead", name).register(meterRegistry);
+            Gauge.builder("wb.bulkhead.saturation", permits, value -> (double) (size - value.availablePermits()) / size)
+                    .tag("bulkhead", name).register(meterRegistry);
+            this.saturated = Counter.builder("wb.bulkhead.saturated").tag("bulkhead", name).register(meterRegistry);
+            this.skipped = Counter.builder("wb.bulkhead.pending.skipped").tag("bulkhead", name).register(meterRegistry);
+            this.waits = Timer.builder("wb.bulkhead.wait").tag("bulkhead", name).register(meterRegistry);
+        } else {
+            this.saturated = null;
+            this.skipped = null;
+            this.waits = null;
+        }
+    }
+
+    private static Thread newThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /***
+     * Waits for a record to be allowed in flight: the permit must be {@link #release() released} once it completes.
+     */
+    public void acquire() throws InterruptedException {
+        if (permits.tryAcquire()) return;
+        if (saturated != null) saturated.increment();
+        long start = System.nanoTime();
+        permits.acquire();
+        if (waits != null) waits.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /***
+     * Runs the task in the writer thread of the bulkhead, after the ones submitted before it.
+     * @return a future completed with the one returned by the task
+     */
+    public CompletableFuture<Void> execute(Supplier<CompletableFuture<Void>> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, writer).thenCompose(future -> future);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /***
+     * Runs the reprocessing of the pending messages in the thread of the bulkhead,
+     * unless the previous run is still going on, e.g. because the table is locked.
+     * @return <code>false</code> if skipped
+     */
+    public boolean runPending(Runnable task) {
+        if (!pendingRunning.compareAndSet(false, true)) {
+            if (skipped != null) skipped.increment();
+            logger.debug("Pending messages of {} still being reprocessed, run skipped", name);
+            return false;
+        }
+        try {
+            pending.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    pendingRunning.set(false);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingRunning.set(false);
+            return false;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getInFlight() {
+        return capacity - permits.availablePermits();
+    }
+
+    /***
+     * @return the share of the permits in use, 1 when the polling thread waits for the writes.
+     */
+    public double getSaturation() {
+        return (double) getInFlight() / capacity;
+    }
+
+    public void shutdown() {
+        writer.shutdownNow();
+        pending.shutdownNow();
+    }
+}
@@ -0,0 +1,49 @@
+package com.foogaro.redis.wbs.core.bulkhead;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.env.Environment;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.foogaro.redis.wbs.core.Misc.getConsumerName;
+
+/***
+ * The {@link Bulkhead}s of the listeners, one per entity and consumer group, named after the consumer name,
+ * with a capacity read from the environment.
+ */
+public class Bulkheads implements DisposableBean {
+
+    public static final int DEFAULT_CAPACITY = 100;
+    private static final String PROPERTY_PREFIX = "wb.stream.bulkhead.";
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    public Bulkheads(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Bulkhead get(Class<?> entityClass, Class<?> repositoryClass) {
+        return bulkheads.computeIfAbsent(getConsumerName(entityClass, repositoryClass), this::newBulkhead);
+    }
+
+    private Bulkhead newBulkhead(String name) {
+        int capacity = environment.getProperty(PROPERTY_PREFIX + name + ".capacity", Integer.class,
+                environment.getProperty(PROPERTY_PREFIX + "capacity", Integer.class, DEFAULT_CAPACITY));
+        return new Bulkhead(name, capacity, meterRegistry);
+    }
+
+    public Map<String, Bulkhead> getBulkheads() {
+        return new TreeMap<>(bulkheads);
+    }
+
+    @Override
+    public void destroy() {
+        bulkheads.values().forEach(Bulkhead::shutdown);
+    }
+}
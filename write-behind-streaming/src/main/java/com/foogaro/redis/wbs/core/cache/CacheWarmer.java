@@ -0,0 +1,211 @@
+package com.foogaro.redis.wbs.core.cache;
+
+import com.foogaro.redis.wbs.core.service.PendingWriteIndex;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.*;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.core.convert.IndexedData;
+import org.springframework.data.redis.core.convert.RedisConverter;
+import org.springframework.data.redis.core.convert.RedisData;
+import org.springframework.data.redis.core.convert.SimpleIndexedPropertyValue;
+import org.springframework.data.redis.core.mapping.RedisPersistentEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Loads the entities of the database into the Redis repositories, e.g. after a flush or a failover of Redis,
+ * reading them in keyset-paginated chunks and writing each chunk to Redis with pipelines.
+ */
+public class CacheWarmer {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(5);
+
+    public record Result(long loaded, long skipped, Duration elapsed) {
+
+        public double getRate() {
+            return elapsed.isZero() ? loaded : loaded * 1000d / elapsed.toMillis();
+        }
+    }
+
+    private final RedisConnectionFactory connectionFactory;
+    private final RedisKeyValueAdapter keyValueAdapter;
+    private final RedisConverter converter;
+    private final PendingWriteIndex pendingWriteIndex;
+    private final int chunkSize;
+    private final int parallelism;
+    private final MeterRegistry meterRegistry;
+
+    /***
+     * @param pendingWriteIndex the index of the IDs to skip, <code>null</code> to load all of them
+     * @param chunkSize the number of entities read and written at a time
+     * @param parallelism the number of chunks written concurrently
+     * @param meterRegistry where to count the entities loaded and skipped, <code>null</code> for none
+     */
+    public CacheWarmer(RedisConnectionFactory connectionFactory, RedisKeyValueAdapter keyValueAdapter, PendingWriteIndex pendingWriteIndex,
+                       int chunkSize, int parallelism, MeterRegistry meterRegistry) {
+        this.connectionFactory = connectionFactory;
+        this.keyValueAdapter = keyValueAdapter;
+        this.converter = keyValueAdapter.getConverter();
+        this.pendingWriteIndex = pendingWriteIndex;
+        this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /***
+     * Loads all the entities of the source repository into Redis, returning once all of them have been written.
+     * @param source the database repository, e.g. a <code>JpaRepository</code>, which must support keyset scrolling
+     */
+    public <T> Result warmUp(Class<T> entityClass, ScrollableRepository<T> source) {
+        RedisPersistentEntity<?> persistentEntity = converter.getMappingContext().getRequiredPersistentEntity(entityClass);
+        String idProperty = persistentEntity.getRequiredIdProperty().getName();
+        String entity = entityClass.getSimpleName().toLowerCase();
+        Counter loadedCounter = meterRegistry != null ? Counter.builder("wb.warmup.entities").tags("entity", entity, "outcome", "loaded").register(meterRegistry) : null;
+        Counter skippedCounter = meterRegistry != null ? Counter.builder("wb.warmup.entities").tags("entity", entity, "outcome", "skipped").register(meterRegistry) : null;
+
+        long start = System.nanoTime();
+        AtomicLong loaded = new AtomicLong();
+        AtomicLong skipped = new AtomicLong();
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "wb-warmup-" + entity + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore chunks = new Semaphore(parallelism * 2);
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        long lastProgress = start;
+        try {
+            ScrollPosition position = ScrollPosition.keyset();
+            Window<T> window;
+            do {
+                window = source.findAllBy(position, Limit.of(chunkSize), Sort.by(idProperty));
+                List<T> chunk = window.getContent();
+                if (chunk.isEmpty()) break;
+                position = window.positionAt(chunk.size() - 1);
+
+                chunks.acquire();
+                writes.add(CompletableFuture.runAsync(() -> {
+                    int[] written = write(entityClass, persistentEntity, chunk);
+                    loaded.addAndGet(written[0]);
+                    skipped.addAndGet(written[1]);
+                    if (loadedCounter != null) {
+                        loadedCounter.increment(written[0]);
+                        skippedCounter.increment(written[1]);
+                    }
+                }, executor).whenComplete((v, e) -> chunks.release()));
+
+                if (System.nanoTime() - lastProgress > PROGRESS_INTERVAL.toNanos()) {
+                    lastProgress = System.nanoTime();
+                    logProgress(entity, loaded.get(), skipped.get(), Duration.ofNanos(lastProgress - start));
+                }
+            } while (window.hasNext());
+            CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new)).join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Warm-up of " + entity + " interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        Result result = new Result(loaded.get(), skipped.get(), Duration.ofNanos(System.nanoTime() - start));
+        logger.info("Warm-up of {} completed in {} ms: {} entities loaded, {} skipped as pending, {} entities/s",
+                entity, result.elapsed().toMillis(), result.loaded(), result.skipped(), Math.round(result.getRate()));
+        return result;
+    }
+
+    private void logProgress(String entity, long loaded, long skipped, Duration elapsed) {
+        logger.info("Warm-up of {}: {} entities loaded, {} skipped in {} s, {} entities/s", entity, loaded, skipped,
+                elapsed.toSeconds(), Math.round(loaded * 1000d / Math.max(1, elapsed.toMillis())));
+    }
+
+    /***
+     * Writes the chunk as the Redis repository would: replacing the hash of each entity, adding its ID to the keyspace set
+     * and moving it to its current secondary indexes, in two pipelines, the first one reading the indexes it was in.
+     * Entities the pipelines would not write as the repository does are put through the adapter.
+     * @return the number of entities written and skipped
+     */
+    private int[] write(Class<?> entityClass, RedisPersistentEntity<?> persistentEntity, List<?> chunk) {
+        Map<String, Object> byId = new LinkedHashMap<>();
+        chunk.forEach(entity -> byId.put(String.valueOf(persistentEntity.getIdentifierAccessor(entity).getRequiredIdentifier()), entity));
+        if (pendingWriteIndex != null) {
+            byId.keySet().removeAll(pendingWriteIndex.findPending(entityClass, byId.keySet()));
+        }
+        List<RedisData> data = new ArrayList<>();
+        for (Object entity : byId.values()) {
+            RedisData redisData = new RedisData();
+            converter.write(entity, redisData);
+            if (isPipelined(redisData)) {
+                data.add(redisData);
+            } else {
+                keyValueAdapter.put(redisData.getId(), entity, redisData.getKeyspace());
+            }
+        }
+        if (data.isEmpty()) return new int[]{byId.size(), chunk.size() - byId.size()};
+
+        try (RedisConnection connection = connectionFactory.getConnection()) {
+            connection.openPipeline();
+            data.forEach(redisData -> connection.setCommands().sMembers(getHelperKey(redisData)));
+            List<Object> previousIndexes = connection.closePipeline();
+
+            connection.openPipeline();
+            for (int i = 0; i < data.size(); i++) {
+                RedisData redisData = data.get(i);
+                byte[] id = toBytes(redisData.getId());
+                byte[] key = toBytes(redisData.getKeyspace() + ":" + redisData.getId());
+                byte[] helperKey = getHelperKey(redisData);
+                if (previousIndexes.get(i) instanceof Collection<?> indexKeys) {
+                    indexKeys.forEach(indexKey -> connection.setCommands().sRem((byte[]) indexKey, id));
+                }
+                connection.keyCommands().del(key, helperKey);
+                connection.hashCommands().hMSet(key, redisData.getBucket().rawMap());
+                connection.setCommands().sAdd(toBytes(redisData.getKeyspace()), id);
+                for (IndexedData indexedData : redisData.getIndexedData()) {
+                    SimpleIndexedPropertyValue value = (SimpleIndexedPropertyValue) indexedData;
+                    if (value.getValue() == null) continue;
+                    byte[] indexKey = concat(toBytes(indexedData.getKeyPrefix() + ":"), toBytes(value.getValue()));
+                    connection.setCommands().sAdd(indexKey, id);
+                    connection.setCommands().sAdd(helperKey, indexKey);
+                }
+            }
+            connection.closePipeline();
+        }
+        return new int[]{byId.size(), chunk.size() - byId.size()};
+    }
+
+    /***
+     * @return <code>false</code> for an entity with a time to live, having a phantom key when keyspace events are enabled,
+     * or with indexes other than simple ones.
+     */
+    private static boolean isPipelined(RedisData redisData) {
+        return (redisData.getTimeToLive() == null || redisData.getTimeToLive() <= 0)
+                && redisData.getIndexedData().stream().allMatch(SimpleIndexedPropertyValue.class::isInstance);
+    }
+
+    private byte[] getHelperKey(RedisData redisData) {
+        return toBytes(redisData.getKeyspace() + ":" + redisData.getId() + ":idx");
+    }
+
+    private byte[] toBytes(Object value) {
+        if (value instanceof byte[] bytes) return bytes;
+        if (value instanceof String string) return string.getBytes(StandardCharsets.UTF_8);
+        return converter.getConversionService().convert(value, byte[].class);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,353 @@
+package com.foogaro.redis.wbs.core.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.foogaro.redis.wbs.core.config.StreamReadConnections;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.stream.StreamMessageListenerContainer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import static com.foogaro.redis.wbs.core.Misc.*;
+
+/***
+ * Bounded, expiring in-process cache of a <code>@WriteBehind</code> entity, kept up to date by following its stream:
+ * deletes invalidate an entry, saves cache the entity of the event, and loads started before an event are not cached.
+ */
+public class NearCache<T> implements SmartLifecycle {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Autowired(required = false)
+    private StreamReadConnections streamReadConnections;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private final Class<T> entityClass;
+    private final Function<T, ?> idExtractor;
+    private final long maximumWeight;
+    private final ToLongFunction<T> weigher;
+    private final Duration expireAfterWrite;
+    private final boolean refreshOnWrite;
+    private final Clock clock;
+
+    private final LinkedHashMap<String, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, LinkedHashMap<Object, String>> indexes = new HashMap<>();
+    private long weight;
+    private final AtomicLong invalidationEpoch = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong sizeEvictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private StreamMessageListenerContainer<String, MapRecord<String, String, String>> streamMessageListenerContainer;
+    private volatile boolean running;
+
+    private record Entry<T>(T value, long weight, long expiresAt) {
+    }
+
+    private NearCache(Builder<T> builder) {
+        this.entityClass = builder.entityClass;
+        this.idExtractor = builder.idExtractor;
+        this.maximumWeight = builder.maximumWeight;
+        this.weigher = builder.weigher;
+        this.expireAfterWrite = builder.expireAfterWrite;
+        this.refreshOnWrite = builder.refreshOnWrite;
+        this.clock = builder.clock;
+    }
+
+    public static <T> Builder<T> builder(Class<T> entityClass, Function<T, ?> idExtractor) {
+        return new Builder<>(entityClass, idExtractor);
+    }
+
+    @PostConstruct
+    private void registerMeters() {
+        if (meterRegistry != null) {
+            Tags tags = Tags.of("entity", entityClass.getSimpleName().toLowerCase());
+            FunctionCounter.builder("wb.nearcache.gets", hits, AtomicLong::get).tags(tags).tag("result", "hit").register(meterRegistry);
+            FunctionCounter.builder("wb.nearcache.gets", misses, AtomicLong::get).tags(tags).tag("result", "miss").register(meterRegistry);
+            FunctionCounter.builder("wb.nearcache.evictions", sizeEvictions, AtomicLong::get).tags(tags).tag("cause", "size").register(meterRegistry);
+            FunctionCounter.builder("wb.nearcache.evictions", expirations, AtomicLong::get).tags(tags).tag("cause", "expired").register(meterRegistry);
+            FunctionCounter.builder("wb.nearcache.evictions", invalidations, AtomicLong::get).tags(tags).tag("cause", "invalidated").register(meterRegistry);
+            Gauge.builder("wb.nearcache.size", this, NearCache::size).tags(tags).register(meterRegistry);
+            Gauge.builder("wb.nearcache.weight", this, NearCache::weight).tags(tags).register(meterRegistry);
+        }
+    }
+
+    /***
+     * Follows the stream from its last event, with a container of its own.
+     */
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        String streamKey = getStreamKey(entityClass);
+        List<MapRecord<String, Object, Object>> last = redisTemplate.opsForStream()
+                .reverseRange(streamKey, Range.unbounded(), Limit.limit().count(1));
+        ReadOffset offset = (last == null || last.isEmpty()) ? ReadOffset.from("0-0") : ReadOffset.from(last.get(0).getId());
+        StreamMessageListenerContainer.StreamMessageListenerContainerOptions<String, MapRecord<String, String, String>> options =
+                StreamMessageListenerContainer.StreamMessageListenerContainerOptions.builder()
+                        .executor(new SimpleAsyncTaskExecutor("wb-nearcache-" + entityClass.getSimpleName().toLowerCase() + "-"))
+                        .build();
+        streamMessageListenerContainer = StreamMessageListenerContainer.create(streamReadConnections != null
+                ? streamReadConnections.getConnectionFactory() : redisConnectionFactory, options);
+        streamMessageListenerContainer.receive(StreamOffset.create(streamKey, offset), this::onEvent);
+        streamMessageListenerContainer.start();
+        running = true;
+        logger.info("Near cache for entity {} following stream {} from {}", entityClass.getSimpleName(), streamKey, offset.getOffset());
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        streamMessageListenerContainer.stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /***
+     * Returns the cached entity, or loads it and caches it when found.
+     * The loaded value is not cached if an invalidation happened meanwhile, as it might be already stale.
+     */
+    public Optional<T> get(Object id, Function<Object, Optional<T>> loader) {
+        String key = String.valueOf(id);
+        T cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return Optional.of(cached);
+        }
+        misses.incrementAndGet();
+        long epoch = invalidationEpoch.get();
+        Optional<T> loaded = loader.apply(id);
+        loaded.ifPresent(entity -> putIfNotInvalidated(entity, epoch, null, null));
+        return loaded;
+    }
+
+    /***
+     * Returns the cached entity having the given value for the given attribute, or loads it and caches it.
+     * The index only maps the value to the ID: the entity is a hit only if it still has that value.
+     */
+    public Optional<T> getBy(String index, Object value, Function<T, ?> attribute, Supplier<Optional<T>> loader) {
+        T cached = null;
+        synchronized (entries) {
+            String key = indexes.computeIfAbsent(index, name -> new LinkedHashMap<>(16, 0.75f, true)).get(value);
+            if (key != null) {
+                T candidate = lookupLocked(key);
+                if (candidate != null && Objects.equals(attribute.apply(candidate), value)) {
+                    cached = candidate;
+                }
+            }
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return Optional.of(cached);
+        }
+        misses.incrementAndGet();
+        long epoch = invalidationEpoch.get();
+        Optional<T> loaded = loader.get();
+        loaded.ifPresent(entity -> putIfNotInvalidated(entity, epoch, index, attribute.apply(entity)));
+        return loaded;
+    }
+
+    public void put(T entity) {
+        synchronized (entries) {
+            putLocked(String.valueOf(idExtractor.apply(entity)), entity);
+        }
+    }
+
+    public void invalidate(Object id) {
+        synchronized (entries) {
+            invalidationEpoch.incrementAndGet();
+            Entry<T> removed = entries.remove(String.valueOf(id));
+            if (removed != null) {
+                weight -= removed.weight();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            invalidationEpoch.incrementAndGet();
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+            indexes.clear();
+            weight = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long weight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    void onEvent(MapRecord<String, String, String> record) {
+        try {
+            String content = record.getValue().get(EVENT_CONTENT_KEY);
+            if (content == null) return;
+            if (Operation.DELETE.getValue().equals(record.getValue().get(EVENT_OPERATION_KEY))) {
+                invalidate(content);
+                return;
+            }
+            T entity = objectMapper.readValue(content, entityClass);
+            String key = String.valueOf(idExtractor.apply(entity));
+            if (refreshOnWrite) {
+                synchronized (entries) {
+                    invalidationEpoch.incrementAndGet();
+                    putLocked(key, entity);
+                }
+            } else {
+                invalidate(key);
+            }
+        } catch (Exception e) {
+            logger.warn("Cannot apply event {} to the near cache of {}, clearing it - {}", record.getId(), entityClass.getSimpleName(), e.getMessage());
+            invalidateAll();
+        }
+    }
+
+    private T lookup(String key) {
+        synchronized (entries) {
+            return lookupLocked(key);
+        }
+    }
+
+    private T lookupLocked(String key) {
+        Entry<T> entry = entries.get(key);
+        if (entry == null) return null;
+        if (entry.expiresAt() <= clock.millis()) {
+            entries.remove(key);
+            weight -= entry.weight();
+            expirations.incrementAndGet();
+            return null;
+        }
+        return entry.value();
+    }
+
+    private void putIfNotInvalidated(T entity, long epoch, String index, Object value) {
+        synchronized (entries) {
+            if (invalidationEpoch.get() != epoch) return;
+            String key = String.valueOf(idExtractor.apply(entity));
+            putLocked(key, entity);
+            if (index != null) {
+                LinkedHashMap<Object, String> values = indexes.computeIfAbsent(index, name -> new LinkedHashMap<>(16, 0.75f, true));
+                values.put(value, key);
+                if (values.size() > entries.size()) {
+                    Iterator<Object> eldest = values.keySet().iterator();
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+    }
+
+    private void putLocked(String key, T entity) {
+        long entryWeight = weigher.applyAsLong(entity);
+        Entry<T> previous = entries.put(key, new Entry<>(entity, entryWeight, clock.millis() + expireAfterWrite.toMillis()));
+        weight += entryWeight - (previous == null ? 0 : previous.weight());
+        Iterator<Map.Entry<String, Entry<T>>> eldest = entries.entrySet().iterator();
+        while (weight > maximumWeight && eldest.hasNext()) {
+            Entry<T> evicted = eldest.next().getValue();
+            eldest.remove();
+            weight -= evicted.weight();
+            sizeEvictions.incrementAndGet();
+        }
+    }
+
+    public static class Builder<T> {
+
+        private final Class<T> entityClass;
+        private final Function<T, ?> idExtractor;
+        private long maximumWeight = 10_000;
+        private ToLongFunction<T> weigher = entity -> 1;
+        private Duration expireAfterWrite = Duration.ofMinutes(5);
+        private boolean refreshOnWrite = true;
+        private Clock clock = Clock.systemUTC();
+
+        private Builder(Class<T> entityClass, Function<T, ?> idExtractor) {
+            this.entityClass = entityClass;
+            this.idExtractor = idExtractor;
+        }
+
+        public Builder<T> maximumSize(long maximumSize) {
+            this.maximumWeight = maximumSize;
+            this.weigher = entity -> 1;
+            return this;
+        }
+
+        public Builder<T> maximumWeight(long maximumWeight, ToLongFunction<T> weigher) {
+            this.maximumWeight = maximumWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        public Builder<T> expireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+            return this;
+        }
+
+        public Builder<T> refreshOnWrite(boolean refreshOnWrite) {
+            this.refreshOnWrite = refreshOnWrite;
+            return this;
+        }
+
+        public Builder<T> clock(Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        public NearCache<T> build() {
+            return new NearCache<>(this);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.foogaro.redis.wbs.core.cache;
+
+import com.foogaro.redis.wbs.core.annotation.WriteBehind;
+import com.foogaro.redis.wbs.core.listener.AbstractStreamListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.env.Environment;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.foogaro.redis.wbs.core.Misc.getIdField;
+
+/***
+ * Registers a {@link NearCache} bean, named <code>&lt;entity&gt;NearCache</code>, for the entity of each stream listener,
+ * unless the application declares a bean of that name or disables it with <code>wb.stream.near-cache.&lt;entity&gt;.enabled=false</code>.
+ */
+public class NearCacheRegistrar implements BeanDefinitionRegistryPostProcessor, EnvironmentAware, BeanClassLoaderAware {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String PROPERTY_PREFIX = "wb.stream.near-cache.";
+
+    private Environment environment;
+    private ClassLoader classLoader;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public void setBeanClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) {
+        for (Class<?> entityClass : findEntities(registry)) {
+            String name = entityClass.getSimpleName().toLowerCase();
+            String beanName = Character.toLowerCase(entityClass.getSimpleName().charAt(0)) + entityClass.getSimpleName().substring(1) + "NearCache";
+            if (registry.containsBeanDefinition(beanName) || !property(name, "enabled", Boolean.class, true)) continue;
+            RootBeanDefinition definition = new RootBeanDefinition(NearCache.class);
+            definition.setTargetType(ResolvableType.forClassWithGenerics(NearCache.class, entityClass));
+            definition.setInstanceSupplier(() -> newNearCache(entityClass, name));
+            registry.registerBeanDefinition(beanName, definition);
+            logger.info("Near cache {} registered for entity {}", beanName, entityClass.getSimpleName());
+        }
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+    }
+
+    /***
+     * @return the <code>@WriteBehind</code> entities of the stream listeners declared so far.
+     */
+    private Set<Class<?>> findEntities(BeanDefinitionRegistry registry) {
+        Set<Class<?>> entities = new LinkedHashSet<>();
+        for (String beanName : registry.getBeanDefinitionNames()) {
+            BeanDefinition definition = registry.getBeanDefinition(beanName);
+            String className = definition.getBeanClassName();
+            if (className == null || !ClassUtils.isPresent(className, classLoader)) continue;
+            Class<?> beanClass = ClassUtils.resolveClassName(className, classLoader);
+            if (!AbstractStreamListener.class.isAssignableFrom(beanClass)) continue;
+            Class<?> entityClass = ResolvableType.forClass(beanClass).as(AbstractStreamListener.class).resolveGeneric(0);
+            if (entityClass != null && entityClass.isAnnotationPresent(WriteBehind.class)) {
+                entities.add(entityClass);
+            }
+        }
+        return entities;
+    }
+
+    private <T> NearCache<T> newNearCache(Class<T> entityClass, String name) {
+        Field idField = getIdField(entityClass)
+                .orElseThrow(() -> new IllegalStateException("No ID field found on entity " + entityClass.getName()));
+        ReflectionUtils.makeAccessible(idField);
+        return NearCache.builder(entityClass, entity -> ReflectionUtils.getField(idField, entity))
+                .maximumSize(property(name, "maximum-size", Long.class, 10_000L))
+                .expireAfterWrite(Duration.ofMillis(property(name, "expire-after-write", Long.class, 300_000L)))
+                .refreshOnWrite(property(name, "refresh-on-write", Boolean.class, true))
+                .build();
+    }
+
+    /***
+     * @return the property of the entity, or else the one of all the entities.
+     */
+    private <V> V property(String name, String property, Class<V> type, V defaultValue) {
+        return environment.getProperty(PROPERTY_PREFIX + name + "." + property, type,
+                environment.getProperty(PROPERTY_PREFIX + property, type, defaultValue));
+    }
+}
@@ -0,0 +1,16 @@
+package com.foogaro.redis.wbs.core.cache;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.ScrollPosition;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Window;
+
+/***
+ * A database repository the {@link CacheWarmer} can scroll through, with no filter, by extending this interface:
+ * Spring Data derives the query of {@link #findAllBy} from its name.
+ */
+public interface ScrollableRepository<T> {
+
+    Window<T> findAllBy(ScrollPosition position, Limit limit, Sort sort);
+
+}
@@ -0,0 +1,241 @@
+package com.foogaro.redis.wbs.core.compaction;
+
+import com.foogaro.redis.wbs.core.Misc;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static com.foogaro.redis.wbs.core.Misc.*;
+
+/***
+ * Keeps a compacted snapshot of each entity stream, the latest event of each entity ID and the stream ID it covers,
+ * so that new consumer groups are bootstrapped from it instead of replaying every superseded event.
+ */
+public class StreamCompactor {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String VALUE_SEPARATOR = " ";
+    private static final int MAX_BATCHES_PER_RUN = 10;
+
+    private static final RedisScript<Long> COMPACT_SCRIPT = RedisScript.of("""
+            local function newer(a, b)
+              local ams, aseq = string.match(a, '(%d+)-(%d+)')
+              local bms, bseq = string.match(b, '(%d+)-(%d+)')
+              ams, aseq, bms, bseq = tonumber(ams), tonumber(aseq), tonumber(bms), tonumber(bseq)
+              return ams > bms or (ams == bms and aseq > bseq)
+            end
+            for i = 3, #ARGV, 3 do
+              local current = redis.call('HGET', KEYS[1], ARGV[i])
+              if not current or newer(ARGV[i + 1], string.match(current, '^(%S+)')) then
+                redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1] .. ' ' .. ARGV[i + 2])
+              end
+            end
+            local offset = redis.call('GET', KEYS[2])
+            if ARGV[1] ~= '' and (not offset or newer(ARGV[1], offset)) then
+              redis.call('SET', KEYS[2], ARGV[1])
+              offset = ARGV[1]
+            end
+            local gap = redis.call('GET', KEYS[3])
+            if ARGV[2] ~= '' then
+              if not offset or newer(ARGV[2], offset) then
+                redis.call('SET', KEYS[3], ARGV[2])
+              end
+            elseif gap and (not offset or not newer(gap, offset)) then
+              redis.call('DEL', KEYS[3])
+            end
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration interval;
+    private final int batchSize;
+    private final Map<String, Function<MapRecord<String, String, String>, String>> idReaders = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wb-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param interval how often the streams are compacted
+     * @param batchSize how many events are read and merged at a time
+     */
+    public StreamCompactor(RedisConnectionFactory connectionFactory, ObjectMapper objectMapper, Duration interval, int batchSize) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.objectMapper = objectMapper;
+        this.interval = interval;
+        this.batchSize = batchSize;
+    }
+
+    /***
+     * Registers how to read the entity ID of the events of the stream which don't carry an {@code id} field,
+     * e.g. from the content, so that they are compacted too.
+     * @param idReader returns the ID of the entity of the record, <code>null</code> if it can't be read
+     */
+    public void registerIdReader(String streamKey, Function<MapRecord<String, String, String>, String> idReader) {
+        idReaders.putIfAbsent(streamKey, idReader);
+    }
+
+    @PostConstruct
+    private void start() {
+        scheduler.scheduleWithFixedDelay(this::compactAll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void compactAll() {
+        ScanOptions options = ScanOptions.scanOptions().match(getStreamKeyPattern()).type(DataType.STREAM).build();
+        List<String> streamKeys = new ArrayList<>();
+        try (Cursor<String> keys = redisTemplate.scan(options)) {
+            keys.forEachRemaining(streamKey -> {
+                if (!isDLQStreamKey(streamKey)) streamKeys.add(streamKey);
+            });
+        } catch (Exception e) {
+            logger.warn("Error listing the streams to compact - {}", e.getMessage());
+            return;
+        }
+        for (String streamKey : streamKeys) {
+            try {
+                compact(streamKey);
+            } catch (Exception e) {
+                logger.warn("Error compacting stream {} - {}", streamKey, e.getMessage());
+            }
+        }
+    }
+
+    /***
+     * Merges into the snapshot the events added to the stream since the last compaction,
+     * up to the first event whose entity ID can't be read.
+     * @return the number of events merged
+     */
+    public int compact(String streamKey) throws Exception {
+        Function<MapRecord<String, String, String>, String> idReader = idReaders.getOrDefault(streamKey, Misc::getEntityId);
+        List<String> keys = List.of(getSnapshotKey(streamKey), getSnapshotOffsetKey(streamKey), getSnapshotGapKey(streamKey));
+        int read = 0;
+        for (int batch = 0; batch < MAX_BATCHES_PER_RUN; batch++) {
+            String offset = redisTemplate.opsForValue().get(getSnapshotOffsetKey(streamKey));
+            Range<String> range = offset == null ? Range.unbounded() : Range.rightUnbounded(Range.Bound.exclusive(offset));
+            List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream()
+                    .range(streamKey, range, Limit.limit().count(batchSize));
+            if (records == null || records.isEmpty()) break;
+
+            List<String> args = new ArrayList<>(List.of("", ""));
+            int merged = 0;
+            for (MapRecord<String, Object, Object> record : records) {
+                Map<String, String> fields = new LinkedHashMap<>();
+                record.getValue().forEach((field, value) -> fields.put(String.valueOf(field), String.valueOf(value)));
+                String id = idReader.apply(StreamRecords.newRecord().in(streamKey).withId(record.getId()).ofMap(fields));
+                if (id == null) {
+                    args.set(1, record.getId().getValue());
+                    break;
+                }
+                args.set(0, record.getId().getValue());
+                args.add(id);
+                args.add(record.getId().getValue());
+                args.add(objectMapper.writeValueAsString(fields));
+                merged++;
+            }
+            redisTemplate.execute(COMPACT_SCRIPT, keys, args.toArray());
+            read += merged;
+            if (!args.get(1).isEmpty()) {
+                logger.warn("Compaction of stream {} stopped at event {}, which carries no entity ID", streamKey, args.get(1));
+                break;
+            }
+            if (records.size() < batchSize) break;
+        }
+        if (read > 0) {
+            logger.debug("Compacted {} events of stream {}", read, streamKey);
+        }
+        return read;
+    }
+
+    /***
+     * @return the stream ID to create the consumer group at, once the snapshot has been loaded,
+     * if the stream has a snapshot covering every event up to the stream ID and the group doesn't exist yet.
+     */
+    public Optional<RecordId> getBootstrapOffset(String streamKey, String group) {
+        Optional<RecordId> offset = getOffset(streamKey);
+        if (offset.isEmpty()) return offset;
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(getSnapshotGapKey(streamKey)))) {
+            logger.info("Snapshot of stream {} has a gap at {}, consumer group {} replays the stream",
+                    streamKey, redisTemplate.opsForValue().get(getSnapshotGapKey(streamKey)), group);
+            return Optional.empty();
+        }
+        boolean exists = redisTemplate.opsForStream().groups(streamKey).stream()
+                .anyMatch(info -> group.equals(info.groupName()));
+        return exists ? Optional.empty() : offset;
+    }
+
+    /***
+     * @return the last stream ID covered by the snapshot of the stream, if any.
+     */
+    public Optional<RecordId> getOffset(String streamKey) {
+        return Optional.ofNullable(redisTemplate.opsForValue().get(getSnapshotOffsetKey(streamKey))).map(RecordId::of);
+    }
+
+    /***
+     * Passes the latest event of each entity ID in the snapshot of the stream, as records carrying their original
+     * stream ID, in batches. Tombstones are skipped, as there is nothing to delete for a new consumer group.
+     * @return the number of records passed
+     */
+    public long load(String streamKey, int batchSize, Consumer<List<MapRecord<String, String, String>>> batchConsumer) {
+        long loaded = 0;
+        List<MapRecord<String, String, String>> batch = new ArrayList<>(batchSize);
+        ScanOptions options = ScanOptions.scanOptions().count(batchSize).build();
+        try (Cursor<Map.Entry<Object, Object>> entries = redisTemplate.opsForHash().scan(getSnapshotKey(streamKey), options)) {
+            while (entries.hasNext()) {
+                MapRecord<String, String, String> record = toRecord(streamKey, String.valueOf(entries.next().getValue()));
+                if (Operation.DELETE.getValue().equals(record.getValue().get(EVENT_OPERATION_KEY))) continue;
+                batch.add(record);
+                if (batch.size() >= batchSize) {
+                    batchConsumer.accept(List.copyOf(batch));
+                    loaded += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(List.copyOf(batch));
+            loaded += batch.size();
+        }
+        return loaded;
+    }
+
+    private MapRecord<String, String, String> toRecord(String streamKey, String value) {
+        int separator = value.indexOf(VALUE_SEPARATOR);
+        try {
+            Map<String, String> fields = objectMapper.readValue(value.substring(separator + 1), new TypeReference<>() {});
+            return StreamRecords.newRecord().in(streamKey).withId(RecordId.of(value.substring(0, separator))).ofMap(fields);
+        } catch (Exception e) {
+            throw new IllegalStateException("Invalid snapshot entry of stream " + streamKey, e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.foogaro.redis.wbs.core.config;
+
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.Lifecycle;
+import org.springframework.data.redis.connection.*;
+import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.util.ClassUtils;
+
+import java.time.Duration;
+
+/***
+ * Connections dedicated to the blocking XREADGROUP calls of the stream listener container, taken from a factory
+ * of their own so that idle polls don't hold the connections of the producers.
+ */
+public class StreamReadConnections implements InitializingBean, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String CLIENT_NAME = "wb-stream-reader";
+    private static final Duration READ_TIMEOUT_MARGIN = Duration.ofSeconds(1);
+
+    private final RedisConnectionFactory connectionFactory;
+    private final boolean dedicated;
+
+    /***
+     * Blocking reads sharing the connections of the application.
+     */
+    public StreamReadConnections(RedisConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+        this.dedicated = false;
+    }
+
+    /***
+     * @param connectionFactory the connection factory of the application
+     * @param poolSize the number of connections for the blocking reads, at least the number of subscriptions
+     * @param blockTimeout the block timeout of the polls
+     */
+    public StreamReadConnections(RedisConnectionFactory connectionFactory, int poolSize, Duration blockTimeout) {
+        RedisConnectionFactory readConnectionFactory = null;
+        if (isJedis(connectionFactory)) {
+            readConnectionFactory = jedis((JedisConnectionFactory) connectionFactory, poolSize, blockTimeout.plus(READ_TIMEOUT_MARGIN));
+        } else if (isLettuce(connectionFactory)) {
+            readConnectionFactory = lettuce((LettuceConnectionFactory) connectionFactory);
+        } else {
+            logger.warn("Unknown connection factory {}, blocking reads share its connections", connectionFactory.getClass().getName());
+        }
+        this.dedicated = readConnectionFactory != null;
+        this.connectionFactory = dedicated ? readConnectionFactory : connectionFactory;
+    }
+
+    public RedisConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    public boolean isDedicated() {
+        return dedicated;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!dedicated) return;
+        if (connectionFactory instanceof InitializingBean initializingBean) {
+            initializingBean.afterPropertiesSet();
+        }
+        if (connectionFactory instanceof Lifecycle lifecycle) {
+            lifecycle.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (dedicated && connectionFactory instanceof DisposableBean disposableBean) {
+            disposableBean.destroy();
+        }
+    }
+
+    private static boolean isJedis(RedisConnectionFactory connectionFactory) {
+        return ClassUtils.isPresent("redis.clients.jedis.Jedis", StreamReadConnections.class.getClassLoader())
+                && connectionFactory instanceof JedisConnectionFactory;
+    }
+
+    private static boolean isLettuce(RedisConnectionFactory connectionFactory) {
+        return ClassUtils.isPresent("io.lettuce.core.RedisClient", StreamReadConnections.class.getClassLoader())
+                && connectionFactory instanceof LettuceConnectionFactory;
+    }
+
+    private static RedisConfiguration getConfiguration(JedisConnectionFactory connectionFactory) {
+        if (connectionFactory.isRedisSentinelAware()) return connectionFactory.getSentinelConfiguration();
+        if (connectionFactory.isRedisClusterAware()) return connectionFactory.getClusterConfiguration();
+        return connectionFactory.getStandaloneConfiguration();
+    }
+
+    private static RedisConfiguration getConfiguration(LettuceConnectionFactory connectionFactory) {
+        if (connectionFactory.isRedisSentinelAware()) return connectionFactory.getSentinelConfiguration();
+        if (connectionFactory.isClusterAware()) return connectionFactory.getClusterConfiguration();
+        return connectionFactory.getStandaloneConfiguration();
+    }
+
+    private static RedisConnectionFactory jedis(JedisConnectionFactory connectionFactory, int poolSize, Duration readTimeout) {
+        GenericObjectPoolConfig<?> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolSize);
+        poolConfig.setMaxIdle(poolSize);
+        poolConfig.setMinIdle(0);
+
+        JedisClientConfiguration applicationClient = connectionFactory.getClientConfiguration();
+        JedisClientConfiguration.JedisClientConfigurationBuilder client = JedisClientConfiguration.builder()
+                .clientName(CLIENT_NAME)
+                .connectTimeout(applicationClient.getConnectTimeout())
+                .readTimeout(readTimeout);
+        if (applicationClient.isUseSsl()) {
+            client.useSsl();
+        }
+        RedisConfiguration configuration = getConfiguration(connectionFactory);
+        JedisClientConfiguration clientConfiguration = client.usePooling().poolConfig(poolConfig).build();
+        if (configuration instanceof RedisSentinelConfiguration sentinel) {
+            return new JedisConnectionFactory(sentinel, clientConfiguration);
+        }
+        if (configuration instanceof RedisClusterConfiguration cluster) {
+            return new JedisConnectionFactory(cluster, clientConfiguration);
+        }
+        return new JedisConnectionFactory((RedisStandaloneConfiguration) configuration, clientConfiguration);
+    }
+
+    private static RedisConnectionFactory lettuce(LettuceConnectionFactory connectionFactory) {
+        LettuceConnectionFactory readConnectionFactory = new LettuceConnectionFactory(getConfiguration(connectionFactory),
+                connectionFactory.getClientConfiguration());
+        readConnectionFactory.setShareNativeConnection(false);
+        return readConnectionFactory;
+    }
+}
@@ -0,0 +1,417 @@
+package com.foogaro.redis.wbs.core.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.foogaro.redis.wbs.core.aggregate.*;
+import com.foogaro.redis.wbs.core.autoscale.ConsumerAutoscaler;
+import com.foogaro.redis.wbs.core.bulkhead.Bulkheads;
+import com.foogaro.redis.wbs.core.cache.CacheWarmer;
+import com.foogaro.redis.wbs.core.cache.NearCacheRegistrar;
+import com.foogaro.redis.wbs.core.compaction.StreamCompactor;
+import com.foogaro.redis.wbs.core.hotkeys.HotKeyTracker;
+import com.foogaro.redis.wbs.core.hotkeys.HotKeysEndpoint;
+import com.foogaro.redis.wbs.core.jdbc.CheckpointPruner;
+import com.foogaro.redis.wbs.core.jdbc.OffsetCheckpoint;
+import com.foogaro.redis.wbs.core.jdbc.UpsertDialect;
+import com.foogaro.redis.wbs.core.listener.AbstractStreamListener;
+import com.foogaro.redis.wbs.core.listener.MultiplexedStreamPoller;
+import com.foogaro.redis.wbs.core.processor.LazyAcknowledger;
+import com.foogaro.redis.wbs.core.ratelimit.WriteRateLimitEndpoint;
+import com.foogaro.redis.wbs.core.ratelimit.WriteRateLimiter;
+import com.foogaro.redis.wbs.core.scheduler.PriorityScheduler;
+import com.foogaro.redis.wbs.core.service.FlushBarrier;
+import com.foogaro.redis.wbs.core.service.LastAppliedIndex;
+import com.foogaro.redis.wbs.core.service.PendingWriteIndex;
+import com.foogaro.redis.wbs.core.watchdog.SubscriptionHealthIndicator;
+import com.foogaro.redis.wbs.core.watchdog.SubscriptionWatchdog;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.autoconfigure.health.ConditionalOnEnabledHealthIndicator;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisAutoConfiguration;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisKeyValueAdapter;
+import org.springframework.data.redis.stream.StreamMessageListenerContainer;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.ErrorHandler;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+/***
+ * Auto-configuration of the write-behind infrastructure, from the stream listener container shared by the listeners
+ * to the optional components enabled by the <code>wb.stream.*</code> properties documented in the README.
+ */
+@AutoConfiguration(after = RedisAutoConfiguration.class, afterName = {
+        "org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration",
+        "org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration",
+        "org.springframework.boot.autoconfigure.data.redis.RedisRepositoriesAutoConfiguration"})
+@ConditionalOnBean(RedisConnectionFactory.class)
+public class WriteBehindAutoConfiguration {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Bean
+    @ConditionalOnMissingBean(StreamMessageListenerContainer.class)
+    public StreamReadConnections streamReadConnections(RedisConnectionFactory redisConnectionFactory,
+                                                       @Value("${wb.stream.container.dedicated-connections:true}") boolean dedicated,
+                                                       @Value("${wb.stream.container.read-connections:16}") int poolSize,
+                                                       @Value("${wb.stream.container.poll-timeout:1000}") long pollTimeout) {
+        if (!dedicated) {
+            return new StreamReadConnections(redisConnectionFactory);
+        }
+        return new StreamReadConnections(redisConnectionFactory, poolSize, Duration.ofMillis(pollTimeout));
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(StreamMessageListenerContainer.class)
+    public StreamMessageListenerContainer<String, MapRecord<String, String, String>> streamMessageListenerContainer(
+            StreamReadConnections streamReadConnections,
+            ObjectProvider<MeterRegistry> meterRegistry,
+            @Value("${wb.stream.container.batch-size:100}") int batchSize,
+            @Value("${wb.stream.container.poll-timeout:1000}") long pollTimeout,
+            @Value("${wb.stream.container.thread-name-prefix:wb-stream-}") String threadNamePrefix,
+            @Value("${wb.stream.container.virtual-threads:false}") boolean virtualThreads) {
+
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(virtualThreads);
+
+        StreamMessageListenerContainer.StreamMessageListenerContainerOptions<String, MapRecord<String, String, String>> options =
+                StreamMessageListenerContainer.StreamMessageListenerContainerOptions.builder()
+                        .batchSize(batchSize)
+                        .pollTimeout(Duration.ofMillis(pollTimeout))
+                        .executor(executor)
+                        .errorHandler(errorHandler(meterRegistry.getIfAvailable()))
+                        .build();
+
+        logger.info("Stream listener container with batch size {}, poll timeout {} ms, {} connections", batchSize, pollTimeout,
+                streamReadConnections.isDedicated() ? "dedicated" : "shared");
+        return StreamMessageListenerContainer.create(streamReadConnections.getConnectionFactory(), options);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.container.multiplexed", havingValue = "true")
+    public MultiplexedStreamPoller multiplexedStreamPoller(ObjectProvider<StreamReadConnections> streamReadConnections,
+                                                           RedisConnectionFactory redisConnectionFactory,
+                                                           ObjectProvider<MeterRegistry> meterRegistry,
+                                                           @Value("${wb.stream.container.batch-size:100}") int batchSize,
+                                                           @Value("${wb.stream.container.poll-timeout:1000}") long pollTimeout,
+                                                           @Value("${wb.stream.container.multiplex-workers:4}") int workers) {
+        StreamReadConnections readConnections = streamReadConnections.getIfAvailable();
+        RedisConnectionFactory connectionFactory = readConnections != null ? readConnections.getConnectionFactory() : redisConnectionFactory;
+        return new MultiplexedStreamPoller(connectionFactory, batchSize, Duration.ofMillis(pollTimeout), workers,
+                errorHandler(meterRegistry.getIfAvailable()));
+    }
+
+    /***
+     * Checks the subscriptions of the listeners every <code>wb.stream.watchdog.interval</code> milliseconds, resubscribing
+     * those cancelled, missing their group, or idle for <code>wb.stream.watchdog.stall-timeout</code> milliseconds while
+     * their group is behind, with a backoff of up to <code>wb.stream.watchdog.max-backoff</code> milliseconds.
+     * Disabled by <code>wb.stream.watchdog.enabled=false</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.watchdog.enabled", havingValue = "true", matchIfMissing = true)
+    public SubscriptionWatchdog subscriptionWatchdog(ObjectProvider<AbstractStreamListener<?, ?>> streamListeners,
+                                                     ObjectProvider<MeterRegistry> meterRegistry,
+                                                     @Value("${wb.stream.watchdog.interval:5000}") long interval,
+                                                     @Value("${wb.stream.watchdog.stall-timeout:30000}") long stallTimeout,
+                                                     @Value("${wb.stream.watchdog.max-backoff:60000}") long maxBackoff) {
+        return new SubscriptionWatchdog(streamListeners, Duration.ofMillis(interval), Duration.ofMillis(stallTimeout),
+                Duration.ofMillis(maxBackoff), meterRegistry.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnEnabledHealthIndicator("subscriptions")
+    @ConditionalOnProperty(name = "wb.stream.watchdog.enabled", havingValue = "true", matchIfMissing = true)
+    public SubscriptionHealthIndicator subscriptionsHealthIndicator(SubscriptionWatchdog subscriptionWatchdog) {
+        return new SubscriptionHealthIndicator(subscriptionWatchdog);
+    }
+
+    /***
+     * Scales the consumers of each listener between <code>wb.stream.autoscaler.min-consumers</code> and
+     * <code>wb.stream.autoscaler.max-consumers</code>, sampling the lag and the pending entries of its group
+     * every <code>wb.stream.autoscaler.interval</code> milliseconds, see {@link ConsumerAutoscaler}.
+     * Enabled by <code>wb.stream.autoscaler.enabled=true</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.autoscaler.enabled", havingValue = "true")
+    public ConsumerAutoscaler consumerAutoscaler(ObjectProvider<AbstractStreamListener<?, ?>> streamListeners,
+                                                 ApplicationEventPublisher eventPublisher,
+                                                 ObjectProvider<MeterRegistry> meterRegistry,
+                                                 @Value("${wb.stream.autoscaler.interval:5000}") long interval,
+                                                 @Value("${wb.stream.autoscaler.min-consumers:1}") int minConsumers,
+                                                 @Value("${wb.stream.autoscaler.max-consumers:4}") int maxConsumers,
+                                                 @Value("${wb.stream.autoscaler.scale-up-lag:1000}") long scaleUpLag,
+                                                 @Value("${wb.stream.autoscaler.scale-down-lag:10}") long scaleDownLag,
+                                                 @Value("${wb.stream.autoscaler.scale-up-samples:2}") int scaleUpSamples,
+                                                 @Value("${wb.stream.autoscaler.scale-down-samples:6}") int scaleDownSamples,
+                                                 @Value("${wb.stream.autoscaler.cooldown:30000}") long cooldown) {
+        ConsumerAutoscaler.Policy policy = new ConsumerAutoscaler.Policy(Math.max(1, minConsumers), Math.max(minConsumers, maxConsumers),
+                scaleUpLag, Math.min(scaleDownLag, scaleUpLag - 1), scaleUpSamples, scaleDownSamples, Duration.ofMillis(cooldown));
+        return new ConsumerAutoscaler(streamListeners, policy, Duration.ofMillis(interval), eventPublisher, meterRegistry.getIfAvailable());
+    }
+
+    /***
+     * Skips the events older than the last one applied to the same entity, see {@link LastAppliedIndex}.
+     * Enabled by <code>wb.stream.processor.skip-stale=true</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.processor.skip-stale", havingValue = "true")
+    public LastAppliedIndex lastAppliedIndex(RedisConnectionFactory redisConnectionFactory,
+                                             @Value("${wb.stream.processor.applied-ttl:3600000}") long timeToLive) {
+        return new LastAppliedIndex(redisConnectionFactory, Duration.ofMillis(timeToLive));
+    }
+
+    /***
+     * Tracks the entities written to the streams and not yet persisted by every consumer group, see {@link PendingWriteIndex}.
+     * Enabled by <code>wb.stream.pending-writes.enabled=true</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.pending-writes.enabled", havingValue = "true")
+    public PendingWriteIndex pendingWriteIndex(RedisConnectionFactory redisConnectionFactory) {
+        return new PendingWriteIndex(redisConnectionFactory);
+    }
+
+    /***
+     * Lets producers wait for the consumer groups to persist their writes, with the consumers notifying their progress
+     * at most every <code>wb.stream.flush-barrier.notify-interval</code> milliseconds, and the waiters re-checked
+     * every <code>wb.stream.flush-barrier.recheck-interval</code> milliseconds, see {@link FlushBarrier}.
+     * Enabled by <code>wb.stream.flush-barrier.enabled=true</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.flush-barrier.enabled", havingValue = "true")
+    public FlushBarrier flushBarrier(RedisConnectionFactory redisConnectionFactory,
+                                     @Value("${wb.stream.flush-barrier.notify-interval:50}") long notifyInterval,
+                                     @Value("${wb.stream.flush-barrier.recheck-interval:5000}") long recheckInterval) {
+        return new FlushBarrier(redisConnectionFactory, Duration.ofMillis(notifyInterval), Duration.ofMillis(recheckInterval));
+    }
+
+    /***
+     * Tracks the <code>wb.stream.hot-keys.k</code> hottest entity IDs of each stream, halving the counts every
+     * <code>wb.stream.hot-keys.window</code> milliseconds; IDs whose count exceeds <code>wb.stream.hot-keys.threshold</code>
+     * are logged as hot. Disabled by <code>wb.stream.hot-keys.enabled=false</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.hot-keys.enabled", havingValue = "true", matchIfMissing = true)
+    public HotKeyTracker hotKeyTracker(ObjectProvider<MeterRegistry> meterRegistry,
+                                       @Value("${wb.stream.hot-keys.k:10}") int k,
+                                       @Value("${wb.stream.hot-keys.window:60000}") long window,
+                                       @Value("${wb.stream.hot-keys.threshold:1000}") long threshold) {
+        return new HotKeyTracker(k, Duration.ofMillis(window), threshold, meterRegistry.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnAvailableEndpoint
+    @ConditionalOnProperty(name = "wb.stream.hot-keys.enabled", havingValue = "true", matchIfMissing = true)
+    public HotKeysEndpoint hotKeysEndpoint(HotKeyTracker hotKeyTracker) {
+        return new HotKeysEndpoint(hotKeyTracker);
+    }
+
+    /***
+     * Unlimited unless <code>wb.stream.rate-limit.*</code> properties are set, see {@link WriteRateLimiter}.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public WriteRateLimiter writeRateLimiter(Environment environment, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new WriteRateLimiter(environment, meterRegistry.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnAvailableEndpoint
+    public WriteRateLimitEndpoint writeRateLimitEndpoint(WriteRateLimiter writeRateLimiter) {
+        return new WriteRateLimitEndpoint(writeRateLimiter);
+    }
+
+    /***
+     * Runs the records of all the listeners on <code>wb.stream.scheduler.workers</code> threads, weighted by priority,
+     * with up to <code>wb.stream.scheduler.lane-capacity</code> records queued per listener.
+     * By default there is one worker per listener, so no lane waits for a worker; as weights only apply while lanes wait,
+     * one worker less than listeners trades that for strict weighting.
+     * Enabled by <code>wb.stream.scheduler.enabled=true</code>, otherwise records run in the polling threads.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.scheduler.enabled", havingValue = "true")
+    public PriorityScheduler priorityScheduler(ObjectProvider<MeterRegistry> meterRegistry,
+                                               ListableBeanFactory beanFactory,
+                                               @Value("${wb.stream.scheduler.workers:0}") int workers,
+                                               @Value("${wb.stream.scheduler.lane-capacity:100}") int laneCapacity) {
+        if (workers <= 0) {
+            workers = Math.max(1, beanFactory.getBeanNamesForType(AbstractStreamListener.class, false, false).length);
+        }
+        return new PriorityScheduler(workers, laneCapacity, "wb-scheduler-", meterRegistry.getIfAvailable());
+    }
+
+    /***
+     * Isolates the records in flight and the pending messages of each listener, with up to
+     * <code>wb.stream.bulkhead.capacity</code> records in flight per listener, see {@link Bulkheads}.
+     * Enabled by <code>wb.stream.bulkhead.enabled=true</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.bulkhead.enabled", havingValue = "true")
+    public Bulkheads bulkheads(Environment environment, ObjectProvider<MeterRegistry> meterRegistry) {
+        return new Bulkheads(environment, meterRegistry.getIfAvailable());
+    }
+
+    /***
+     * Compacts the entity streams every <code>wb.stream.compaction.interval</code> milliseconds, reading
+     * <code>wb.stream.compaction.batch-size</code> events at a time, so that new consumer groups are bootstrapped
+     * from the snapshots. Enabled by <code>wb.stream.compaction.enabled=true</code>.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(name = "wb.stream.compaction.enabled", havingValue = "true")
+    public StreamCompactor streamCompactor(RedisConnectionFactory redisConnectionFactory, ObjectMapper objectMapper,
+                                           @Value("${wb.stream.compaction.interval:5000}") long interval,
+                                           @Value("${wb.stream.compaction.batch-size:1000}") int batchSize) {
+        return new StreamCompactor(redisConnectionFactory, objectMapper, Duration.ofMillis(interval), batchSize);
+    }
+
+    /***
+     * Loads the database into the Redis repositories on demand, <code>wb.cache.warm-up.chunk-size</code> entities at a time
+     * with <code>wb.cache.warm-up.parallelism</code> chunks written concurrently, skipping the IDs in the
+     * {@link PendingWriteIndex}, if any.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnBean(RedisKeyValueAdapter.class)
+    public CacheWarmer cacheWarmer(RedisConnectionFactory redisConnectionFactory, RedisKeyValueAdapter redisKeyValueAdapter,
+                                   ObjectProvider<PendingWriteIndex> pendingWriteIndex, ObjectProvider<MeterRegistry> meterRegistry,
+                                   @Value("${wb.cache.warm-up.chunk-size:1000}") int chunkSize,
+                                   @Value("${wb.cache.warm-up.parallelism:4}") int parallelism) {
+        return new CacheWarmer(redisConnectionFactory, redisKeyValueAdapter, pendingWriteIndex.getIfAvailable(),
+                chunkSize, parallelism, meterRegistry.getIfAvailable());
+    }
+
+    /***
+     * Registers a near cache per entity, of up to <code>wb.stream.near-cache.maximum-size</code> entries expiring after
+     * <code>wb.stream.near-cache.expire-after-write</code> milliseconds, refreshed by the save events unless
+     * <code>wb.stream.near-cache.refresh-on-write=false</code>, each property overridable per entity.
+     * Enabled by <code>wb.stream.near-cache.enabled=true</code>.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "wb.stream.near-cache.enabled", havingValue = "true")
+    public static NearCacheRegistrar nearCacheRegistrar() {
+        return new NearCacheRegistrar();
+    }
+
+    /***
+     * Aggregate events, applying the changes of several entities in one transaction, see {@link AggregateEvent}.
+     * Enabled by <code>wb.stream.aggregate.enabled=true</code>, with a {@link PlatformTransactionManager}.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(name = "wb.stream.aggregate.enabled", havingValue = "true")
+    @ConditionalOnBean(PlatformTransactionManager.class)
+    @RegisterReflectionForBinding(AggregateEvent.class)
+    static class AggregateConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public AggregateEventProducer aggregateEventProducer(RedisConnectionFactory redisConnectionFactory, ObjectMapper objectMapper) {
+            return new AggregateEventProducer(redisConnectionFactory, objectMapper);
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public AggregateProcessor aggregateProcessor() {
+            return new AggregateProcessor();
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public AggregateStreamListener aggregateStreamListener() {
+            return new AggregateStreamListener();
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public AggregatePendingMessageHandler aggregatePendingMessageHandler() {
+            return new AggregatePendingMessageHandler();
+        }
+    }
+
+    /***
+     * Checkpoints the stream IDs applied in the transaction of the writes, in the <code>wb.stream.checkpoint.table</code>
+     * table, created by <code>wb.stream.checkpoint.create-table=true</code>, see {@link OffsetCheckpoint},
+     * acknowledges the records every <code>wb.stream.checkpoint.ack-interval</code> milliseconds, or as soon as
+     * <code>wb.stream.checkpoint.ack-batch-size</code> are buffered, see {@link LazyAcknowledger}, and prunes the
+     * checkpoints every <code>wb.stream.checkpoint.prune-interval</code> milliseconds, see {@link CheckpointPruner}.
+     * Enabled by <code>wb.stream.checkpoint.enabled=true</code>, with a {@link DataSource} and a {@link PlatformTransactionManager}.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(name = "wb.stream.checkpoint.enabled", havingValue = "true")
+    @ConditionalOnClass(name = "org.springframework.jdbc.core.JdbcTemplate")
+    @ConditionalOnBean({DataSource.class, PlatformTransactionManager.class})
+    static class CheckpointConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        public OffsetCheckpoint offsetCheckpoint(DataSource dataSource, PlatformTransactionManager transactionManager,
+                                                 ObjectProvider<MeterRegistry> meterRegistry,
+                                                 @Value("${wb.stream.checkpoint.table:" + OffsetCheckpoint.DEFAULT_TABLE + "}") String table,
+                                                 @Value("${wb.stream.checkpoint.create-table:false}") boolean createTable) {
+            OffsetCheckpoint offsetCheckpoint = new OffsetCheckpoint(dataSource, transactionManager, table,
+                    UpsertDialect.detect(dataSource), meterRegistry.getIfAvailable());
+            if (createTable) {
+                offsetCheckpoint.createTable();
+            }
+            return offsetCheckpoint;
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public LazyAcknowledger lazyAcknowledger(RedisConnectionFactory redisConnectionFactory, ObjectProvider<MeterRegistry> meterRegistry,
+                                                 @Value("${wb.stream.checkpoint.ack-interval:2000}") long ackInterval,
+                                                 @Value("${wb.stream.checkpoint.ack-batch-size:1000}") int ackBatchSize) {
+            return new LazyAcknowledger(redisConnectionFactory, Duration.ofMillis(ackInterval), ackBatchSize, meterRegistry.getIfAvailable());
+        }
+
+        @Bean
+        @ConditionalOnMissingBean
+        public CheckpointPruner checkpointPruner(OffsetCheckpoint offsetCheckpoint, RedisConnectionFactory redisConnectionFactory,
+                                                 @Value("${wb.stream.checkpoint.prune-interval:60000}") long pruneInterval) {
+            return new CheckpointPruner(offsetCheckpoint, redisConnectionFactory, Duration.ofMillis(pruneInterval));
+        }
+    }
+
+    /***
+     * Logs and counts the errors of the polls: timeouts and connection failures are retried by the next poll,
+     * while other errors cancel the subscription, which the {@link SubscriptionWatchdog} resubscribes.
+     */
+    private ErrorHandler errorHandler(MeterRegistry meterRegistry) {
+        Counter errors = meterRegistry != null ? Counter.builder("wb.stream.container.errors").register(meterRegistry) : null;
+        return e -> {
+            if (errors != null) {
+                errors.increment();
+            }
+            logger.error("Error polling the stream - {}", e.getMessage(), e);
+        };
+    }
+}
@@ -0,0 +1,13 @@
+package com.foogaro.redis.wbs.core.fanout;
+
+/***
+ * Marker type used in place of the repository type for entities annotated with
+ * {@code @WriteBehind(fanOut = true)}: the consumer group and the consumer name are derived from it,
+ * so there is a single group reading the entity stream regardless of the number of repositories.
+ */
+public final class FanOut {
+
+    private FanOut() {
+    }
+
+}
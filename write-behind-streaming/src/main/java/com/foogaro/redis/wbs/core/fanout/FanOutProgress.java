@@ -0,0 +1,46 @@
+package com.foogaro.redis.wbs.core.fanout;
+
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.time.Duration;
+import java.util.Set;
+
+import static com.foogaro.redis.wbs.core.Misc.getFanOutAppliedKey;
+
+/***
+ * The sinks which applied a record of a fan-out entity, kept in a Redis set per record until it is acknowledged,
+ * so that retries, even after a restart, skip them.
+ */
+public class FanOutProgress {
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final Duration ttl;
+
+    /***
+     * @param ttl how long the progress of a record is kept if it is never acknowledged
+     */
+    public FanOutProgress(RedisTemplate<String, String> redisTemplate, Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.ttl = ttl;
+    }
+
+    /***
+     * @return the names of the sinks which already applied the record.
+     */
+    public Set<String> getApplied(MapRecord<String, String, String> record) {
+        Set<String> applied = redisTemplate.opsForSet().members(getFanOutAppliedKey(record.getStream(), record.getId()));
+        return applied == null ? Set.of() : applied;
+    }
+
+    public void applied(MapRecord<String, String, String> record, String sink) {
+        String key = getFanOutAppliedKey(record.getStream(), record.getId());
+        redisTemplate.opsForSet().add(key, sink);
+        redisTemplate.expire(key, ttl);
+    }
+
+    public void clear(MapRecord<String, String, String> record) {
+        redisTemplate.delete(getFanOutAppliedKey(record.getStream(), record.getId()));
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.foogaro.redis.wbs.core.fanout;
+
+import com.foogaro.redis.wbs.core.processor.Processor;
+import com.foogaro.redis.wbs.core.processor.RecordView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.foogaro.redis.wbs.core.Misc.getConsumerGroup;
+
+/***
+ * A single target of a fan-out entity, applying records in order in a thread of its own.
+ * A record submitted while its queue is full is rejected for this sink only, and retried from the pending entries.
+ */
+public class FanOutSink<T> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Processor<T, ?> processor;
+    private final String name;
+    private final ThreadPoolExecutor executor;
+    private final AtomicReference<RecordId> lastApplied = new AtomicReference<>();
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public FanOutSink(Processor<T, ?> processor, int queueCapacity) {
+        this.processor = processor;
+        this.name = getConsumerGroup(processor.getRepositoryClass());
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "wb-fanout-" + name);
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    throw new RejectedExecutionException(pool.isShutdown() ? "Sink " + name + " is shut down" : "Sink " + name + " is full");
+                });
+    }
+
+    /***
+     * Applies the record in the thread of the sink; the view is shared with the other sinks, which decode it once.
+     */
+    public CompletableFuture<Void> submit(RecordView<T> view) {
+        MapRecord<String, String, String> record = view.getRecord();
+        try {
+            return CompletableFuture.runAsync(() -> apply(view), executor);
+        } catch (RejectedExecutionException e) {
+            failed.incrementAndGet();
+            logger.warn("Sink {} rejected message: {} - {}", name, record.getId(), e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private void apply(RecordView<T> view) {
+        MapRecord<String, String, String> record = view.getRecord();
+        try {
+            processor.process(view);
+            lastApplied.set(record.getId());
+            applied.incrementAndGet();
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            logger.error("Sink {} failed on message: {}", name, record.getId(), e);
+            throw new CompletionException(e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Processor<T, ?> getProcessor() {
+        return processor;
+    }
+
+    public RecordId getLastApplied() {
+        return lastApplied.get();
+    }
+
+    public int getBacklog() {
+        return executor.getQueue().size();
+    }
+
+    public long getApplied() {
+        return applied.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -1,15 +1,23 @@
 package com.foogaro.redis.wbs.core.handler;
 
+import com.foogaro.redis.wbs.core.autoscale.ConsumerAutoscaler;
+import com.foogaro.redis.wbs.core.batch.AdaptiveBatchSize;
+import com.foogaro.redis.wbs.core.bulkhead.Bulkheads;
 import com.foogaro.redis.wbs.core.exception.AcknowledgeMessageException;
 import com.foogaro.redis.wbs.core.exception.ProcessMessageException;
 import com.foogaro.redis.wbs.core.processor.Processor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Range;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.scheduling.annotation.Scheduled;
 
 import java.lang.reflect.ParameterizedType;
@@ -31,10 +39,34 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
     protected int BATCH_SIZE;
     @Value("${wb.stream.listener.pel.fixed-delay:30000}")
     protected final long fixedDelay = 30000;
+    @Value("${wb.stream.listener.pel.adaptive-batch-size:false}")
+    protected boolean adaptiveBatchSize;
+    @Value("${wb.stream.listener.pel.batch-size-min:10}")
+    protected int batchSizeMin;
+    @Value("${wb.stream.listener.pel.batch-size-max:500}")
+    protected int batchSizeMax;
+    @Value("${wb.stream.listener.pel.batch-size-step:10}")
+    protected int batchSizeStep;
+    @Value("${wb.stream.listener.pel.latency-target:1000}")
+    protected long latencyTarget;
 
     @Autowired
     private RedisTemplate<String, String> redisTemplate;
 
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    private Bulkheads bulkheads;
+
+    /***
+     * With scaled consumers, the pending messages of all the consumers of the group are reprocessed.
+     */
+    @Autowired(required = false)
+    private ConsumerAutoscaler consumerAutoscaler;
+
+    private volatile AdaptiveBatchSize batchSize;
+
     private final Class<T> entityClass;
     private final Class<R> repositoryClass;
 
@@ -47,6 +79,11 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
         this.repositoryClass = (Class<R>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[1];
     }
 
+    protected AbstractPendingMessageHandler(Class<T> entityClass, Class<R> repositoryClass) {
+        this.entityClass = entityClass;
+        this.repositoryClass = repositoryClass;
+    }
+
     public RedisTemplate<String, String> getRedisTemplate() {
         return redisTemplate;
     }
@@ -59,8 +96,45 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
         return repositoryClass;
     }
 
+    /***
+     * @return the number of pending messages read and written at a time: <code>wb.stream.listener.pel.batch-size</code>,
+     * or, with <code>wb.stream.listener.pel.adaptive-batch-size=true</code>, the size currently chosen by an {@link AdaptiveBatchSize}
+     * starting from it, between <code>batch-size-min</code> and <code>batch-size-max</code>, shrinking when the p99 latency
+     * of the writes exceeds <code>latency-target</code> milliseconds.
+     */
+    protected int getBatchSize() {
+        if (!adaptiveBatchSize) return BATCH_SIZE;
+        if (batchSize == null) {
+            synchronized (this) {
+                if (batchSize == null) {
+                    AdaptiveBatchSize adaptive = new AdaptiveBatchSize(BATCH_SIZE, batchSizeMin, batchSizeMax, batchSizeStep, Duration.ofMillis(latencyTarget));
+                    if (meterRegistry != null) {
+                        Tags tags = Tags.of("entity", entityClass.getSimpleName().toLowerCase(), "group", getConsumerGroup(repositoryClass));
+                        Gauge.builder("wb.pel.batch.size", adaptive, AdaptiveBatchSize::getSize).tags(tags).register(meterRegistry);
+                        Gauge.builder("wb.pel.batch.latency.p99", adaptive, value -> value.getP99().toMillis()).tags(tags)
+                                .baseUnit("milliseconds").register(meterRegistry);
+                    }
+                    batchSize = adaptive;
+                }
+            }
+        }
+        return batchSize.getSize();
+    }
+
+    /***
+     * With {@link Bulkheads}, the pending messages are reprocessed in the thread of the bulkhead of the entity,
+     * so that a slow table doesn't hold the scheduler shared by all the handlers.
+     */
     @Scheduled(fixedDelay = fixedDelay)
     public void processPendingMessages() {
+        if (bulkheads != null) {
+            bulkheads.get(entityClass, repositoryClass).runPending(this::reprocessPendingMessages);
+        } else {
+            reprocessPendingMessages();
+        }
+    }
+
+    protected void reprocessPendingMessages() {
         String streamKey = getStreamKey(entityClass);
         String groupName = getConsumerGroup(repositoryClass);
         String consumerName = getConsumerName(entityClass, repositoryClass);
@@ -73,17 +147,21 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
                 logger.info("Found {} pending messages for group {}",
                         pendingSummary.getTotalPendingMessages(), groupName);
 
-                PendingMessages pendingMessages = redisTemplate.opsForStream()
+                int count = getBatchSize();
+                PendingMessages pendingMessages = consumerAutoscaler != null
+                        ? redisTemplate.opsForStream().pending(streamKey, groupName, Range.unbounded(), count)
+                        : redisTemplate.opsForStream()
                         .pending(streamKey,
                                 Consumer.from(groupName, consumerName),
                                 Range.unbounded(),
-                                BATCH_SIZE);
+                                count);
 
                 if (pendingMessages != null) {
+                    List<PendingAttempt> attempts = new ArrayList<>();
                     for (PendingMessage pm : pendingMessages) {
                         String messageId = pm.getIdAsString();
                         long elapsedTime = pm.getElapsedTimeSinceLastDelivery().toMillis();
-                        logger.info("Message ID {} re-processing", messageId);
+                        logger.debug("Message ID {} re-processing", messageId);
 
                         MapRecord<String, String, String> message = null;
                             List<MapRecord<String, Object, Object>> rawMessages =
@@ -98,37 +176,22 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
 
                         if (!messages.isEmpty()) {
                             message = messages.get(0);
-                            Long counter = incrementCounterKey(getCounterKey(message.getId().getValue()));
+                            long counter = getCounter(getCounterKey(message.getId().getValue()));
                             logger.debug("Attempts: {} - Elapsed time: {}", counter, elapsedTime);
-                            if (counter > MAX_ATTEMPTS) {
+                            if (counter >= MAX_ATTEMPTS) {
                                 ProcessMessageException e = new ProcessMessageException("Too many attempts");
                                 handleMessageFailure(message, e, getCounterKey(message.getId().getValue()));
-                                throw new RuntimeException(e);
+                                continue;
                             }
                             if (elapsedTime > MAX_RETENTION) {
                                 ProcessMessageException e = new ProcessMessageException("Long lasting message");
                                 handleMessageFailure(message, e, getCounterKey(message.getId().getValue()));
-                                throw new RuntimeException(e);
-                            }
-                            try {
-                                getProcessor().process(message);
-                                getProcessor().acknowledge(message);
-                                expireCounterKey(getCounterKey(message.getId().getValue()));
-                                logger.info("Successfully processed pending message: {}", messageId);
-                            } catch (ProcessMessageException e) {
-                                logger.error("Error processing pending message: {} - {}", messageId, e.getMessage());
-                                if (counter > MAX_ATTEMPTS) {
-                                    handleMessageFailure(message, new RuntimeException(e), getCounterKey(message.getId().getValue()));
-                                    throw new RuntimeException(e);
-                                }
-                            } catch (AcknowledgeMessageException e) {
-                                if (counter > MAX_ATTEMPTS) {
-                                    handleMessageFailure(message, new RuntimeException(e), getCounterKey(message.getId().getValue()));
-                                    throw new RuntimeException(e);
-                                }
+                                continue;
                             }
+                            attempts.add(new PendingAttempt(message));
                         }
                     }
+                    processPendingAttempts(attempts, pendingMessages.size() >= count);
                 }
             } else {
                 logger.debug("Pending messages not found for group {}", groupName);
@@ -138,8 +201,75 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
         }
     }
 
+    private record PendingAttempt(MapRecord<String, String, String> message) {
+    }
+
+    /***
+     * Processes the pending messages as a single batch, which lets a {@link com.foogaro.redis.wbs.core.jdbc.JdbcBatchSink}
+     * write them with one JDBC batch. If the batch fails, messages are processed one by one,
+     * so that a single faulty message doesn't hold back the others, and only these single attempts count
+     * towards the maximum number of attempts of a message.
+     * <p>
+     * Unless the batch is written in one transaction, e.g. by a {@code JdbcBatchSink}, the messages written before
+     * the failure are written again one by one: rewriting the same version of an entity is idempotent,
+     * as saves are upserts and deletes of missing entities are no-ops.
+     * The latency of the batch, or its failure, drives the adaptive batch size.
+     */
+    private void processPendingAttempts(List<PendingAttempt> attempts, boolean full) throws AcknowledgeMessageException {
+        if (attempts.isEmpty()) return;
+        long start = System.nanoTime();
+        try {
+            getProcessor().process(attempts.stream().map(PendingAttempt::message).toList());
+            if (batchSize != null) {
+                batchSize.record(attempts.size(), full, Duration.ofNanos(System.nanoTime() - start));
+            }
+        } catch (Exception e) {
+            if (batchSize != null) {
+                batchSize.failed();
+            }
+            logger.warn("Error processing {} pending messages as a batch, processing them one by one - {}", attempts.size(), e.getMessage());
+            for (PendingAttempt attempt : attempts) {
+                processPendingAttempt(attempt);
+            }
+            return;
+        }
+        for (PendingAttempt attempt : attempts) {
+            getProcessor().acknowledge(attempt.message());
+            expireCounterKey(getCounterKey(attempt.message().getId().getValue()));
+            logger.debug("Successfully processed pending message: {}", attempt.message().getId());
+        }
+    }
+
+    /***
+     * Processes a single pending message, counting the attempt, and moves it to the DLQ
+     * once it has failed the maximum number of attempts. Failures don't propagate, so that the next messages are tried.
+     */
+    private void processPendingAttempt(PendingAttempt attempt) {
+        MapRecord<String, String, String> message = attempt.message();
+        String messageId = message.getId().getValue();
+        long counter = incrementCounterKey(getCounterKey(messageId));
+        try {
+            getProcessor().process(message);
+            getProcessor().acknowledge(message);
+            expireCounterKey(getCounterKey(messageId));
+            logger.debug("Successfully processed pending message: {}", messageId);
+        } catch (ProcessMessageException | AcknowledgeMessageException | RuntimeException e) {
+            logger.error("Error processing pending message: {} (attempt {}) - {}", messageId, counter, e.getMessage());
+            if (counter >= MAX_ATTEMPTS) {
+                handleMessageFailure(message, e instanceof RuntimeException ? e : new RuntimeException(e), getCounterKey(messageId));
+            }
+        }
+    }
+
+    /***
+     * Views the record as a record of strings, as it is when read with string serializers, copying it only otherwise.
+     */
+    @SuppressWarnings("unchecked")
     private MapRecord<String, String, String> convertMapRecord(MapRecord<String, Object, Object> record) {
         Objects.requireNonNull(record, "Record cannot be null");
+        if (isStrings(record.getValue())) {
+            return (MapRecord<String, String, String>) (MapRecord<String, ?, ?>) record;
+        }
         Map<String, String> convertedMap = new HashMap<>();
         record.getValue().forEach((k, v) -> {
             convertedMap.put(String.valueOf(k),String.valueOf(v));
@@ -151,6 +281,13 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
                 .withStreamKey(record.getStream());
     }
 
+    private static boolean isStrings(Map<Object, Object> map) {
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String) || !(entry.getValue() instanceof String)) return false;
+        }
+        return true;
+    }
+
     private void handleMessageFailure(MapRecord<String, String, String> message,
                                       Exception cause,
                                       String counterKey) {
@@ -162,6 +299,15 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
         return redisTemplate.expire(counterKey, Duration.ZERO);
     }
 
+    /***
+     * Reads the counter as written by INCR, whatever the value serializer of the template.
+     */
+    private long getCounter(String counterKey) {
+        byte[] counter = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(RedisSerializer.string().serialize(counterKey)));
+        return counter == null ? 0 : Long.parseLong(RedisSerializer.string().deserialize(counter));
+    }
+
     private Long incrementCounterKey(String counterKey) {
         long incr = redisTemplate.opsForValue().increment(counterKey);
         redisTemplate.expire(counterKey, Duration.ofMillis(MAX_RETENTION));
@@ -194,6 +340,7 @@ public abstract class AbstractPendingMessageHandler<T, R> implements MessageHand
                 logger.warn("Message {} moved to dead letter queue for manual processing.", message.getId());
                 redisTemplate.opsForStream().acknowledge(getConsumerGroup(repositoryClass), message);
                 logger.warn("And Message {} acknowledge.", message.getId());
+                getProcessor().discard(message);
             }
         } catch (Exception dlqError) {
             logger.error("Error moving message to dead letter queue: {}", dlqError.getMessage());
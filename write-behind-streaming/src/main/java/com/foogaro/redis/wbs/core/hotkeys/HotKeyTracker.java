@@ -0,0 +1,115 @@
+package com.foogaro.redis.wbs.core.hotkeys;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/***
+ * Tracks the entity IDs driving the write volume of each stream with one {@link TopKSketch} per stream,
+ * publishing the top keys and halving all the counts at the end of each window.
+ */
+public class HotKeyTracker {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final int DEFAULT_WIDTH = 2048;
+    private static final int DEFAULT_DEPTH = 4;
+
+    private final int k;
+    private final Duration window;
+    private final long hotThreshold;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, TopKSketch> sketches = new ConcurrentHashMap<>();
+    private final Map<String, MultiGauge> gauges = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wb-hot-keys");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param k the number of top keys tracked per stream
+     * @param window how often the counts are published and halved
+     * @param hotThreshold the decayed count above which a key is hot
+     * @param meterRegistry where to publish the top keys, <code>null</code> for none
+     */
+    public HotKeyTracker(int k, Duration window, long hotThreshold, MeterRegistry meterRegistry) {
+        this.k = k;
+        this.window = window;
+        this.hotThreshold = hotThreshold;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void start() {
+        scheduler.scheduleAtFixedRate(this::endWindow, window.toMillis(), window.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void record(String streamKey, String id) {
+        TopKSketch sketch = sketches.computeIfAbsent(streamKey, key -> new TopKSketch(k, DEFAULT_WIDTH, DEFAULT_DEPTH));
+        synchronized (sketch) {
+            sketch.add(id);
+        }
+    }
+
+    /***
+     * @return <code>true</code> if the ID is among the top keys of the stream with a count above the hot threshold,
+     * e.g. to rate limit or coalesce its writes.
+     */
+    public boolean isHot(String streamKey, String id) {
+        TopKSketch sketch = sketches.get(streamKey);
+        if (sketch == null) return false;
+        synchronized (sketch) {
+            return sketch.getCount(id) >= hotThreshold;
+        }
+    }
+
+    public List<TopKSketch.Entry> getTopK(String streamKey) {
+        TopKSketch sketch = sketches.get(streamKey);
+        if (sketch == null) return List.of();
+        synchronized (sketch) {
+            return sketch.getTopK();
+        }
+    }
+
+    public Map<String, List<TopKSketch.Entry>> getTopK() {
+        return sketches.keySet().stream().collect(Collectors.toMap(streamKey -> streamKey, this::getTopK));
+    }
+
+    private void endWindow() {
+        sketches.forEach((streamKey, sketch) -> {
+            List<TopKSketch.Entry> topK;
+            synchronized (sketch) {
+                topK = sketch.getTopK();
+                sketch.decay();
+            }
+            if (meterRegistry != null) {
+                gauges.computeIfAbsent(streamKey, key -> MultiGauge.builder("wb.hotkeys.count").register(meterRegistry))
+                        .register(topK.stream()
+                                .<MultiGauge.Row<?>>map(entry -> MultiGauge.Row.of(Tags.of("stream", streamKey, "id", entry.key()), entry.count()))
+                                .toList(), true);
+            }
+            if (!topK.isEmpty() && topK.get(0).count() >= hotThreshold) {
+                logger.info("Hot keys of stream {}: {}", streamKey, topK.stream().filter(entry -> entry.count() >= hotThreshold).toList());
+            }
+        });
+    }
+}
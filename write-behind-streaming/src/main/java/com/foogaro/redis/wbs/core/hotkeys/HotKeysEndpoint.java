@@ -0,0 +1,38 @@
+package com.foogaro.redis.wbs.core.hotkeys;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+
+import java.util.List;
+import java.util.Map;
+
+import static com.foogaro.redis.wbs.core.Misc.KEY_SEPARATOR;
+
+/***
+ * Actuator endpoint <code>hotkeys</code> listing the top entity IDs of each stream, or of the stream of an entity,
+ * e.g. <code>/actuator/hotkeys/employer</code>.
+ */
+@Endpoint(id = "hotkeys")
+public class HotKeysEndpoint {
+
+    private final HotKeyTracker hotKeyTracker;
+
+    public HotKeysEndpoint(HotKeyTracker hotKeyTracker) {
+        this.hotKeyTracker = hotKeyTracker;
+    }
+
+    @ReadOperation
+    public Map<String, List<TopKSketch.Entry>> hotKeys() {
+        return hotKeyTracker.getTopK();
+    }
+
+    @ReadOperation
+    public List<TopKSketch.Entry> hotKeys(@Selector String entity) {
+        return hotKeyTracker.getTopK().entrySet().stream()
+                .filter(entry -> entry.getKey().endsWith(KEY_SEPARATOR + entity.toLowerCase()))
+                .findFirst()
+                .map(Map.Entry::getValue)
+                .orElse(List.of());
+    }
+}
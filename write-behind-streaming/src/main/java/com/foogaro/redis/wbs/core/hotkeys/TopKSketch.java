@@ -0,0 +1,93 @@
+package com.foogaro.redis.wbs.core.hotkeys;
+
+import java.util.*;
+
+/***
+ * Fixed-memory estimate of the K most frequent keys: a count-min sketch, which never undercounts,
+ * and the keys with the highest estimates kept as candidates. Not thread-safe.
+ */
+public class TopKSketch {
+
+    public record Entry(String key, long count) {
+    }
+
+    private final int k;
+    private final int width;
+    private final long[][] counters;
+    private final Map<String, Long> topK;
+    private long minTopCount;
+
+    public TopKSketch(int k, int width, int depth) {
+        this.k = k;
+        this.width = width;
+        this.counters = new long[depth][width];
+        this.topK = new HashMap<>(k * 2);
+    }
+
+    /***
+     * @return the estimated count of the key, including this occurrence.
+     */
+    public long add(String key) {
+        int hash1 = spread(key.hashCode());
+        int hash2 = spread(hash1 ^ 0x9E3779B9);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < counters.length; i++) {
+            int index = Math.floorMod(hash1 + i * hash2, width);
+            estimate = Math.min(estimate, ++counters[i][index]);
+        }
+        offer(key, estimate);
+        return estimate;
+    }
+
+    private void offer(String key, long estimate) {
+        if (topK.containsKey(key) || topK.size() < k) {
+            topK.put(key, estimate);
+            if (topK.size() == k) minTopCount = Collections.min(topK.values());
+            return;
+        }
+        if (estimate <= minTopCount) return;
+        String evicted = null;
+        for (Map.Entry<String, Long> entry : topK.entrySet()) {
+            if (entry.getValue() == minTopCount) {
+                evicted = entry.getKey();
+                break;
+            }
+        }
+        topK.remove(evicted);
+        topK.put(key, estimate);
+        minTopCount = Collections.min(topK.values());
+    }
+
+    /***
+     * @return the top keys, by descending estimated count.
+     */
+    public List<Entry> getTopK() {
+        return topK.entrySet().stream()
+                .map(entry -> new Entry(entry.getKey(), entry.getValue()))
+                .sorted(Comparator.comparingLong(Entry::count).reversed())
+                .toList();
+    }
+
+    public long getCount(String key) {
+        return topK.getOrDefault(key, 0L);
+    }
+
+    public void decay() {
+        for (long[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        topK.replaceAll((key, count) -> count >>> 1);
+        topK.values().removeIf(count -> count == 0);
+        minTopCount = topK.isEmpty() ? 0 : Collections.min(topK.values());
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,84 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import com.foogaro.redis.wbs.core.processor.AcknowledgeListener;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Deletes, every interval, the checkpoints of the {@link OffsetCheckpoint} no record can be retried against anymore,
+ * for the streams and groups it was notified acknowledgements of.
+ */
+public class CheckpointPruner implements AcknowledgeListener {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final OffsetCheckpoint offsetCheckpoint;
+    private final StringRedisTemplate redisTemplate;
+    private final Duration interval;
+    private final Map<String, String> streamsByGroup = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wb-checkpoint-pruner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public CheckpointPruner(OffsetCheckpoint offsetCheckpoint, RedisConnectionFactory connectionFactory, Duration interval) {
+        this.offsetCheckpoint = offsetCheckpoint;
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.interval = interval;
+    }
+
+    @PostConstruct
+    private void start() {
+        scheduler.scheduleWithFixedDelay(this::prune, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void acknowledged(Class<?> entityClass, String group, MapRecord<String, String, String> record) {
+        streamsByGroup.putIfAbsent(group, record.getStream());
+    }
+
+    public void prune() {
+        streamsByGroup.forEach(this::prune);
+    }
+
+    /***
+     * Reads the last delivered ID of the group before its oldest pending record, so that records delivered in between
+     * are either pending or newer than the checkpoints deleted.
+     */
+    private void prune(String group, String streamKey) {
+        try {
+            StreamInfo.XInfoGroup info = redisTemplate.opsForStream().groups(streamKey).stream()
+                    .filter(candidate -> group.equals(candidate.groupName()))
+                    .findFirst()
+                    .orElse(null);
+            if (info == null) return;
+            RecordId lastDelivered = RecordId.of(info.lastDeliveredId());
+            PendingMessagesSummary summary = redisTemplate.opsForStream().pending(streamKey, group);
+            RecordId oldestPending = summary != null && summary.getTotalPendingMessages() > 0 ? summary.minRecordId() : null;
+            offsetCheckpoint.prune(group, lastDelivered, oldestPending);
+        } catch (Exception e) {
+            logger.warn("Error pruning the checkpoints of {} on stream {} - {}", group, streamKey, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import jakarta.persistence.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/***
+ * Table and columns of an entity, read once from its JPA mapping, rejecting the mappings a single upsert can't reproduce.
+ * Names not set explicitly follow Spring Boot's default naming strategy (camelCase to snake_case).
+ */
+public class EntityMapping<T> {
+
+    private final Class<T> entityClass;
+    private final String table;
+    private final List<String> columns = new ArrayList<>();
+    private final List<Function<Object, Object>> readers = new ArrayList<>();
+    private final Field idField;
+    private final String idColumn;
+
+    /***
+     * @throws IllegalArgumentException if the entity has no <code>@Id</code>, or a mapping the upsert would not write
+     * as <code>save</code> does, e.g. a cascade, a collection, a <code>@Version</code> or a composite key.
+     */
+    public EntityMapping(Class<T> entityClass) {
+        this.entityClass = entityClass;
+        this.table = tableName(entityClass);
+        for (Class<?> type = entityClass.getSuperclass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            if (type.isAnnotationPresent(Entity.class)) {
+                throw unsupported(entityClass, type.getSimpleName(), "entity inheritance");
+            }
+        }
+        if (entityClass.isAnnotationPresent(IdClass.class)) {
+            throw unsupported(entityClass, entityClass.getSimpleName(), "composite key");
+        }
+        if (entityClass.isAnnotationPresent(Convert.class) || entityClass.isAnnotationPresent(Converts.class)) {
+            throw unsupported(entityClass, entityClass.getSimpleName(), "class level @Convert");
+        }
+        this.idField = findId(entityClass);
+        if (idField == null) {
+            throw new IllegalArgumentException("No @Id found on entity " + entityClass.getName());
+        }
+        this.idColumn = columnName(idField);
+        addColumns(entityClass, "", Function.identity(), Map.of());
+    }
+
+    private void addColumns(Class<?> type, String path, Function<Object, Object> owner, Map<String, String> overrides) {
+        for (Field field : fields(type)) {
+            field.setAccessible(true);
+            String name = path + field.getName();
+            Function<Object, Object> reader = owner.andThen(value -> value == null ? null : read(field, value));
+            if (field.isAnnotationPresent(Version.class)) {
+                throw unsupported(entityClass, name, "@Version, as the upsert doesn't check it");
+            }
+            if (field.isAnnotationPresent(EmbeddedId.class) || field.isAnnotationPresent(MapsId.class)) {
+                throw unsupported(entityClass, name, "composite key");
+            }
+            if (field.isAnnotationPresent(ElementCollection.class)) {
+                throw unsupported(entityClass, name, "@ElementCollection");
+            }
+            if (field.isAnnotationPresent(OneToMany.class)) {
+                OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+                requireInverse(name, oneToMany.mappedBy(), oneToMany.cascade());
+                continue;
+            }
+            if (field.isAnnotationPresent(ManyToMany.class)) {
+                ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+                requireInverse(name, manyToMany.mappedBy(), manyToMany.cascade());
+                continue;
+            }
+            if (field.isAnnotationPresent(OneToOne.class)) {
+                OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+                if (!oneToOne.mappedBy().isEmpty()) {
+                    requireInverse(name, oneToOne.mappedBy(), oneToOne.cascade());
+                    continue;
+                }
+                addJoinColumn(field, name, reader, oneToOne.cascade(), overrides);
+                continue;
+            }
+            if (field.isAnnotationPresent(ManyToOne.class)) {
+                addJoinColumn(field, name, reader, field.getAnnotation(ManyToOne.class).cascade(), overrides);
+                continue;
+            }
+            if (field.isAnnotationPresent(Embedded.class) || field.getType().isAnnotationPresent(Embeddable.class)) {
+                Map<String, String> nested = new HashMap<>(overrides);
+                attributeOverrides(field).forEach((attribute, column) -> nested.put(name + "." + attribute, column));
+                addColumns(field.getType(), name + ".", reader, nested);
+                continue;
+            }
+            Column column = field.getAnnotation(Column.class);
+            if (column != null && !isWritten(name, column.insertable(), column.updatable())) continue;
+            Function<Object, Object> converter = converter(field, name);
+            columns.add(overrides.getOrDefault(name, columnName(field)));
+            readers.add(reader.andThen(converter));
+        }
+    }
+
+    /***
+     * @return the persistent fields of the type and of its mapped superclasses.
+     */
+    private static List<Field> fields(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isAnnotationPresent(Transient.class)) {
+                    fields.add(field);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static Field findId(Class<?> type) {
+        return fields(type).stream()
+                .filter(field -> field.isAnnotationPresent(Id.class) || field.isAnnotationPresent(EmbeddedId.class))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /***
+     * The inverse side of a relationship has no column in the table, and is skipped unless <code>save</code> cascades to it.
+     */
+    private void requireInverse(String name, String mappedBy, CascadeType[] cascade) {
+        if (mappedBy.isEmpty()) {
+            throw unsupported(entityClass, name, "owning side of a collection, written to another table");
+        }
+        requireNoCascade(name, cascade);
+    }
+
+    private void requireNoCascade(String name, CascadeType[] cascade) {
+        if (Stream.of(cascade).anyMatch(type -> type == CascadeType.ALL || type == CascadeType.PERSIST || type == CascadeType.MERGE)) {
+            throw unsupported(entityClass, name, "cascade");
+        }
+    }
+
+    /***
+     * Maps a to-one relationship to its foreign key column, valued with the ID of the related entity.
+     */
+    private void addJoinColumn(Field field, String name, Function<Object, Object> reader, CascadeType[] cascade, Map<String, String> overrides) {
+        requireNoCascade(name, cascade);
+        if (field.isAnnotationPresent(JoinColumns.class) || field.isAnnotationPresent(JoinTable.class)) {
+            throw unsupported(entityClass, name, "join table or composite foreign key");
+        }
+        Field targetId = findId(field.getType());
+        if (targetId == null || targetId.isAnnotationPresent(EmbeddedId.class)) {
+            throw unsupported(entityClass, name, "relationship to an entity without a single @Id");
+        }
+        targetId.setAccessible(true);
+        JoinColumn joinColumn = field.getAnnotation(JoinColumn.class);
+        if (joinColumn != null && !isWritten(name, joinColumn.insertable(), joinColumn.updatable())) return;
+        String targetColumn = columnName(targetId);
+        if (joinColumn != null && !joinColumn.referencedColumnName().isEmpty() && !joinColumn.referencedColumnName().equals(targetColumn)) {
+            throw unsupported(entityClass, name, "foreign key to a column other than the @Id");
+        }
+        String column = joinColumn != null && !joinColumn.name().isEmpty() ? joinColumn.name() : snakeCase(field.getName()) + "_" + targetColumn;
+        columns.add(overrides.getOrDefault(name, column));
+        readers.add(reader.andThen(related -> related == null ? null : read(targetId, related)));
+    }
+
+    /***
+     * @return <code>false</code> for a read-only column, e.g. a foreign key also mapped by a relationship.
+     */
+    private boolean isWritten(String name, boolean insertable, boolean updatable) {
+        if (insertable != updatable) {
+            throw unsupported(entityClass, name, "column only insertable or only updatable");
+        }
+        return insertable;
+    }
+
+    private static Map<String, String> attributeOverrides(Field field) {
+        Stream<AttributeOverride> overrides = field.isAnnotationPresent(AttributeOverrides.class)
+                ? Stream.of(field.getAnnotation(AttributeOverrides.class).value())
+                : Stream.ofNullable(field.getAnnotation(AttributeOverride.class));
+        return overrides.filter(override -> !override.column().name().isEmpty())
+                .collect(Collectors.toMap(AttributeOverride::name, override -> override.column().name()));
+    }
+
+    /***
+     * @return the conversion of the value of the field to its JDBC value: its <code>@Convert</code> converter, if any,
+     * or else the name or the ordinal of enums. Converters applied automatically are not detected.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Function<Object, Object> converter(Field field, String name) {
+        Convert convert = field.getAnnotation(Convert.class);
+        if (convert != null && !convert.disableConversion() && convert.converter() != AttributeConverter.class) {
+            try {
+                AttributeConverter converter = (AttributeConverter) convert.converter().getDeclaredConstructor().newInstance();
+                return converter::convertToDatabaseColumn;
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Cannot create converter of " + name + " of entity " + entityClass.getName(), e);
+            }
+        }
+        if (field.getType().isEnum()) {
+            Enumerated enumerated = field.getAnnotation(Enumerated.class);
+            boolean byName = enumerated != null && enumerated.value() == EnumType.STRING;
+            return value -> value == null ? null : byName ? ((Enum<?>) value).name() : ((Enum<?>) value).ordinal();
+        }
+        return Function.identity();
+    }
+
+    private static IllegalArgumentException unsupported(Class<?> entityClass, String name, String reason) {
+        return new IllegalArgumentException("Cannot write " + name + " of entity " + entityClass.getName() + " through JDBC: " + reason);
+    }
+
+    private static String tableName(Class<?> entityClass) {
+        Table table = entityClass.getAnnotation(Table.class);
+        if (table != null && !table.name().isEmpty()) {
+            return table.schema().isEmpty() ? table.name() : table.schema() + "." + table.name();
+        }
+        Entity entity = entityClass.getAnnotation(Entity.class);
+        return snakeCase(entity != null && !entity.name().isEmpty() ? entity.name() : entityClass.getSimpleName());
+    }
+
+    private static String columnName(Field field) {
+        Column column = field.getAnnotation(Column.class);
+        return column != null && !column.name().isEmpty() ? column.name() : snakeCase(field.getName());
+    }
+
+    private static String snakeCase(String name) {
+        return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase();
+    }
+
+    public Class<T> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public String getIdColumn() {
+        return idColumn;
+    }
+
+    /***
+     * @return the JDBC values of the entity, in the same order as {@link #getColumns()}.
+     */
+    public Object[] getValues(T entity) {
+        Object[] values = new Object[readers.size()];
+        for (int i = 0; i < readers.size(); i++) {
+            values[i] = readers.get(i).apply(entity);
+        }
+        return values;
+    }
+
+    /***
+     * Converts the ID as carried by the delete events to the type of the <code>@Id</code> field.
+     */
+    public Object toId(String value) {
+        Class<?> idType = idField.getType();
+        if (idType == Long.class || idType == long.class) return Long.valueOf(value);
+        if (idType == Integer.class || idType == int.class) return Integer.valueOf(value);
+        if (idType == UUID.class) return UUID.fromString(value);
+        return value;
+    }
+
+    private Object read(Field field, Object owner) {
+        try {
+            return field.get(owner);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Cannot read " + field.getName() + " of " + entityClass.getName(), e);
+        }
+    }
+}
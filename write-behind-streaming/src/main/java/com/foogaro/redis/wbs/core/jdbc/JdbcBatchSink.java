@@ -0,0 +1,66 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.List;
+
+/***
+ * Writes an entity through JDBC instead of its repository, as one batch of dialect-specific upserts and deletes,
+ * so that no SELECT precedes each write. Declared as a bean per entity, see the README.
+ */
+public class JdbcBatchSink<T> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Class<?> repositoryClass;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityMapping<T> mapping;
+    private final String upsertSql;
+    private final String deleteSql;
+
+    public JdbcBatchSink(Class<T> entityClass, Class<?> repositoryClass, DataSource dataSource) {
+        this(entityClass, repositoryClass, dataSource, UpsertDialect.detect(dataSource));
+    }
+
+    public JdbcBatchSink(Class<T> entityClass, Class<?> repositoryClass, DataSource dataSource, UpsertDialect dialect) {
+        this.repositoryClass = repositoryClass;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.mapping = new EntityMapping<>(entityClass);
+        this.upsertSql = dialect.upsert(mapping.getTable(), mapping.getColumns(), mapping.getIdColumn());
+        this.deleteSql = dialect.delete(mapping.getTable(), mapping.getIdColumn());
+        logger.info("JDBC batch sink for entity {} replacing repository {}: {}", entityClass.getSimpleName(), repositoryClass.getSimpleName(), upsertSql);
+    }
+
+    public Class<T> getEntityClass() {
+        return mapping.getEntityClass();
+    }
+
+    public Class<?> getRepositoryClass() {
+        return repositoryClass;
+    }
+
+    public JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    public void upsert(Collection<T> entities) {
+        if (entities.isEmpty()) return;
+        List<Object[]> rows = entities.stream().map(mapping::getValues).toList();
+        jdbcTemplate.batchUpdate(upsertSql, rows);
+        logger.debug("Upserted {} {}", rows.size(), mapping.getTable());
+    }
+
+    /***
+     * @param ids the IDs as carried by the delete events.
+     */
+    public void delete(Collection<String> ids) {
+        if (ids.isEmpty()) return;
+        List<Object[]> rows = ids.stream().map(id -> new Object[]{mapping.toId(id)}).toList();
+        jdbcTemplate.batchUpdate(deleteSql, rows);
+        logger.debug("Deleted {} {}", rows.size(), mapping.getTable());
+    }
+}
@@ -0,0 +1,179 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static com.foogaro.redis.wbs.core.Misc.KEY_SEPARATOR;
+import static com.foogaro.redis.wbs.core.Misc.compare;
+
+/***
+ * Checkpoints of the stream IDs applied by each consumer group to each entity ID, written in the same transaction
+ * as the entities, so that records applied but not yet acknowledged are skipped when retried.
+ */
+public class OffsetCheckpoint {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final String DEFAULT_TABLE = "wb_checkpoint";
+    private static final String KEY_COLUMN = "checkpoint_key";
+    private static final String ID_COLUMN = "last_id";
+    private static final int LOOKUP_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String table;
+    private final String upsertSql;
+    private final String deleteSql;
+    private final MeterRegistry meterRegistry;
+
+    public OffsetCheckpoint(DataSource dataSource, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+        this(dataSource, transactionManager, DEFAULT_TABLE, UpsertDialect.detect(dataSource), meterRegistry);
+    }
+
+    public OffsetCheckpoint(DataSource dataSource, PlatformTransactionManager transactionManager, String table,
+                            UpsertDialect dialect, MeterRegistry meterRegistry) {
+        this(new JdbcTemplate(dataSource), transactionManager, table, dialect, meterRegistry);
+    }
+
+    OffsetCheckpoint(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, String table,
+                     UpsertDialect dialect, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.table = table;
+        this.upsertSql = dialect.upsert(table, List.of(KEY_COLUMN, ID_COLUMN), KEY_COLUMN);
+        this.deleteSql = "DELETE FROM " + table + " WHERE " + KEY_COLUMN + " = ? AND " + ID_COLUMN + " = ?";
+        this.meterRegistry = meterRegistry;
+    }
+
+    /***
+     * Creates the table, unless it exists.
+     */
+    public void createTable() {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table + " (" + KEY_COLUMN + " VARCHAR(255) NOT NULL PRIMARY KEY, "
+                + ID_COLUMN + " VARCHAR(64) NOT NULL)");
+    }
+
+    /***
+     * Writes the records not applied yet and checkpoints them, in one transaction.
+     * @param group the consumer group applying the records
+     * @param entityId the entity ID of a record, <code>null</code> if unknown, in which case the record is always written
+     * @param recordId the stream ID of a record
+     * @param delete whether a record deletes its entity, removing its checkpoint
+     * @param writes writes the records not applied yet, in stream order
+     * @return the records written
+     */
+    public <V> List<V> write(String group, List<V> records, Function<V, String> entityId, Function<V, RecordId> recordId,
+                             Predicate<V> delete, Consumer<List<V>> writes) {
+        return transactionTemplate.execute(status -> {
+            Map<String, RecordId> checkpoints = find(group, records, entityId);
+            Map<String, RecordId> applied = new LinkedHashMap<>();
+            Map<String, RecordId> deleted = new LinkedHashMap<>();
+            List<V> fresh = new ArrayList<>(records.size());
+            for (V record : records) {
+                String id = entityId.apply(record);
+                if (id != null) {
+                    String key = group + KEY_SEPARATOR + id;
+                    RecordId checkpoint = checkpoints.get(key);
+                    if (checkpoint != null && compare(recordId.apply(record), checkpoint) <= 0) {
+                        logger.debug("Skipping message: {} of {} {}, applied up to {}", recordId.apply(record), group, id, checkpoint);
+                        continue;
+                    }
+                    if (delete.test(record)) {
+                        applied.remove(key);
+                        RecordId previous = checkpoints.get(key);
+                        if (previous != null) deleted.put(key, previous);
+                    } else {
+                        applied.put(key, recordId.apply(record));
+                        deleted.remove(key);
+                    }
+                }
+                fresh.add(record);
+            }
+            if (fresh.size() < records.size() && meterRegistry != null) {
+                Counter.builder("wb.checkpoint.skipped").tag("group", group).register(meterRegistry)
+                        .increment(records.size() - fresh.size());
+            }
+            if (!fresh.isEmpty()) {
+                writes.accept(fresh);
+            }
+            if (!deleted.isEmpty()) {
+                jdbcTemplate.batchUpdate(deleteSql, toArgs(deleted));
+            }
+            if (!applied.isEmpty()) {
+                jdbcTemplate.batchUpdate(upsertSql, toArgs(applied));
+            }
+            return fresh;
+        });
+    }
+
+    /***
+     * Deletes the checkpoints of the group no record can be retried against: those below its oldest pending record,
+     * or, with none pending, those up to its last delivered ID, as records not delivered yet are newer.
+     * @param oldestPending the oldest record in the Pending Entry List of the group, <code>null</code> if none
+     * @return the number of checkpoints deleted
+     */
+    public int prune(String group, RecordId lastDelivered, RecordId oldestPending) {
+        String prefix = group + KEY_SEPARATOR;
+        Map<String, RecordId> prunable = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT " + KEY_COLUMN + ", " + ID_COLUMN + " FROM " + table + " WHERE " + KEY_COLUMN + " LIKE ?",
+                resultSet -> {
+                    String key = resultSet.getString(1);
+                    RecordId checkpoint = RecordId.of(resultSet.getString(2));
+                    boolean retriable = oldestPending != null ? compare(checkpoint, oldestPending) >= 0 : compare(checkpoint, lastDelivered) > 0;
+                    if (key.startsWith(prefix) && !retriable) {
+                        prunable.put(key, checkpoint);
+                    }
+                }, prefix + "%");
+        if (prunable.isEmpty()) return 0;
+        List<Object[]> args = toArgs(prunable);
+        for (int from = 0; from < args.size(); from += LOOKUP_SIZE) {
+            jdbcTemplate.batchUpdate(deleteSql, args.subList(from, Math.min(args.size(), from + LOOKUP_SIZE)));
+        }
+        logger.debug("Pruned {} checkpoints of {} below {}", prunable.size(), group, oldestPending != null ? oldestPending : lastDelivered);
+        return prunable.size();
+    }
+
+    private static List<Object[]> toArgs(Map<String, RecordId> checkpoints) {
+        return checkpoints.entrySet().stream()
+                .map(entry -> new Object[]{entry.getKey(), entry.getValue().getValue()})
+                .toList();
+    }
+
+    private <V> Map<String, RecordId> find(String group, List<V> records, Function<V, String> entityId) {
+        List<String> keys = records.stream()
+                .map(entityId)
+                .filter(Objects::nonNull)
+                .map(id -> group + KEY_SEPARATOR + id)
+                .distinct()
+                .toList();
+        Map<String, RecordId> checkpoints = new HashMap<>();
+        for (int from = 0; from < keys.size(); from += LOOKUP_SIZE) {
+            List<String> chunk = keys.subList(from, Math.min(keys.size(), from + LOOKUP_SIZE));
+            String sql = "SELECT " + KEY_COLUMN + ", " + ID_COLUMN + " FROM " + table + " WHERE " + KEY_COLUMN + " IN ("
+                    + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            jdbcTemplate.query(sql, resultSet -> {
+                checkpoints.put(resultSet.getString(1), RecordId.of(resultSet.getString(2)));
+            }, chunk.toArray());
+        }
+        return checkpoints;
+    }
+
+    /***
+     * @return the last stream ID applied by the group to the entity ID, if any.
+     */
+    public Optional<RecordId> getCheckpoint(String group, String entityId) {
+        return Optional.ofNullable(find(group, List.of(entityId), Function.identity()).get(group + KEY_SEPARATOR + entityId));
+    }
+}
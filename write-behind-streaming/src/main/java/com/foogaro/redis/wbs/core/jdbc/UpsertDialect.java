@@ -0,0 +1,133 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/***
+ * SQL dialects of the {@link JdbcBatchSink}, each rendering a single-statement upsert with quoted identifiers.
+ */
+public enum UpsertDialect {
+
+    /***
+     * <code>INSERT ... ON DUPLICATE KEY UPDATE</code>, also used for MariaDB, or <code>INSERT IGNORE</code>
+     * for entities with the ID only. <code>VALUES(col)</code> is used instead of the row alias, so that the driver
+     * can still rewrite the batch into a multi-row insert when <code>rewriteBatchedStatements=true</code>.
+     */
+    MYSQL {
+        @Override
+        String upsert(String table, List<String> columns, String idColumn) {
+            if (columns.stream().allMatch(column -> column.equals(idColumn))) {
+                return "INSERT IGNORE INTO " + quote(table) + " (" + quote(columns) + ") VALUES (" + placeholders(columns.size()) + ")";
+            }
+            return insert(table, columns) + " ON DUPLICATE KEY UPDATE " + columns.stream()
+                    .filter(column -> !column.equals(idColumn))
+                    .map(column -> quote(column) + " = VALUES(" + quote(column) + ")")
+                    .collect(Collectors.joining(", "));
+        }
+
+        @Override
+        String quote(String name, boolean fold) {
+            return "`" + name.replace("`", "``") + "`";
+        }
+    },
+
+    /***
+     * <code>INSERT ... ON CONFLICT (id) DO UPDATE</code>, or <code>DO NOTHING</code> for entities with the ID only;
+     * batches are rewritten into multi-row inserts by the driver when <code>reWriteBatchedInserts=true</code>.
+     */
+    POSTGRESQL {
+        @Override
+        String upsert(String table, List<String> columns, String idColumn) {
+            String insert = insert(table, columns) + " ON CONFLICT (" + quote(idColumn) + ")";
+            if (columns.stream().allMatch(column -> column.equals(idColumn))) {
+                return insert + " DO NOTHING";
+            }
+            return insert + " DO UPDATE SET " + columns.stream()
+                    .filter(column -> !column.equals(idColumn))
+                    .map(column -> quote(column) + " = EXCLUDED." + quote(column))
+                    .collect(Collectors.joining(", "));
+        }
+
+        @Override
+        String quote(String name, boolean fold) {
+            return "\"" + (fold ? name.toLowerCase(Locale.ROOT) : name).replace("\"", "\"\"") + "\"";
+        }
+    },
+
+    /***
+     * <code>MERGE INTO ... KEY (id)</code>, mostly for tests; entities with the ID only are merged as they are.
+     */
+    H2 {
+        @Override
+        String upsert(String table, List<String> columns, String idColumn) {
+            return "MERGE INTO " + quote(table) + " (" + quote(columns) + ") KEY (" + quote(idColumn) + ") VALUES ("
+                    + placeholders(columns.size()) + ")";
+        }
+
+        @Override
+        String quote(String name, boolean fold) {
+            return "\"" + (fold ? name.toUpperCase(Locale.ROOT) : name).replace("\"", "\"\"") + "\"";
+        }
+    };
+
+    abstract String upsert(String table, List<String> columns, String idColumn);
+
+    /***
+     * @param fold whether the name was unquoted, and is folded as the database folds unquoted identifiers
+     */
+    abstract String quote(String name, boolean fold);
+
+    String delete(String table, String idColumn) {
+        return "DELETE FROM " + quote(table) + " WHERE " + quote(idColumn) + " = ?";
+    }
+
+    /***
+     * Quotes an identifier, possibly qualified by a schema, part by part.
+     */
+    String quote(String identifier) {
+        return Arrays.stream(identifier.split("\\."))
+                .map(part -> isQuoted(part) ? quote(part.substring(1, part.length() - 1), false) : quote(part, true))
+                .collect(Collectors.joining("."));
+    }
+
+    String quote(List<String> columns) {
+        return columns.stream().map(this::quote).collect(Collectors.joining(", "));
+    }
+
+    String insert(String table, List<String> columns) {
+        return "INSERT INTO " + quote(table) + " (" + quote(columns) + ") VALUES (" + placeholders(columns.size()) + ")";
+    }
+
+    private static boolean isQuoted(String name) {
+        return name.length() > 1 && ((name.startsWith("\"") && name.endsWith("\"")) || (name.startsWith("`") && name.endsWith("`")));
+    }
+
+    static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    public static UpsertDialect detect(DataSource dataSource) {
+        try {
+            String productName = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+            return fromProductName(productName);
+        } catch (MetaDataAccessException e) {
+            throw new IllegalStateException("Cannot detect the database product", e);
+        }
+    }
+
+    public static UpsertDialect fromProductName(final String productName) {
+        String name = productName == null ? "" : productName.toLowerCase();
+        if (name.contains("mysql") || name.contains("mariadb")) return MYSQL;
+        if (name.contains("postgres")) return POSTGRESQL;
+        if (name.contains("h2")) return H2;
+        throw new IllegalArgumentException("No upsert dialect for database " + productName);
+    }
+}
@@ -1,24 +1,114 @@
 package com.foogaro.redis.wbs.core.listener;
 
+import com.foogaro.redis.wbs.core.bulkhead.Bulkhead;
+import com.foogaro.redis.wbs.core.bulkhead.Bulkheads;
+import com.foogaro.redis.wbs.core.compaction.StreamCompactor;
+import com.foogaro.redis.wbs.core.exception.ProcessMessageException;
+import com.foogaro.redis.wbs.core.hotkeys.HotKeyTracker;
 import com.foogaro.redis.wbs.core.orchestrator.ProcessOrchestrator;
+import com.foogaro.redis.wbs.core.processor.AbstractProcessor;
+import com.foogaro.redis.wbs.core.processor.LazyAcknowledger;
 import com.foogaro.redis.wbs.core.processor.Processor;
-import jakarta.annotation.PostConstruct;
+import com.foogaro.redis.wbs.core.processor.RecordView;
+import com.foogaro.redis.wbs.core.scheduler.PriorityScheduler;
+import com.foogaro.redis.wbs.core.service.PendingWriteIndex;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.stream.StreamMessageListenerContainer;
+import org.springframework.data.redis.stream.Subscription;
 
 import java.lang.reflect.ParameterizedType;
-import java.util.Collections;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.foogaro.redis.wbs.core.Misc.*;
 
-public abstract class AbstractStreamListener<T, R> implements StreamListener<T, R> {
+/***
+ * Listener of the stream of an entity for the consumer group of a repository.
+ * <p>
+ * Listeners sharing a container are bootstrapped together when the application context starts:
+ * the streams and consumer groups of all of them are created with one pipeline of <code>XGROUP CREATE ... MKSTREAM</code>,
+ * all the subscriptions are registered, and only then the container is started, once.
+ * New consumer groups of streams compacted by the {@link StreamCompactor} are bootstrapped from the snapshot instead.
+ * <p>
+ * On shutdown the listener drains gracefully, before the processors and the connections are destroyed:
+ * it stops polling, waits up to <code>wb.stream.listener.drain-timeout</code> milliseconds for the records in flight
+ * to be processed and acknowledged and flushes the acknowledgements buffered by the {@link LazyAcknowledger}, if any.
+ * The records it could not complete are left in the Pending Entry List as they are, for the next instance to retry.
+ * <p>
+ * A subscription is cancelled when a poll fails other than on a timeout or a connection failure, e.g. when the stream
+ * was deleted along with its group:
+ * the {@link com.foogaro.redis.wbs.core.watchdog.SubscriptionWatchdog} checks its {@link #getSubscriptionStatus() status}
+ * and {@link #resubscribe() resubscribes} it.
+ */
+public abstract class AbstractStreamListener<T, R> implements StreamListener<T, R>, SmartLifecycle {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    @Value("${wb.stream.listener.drain-timeout:10000}")
+    private long drainTimeout;
+
+    @Value("${wb.stream.compaction.load-batch-size:500}")
+    private int snapshotBatchSize;
+
+    @Autowired(required = false)
+    private PendingWriteIndex pendingWriteIndex;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Autowired(required = false)
+    private HotKeyTracker hotKeyTracker;
+
+    @Autowired(required = false)
+    private PriorityScheduler priorityScheduler;
+
+    @Autowired(required = false)
+    private StreamCompactor streamCompactor;
+
+    @Autowired(required = false)
+    private MultiplexedStreamPoller multiplexedStreamPoller;
+
+    @Autowired(required = false)
+    private Bulkheads bulkheads;
+
+    @Autowired(required = false)
+    private LazyAcknowledger lazyAcknowledger;
+
+    @Autowired
+    private ObjectProvider<AbstractStreamListener<?, ?>> streamListeners;
+
     private final Class<T> entityClass;
     private final Class<R> repositoryClass;
 
+    private volatile Bulkhead bulkhead;
+    private volatile Subscription subscription;
+    private final List<Subscription> scaledSubscriptions = new ArrayList<>();
+    private volatile long lastDelivery;
+    private final AtomicInteger delivering = new AtomicInteger();
+    private volatile boolean bootstrapped;
+    private volatile boolean running;
+    private volatile boolean draining;
+    private final Map<RecordId, MapRecord<String, String, String>> inFlight = new ConcurrentHashMap<>();
+    private final Set<RecordId> rejected = ConcurrentHashMap.newKeySet();
+
     public abstract ProcessOrchestrator<T, R> getProcessOrchestrator();
     public abstract Processor<T, R> getProcessor();
 
@@ -28,6 +118,11 @@ public abstract class AbstractStreamListener<T, R> implements StreamListener<T,
         this.repositoryClass = (Class<R>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[1];
     }
 
+    protected AbstractStreamListener(Class<T> entityClass, Class<R> repositoryClass) {
+        this.entityClass = entityClass;
+        this.repositoryClass = repositoryClass;
+    }
+
     protected Class<T> getEntityClass() {
         return this.entityClass;
     }
@@ -36,44 +131,518 @@ public abstract class AbstractStreamListener<T, R> implements StreamListener<T,
         return repositoryClass;
     }
 
-    @PostConstruct
-    private void startListening() {
-        logger.info("Starting to listen on stream {} for entity {} managed by repository {}", getStreamKey(getEntityClass()), getEntityClass().getSimpleName(), getRepositoryClass().getSimpleName());
+    /***
+     * Creates the streams and the consumer groups of the listeners with a single pipeline,
+     * subscribes all of them and then starts their container.
+     */
+    private static void bootstrap(List<AbstractStreamListener<?, ?>> listeners) {
+        long start = System.nanoTime();
+        AbstractStreamListener<?, ?> first = listeners.get(0);
+        Map<AbstractStreamListener<?, ?>, RecordId> onboarding = new LinkedHashMap<>();
+        List<AbstractStreamListener<?, ?>> replaying = new ArrayList<>();
+        for (AbstractStreamListener<?, ?> listener : listeners) {
+            listener.bootstrapped = true;
+            listener.registerIdReader();
+            listener.getSnapshotOffset().ifPresentOrElse(offset -> onboarding.put(listener, offset), () -> replaying.add(listener));
+        }
+        if (!replaying.isEmpty()) {
+            List<Object> results;
+            try {
+                results = first.getRedisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                    replaying.forEach(listener -> connection.streamCommands().xGroupCreate(
+                            RedisSerializer.string().serialize(getStreamKey(listener.getEntityClass())),
+                            getConsumerGroup(listener.getRepositoryClass()), ReadOffset.from("0"), true));
+                    return null;
+                });
+            } catch (RedisPipelineException e) {
+                results = e.getPipelineResult();
+            }
+            for (int i = 0; i < replaying.size(); i++) {
+                Object result = results.get(i);
+                if (result instanceof Exception e && !isBusyGroup(e)) {
+                    throw new IllegalStateException("Error creating consumer group for stream " + getStreamKey(replaying.get(i).getEntityClass()), e);
+                }
+                replaying.get(i).subscribe(!(result instanceof Exception), start);
+            }
+        }
+        first.getStreamMessageListenerContainer().start();
+        onboarding.forEach((listener, offset) -> listener.onboard(offset, start));
+        first.logger.info("{} listeners bootstrapped in {} ms, {} from snapshots", listeners.size(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis(), onboarding.size());
+    }
+
+    private static boolean isBusyGroup(Exception e) {
+        return e.getMessage() != null && e.getMessage().contains("BUSYGROUP");
+    }
 
+    /***
+     * Lets the {@link StreamCompactor} key the events without an {@code id} field by the ID read from their content.
+     */
+    private void registerIdReader() {
+        if (streamCompactor != null && getProcessor() instanceof AbstractProcessor<T, R> processor) {
+            streamCompactor.registerIdReader(getStreamKey(getEntityClass()), record -> processor.view(record).getId());
+        }
+    }
+
+    /***
+     * @return the stream ID covered by the snapshot of the stream, if the consumer group is new and a snapshot exists.
+     */
+    private Optional<RecordId> getSnapshotOffset() {
+        if (streamCompactor == null) return Optional.empty();
         try {
-            getRedisTemplate().opsForStream().createGroup(getStreamKey(getEntityClass()), ReadOffset.from("0"), getConsumerGroup(getRepositoryClass()));
-            logger.info("Consumer group {} created for stream {}", getConsumerGroup(getRepositoryClass()), getStreamKey(getEntityClass()));
-        } catch (Throwable e) {
-            if (!e.getMessage().contains("BUSYGROUP")) {
-                if (e.getMessage().contains("NOGROUP")) {
-                    getRedisTemplate().opsForStream().add(StreamRecords.newRecord()
-                            .in(getStreamKey(getEntityClass()))
-                            .ofMap(Collections.singletonMap("init", "true")));
-
-                    getRedisTemplate().opsForStream().createGroup(getStreamKey(getEntityClass()), ReadOffset.lastConsumed(), getConsumerGroup(getRepositoryClass()));
-                    logger.info("Stream {} and consumer group {} created", getStreamKey(getEntityClass()), getConsumerGroup(getRepositoryClass()));
-                } else {
-                    throw e;
-                }
+            return streamCompactor.getBootstrapOffset(getStreamKey(getEntityClass()), getConsumerGroup(getRepositoryClass()));
+        } catch (Exception e) {
+            logger.warn("Error reading the snapshot of stream {}, replaying it - {}", getStreamKey(getEntityClass()), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /***
+     * Bootstraps the new consumer group from the snapshot of the stream, in its own thread, writing the latest event
+     * of each entity in batches, and then creates the group at the stream ID covered by the snapshot and subscribes.
+     * The group is created only once the snapshot has been loaded, so that a failed load is retried on the next start;
+     * in the meantime, the group replays the whole stream instead.
+     */
+    private void onboard(RecordId offset, long bootstrapStart) {
+        String streamKey = getStreamKey(getEntityClass());
+        Thread thread = new Thread(() -> {
+            ReadOffset readOffset = ReadOffset.from(offset);
+            long loaded = 0;
+            try {
+                loaded = streamCompactor.load(streamKey, snapshotBatchSize, batch -> {
+                    try {
+                        getProcessor().process(batch);
+                    } catch (ProcessMessageException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                logger.info("Consumer group {} loaded {} entities from the snapshot of stream {} up to {}",
+                        getConsumerGroup(getRepositoryClass()), loaded, streamKey, offset);
+            } catch (Exception e) {
+                logger.error("Error loading the snapshot of stream {} for consumer group {}, replaying the stream",
+                        streamKey, getConsumerGroup(getRepositoryClass()), e);
+                readOffset = ReadOffset.from("0");
             }
+            boolean groupCreated = createGroup(readOffset);
+            subscribe(groupCreated, bootstrapStart);
+        }, "wb-snapshot-" + getConsumerName(getEntityClass(), getRepositoryClass()));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private boolean createGroup(ReadOffset readOffset) {
+        byte[] streamKey = RedisSerializer.string().serialize(getStreamKey(getEntityClass()));
+        try {
+            getRedisTemplate().execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey, getConsumerGroup(getRepositoryClass()), readOffset, true));
+            return true;
+        } catch (Exception e) {
+            if (isBusyGroup(e) || (e.getCause() instanceof Exception cause && isBusyGroup(cause))) return false;
+            throw new IllegalStateException("Error creating consumer group for stream " + getStreamKey(getEntityClass()), e);
         }
-        getStreamMessageListenerContainer().receive(
-                Consumer.from(getConsumerGroup(getRepositoryClass()), getConsumerName(getEntityClass(), getRepositoryClass())),
-                StreamOffset.create(getStreamKey(getEntityClass()), ReadOffset.lastConsumed()),
-                this::onMessage
+    }
+
+    private void subscribe(boolean groupCreated, long bootstrapStart) {
+        if (pendingWriteIndex != null) {
+            pendingWriteIndex.registerGroup(getEntityClass(), getConsumerGroup(getRepositoryClass()));
+        }
+        subscription = receive();
+        running = true;
+
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - bootstrapStart);
+        if (meterRegistry != null) {
+            Timer.builder("wb.listener.startup")
+                    .tags("entity", getEntityClass().getSimpleName().toLowerCase(), "group", getConsumerGroup(getRepositoryClass()))
+                    .register(meterRegistry)
+                    .record(elapsed);
+        }
+        logger.info("Listener started for stream {} for entity {} managed by repository {} in {} ms, consumer group {} {}",
+                getStreamKey(getEntityClass()), getEntityClass().getSimpleName(), getRepositoryClass().getSimpleName(),
+                elapsed.toMillis(), getConsumerGroup(getRepositoryClass()), groupCreated ? "created" : "existing");
+    }
+
+    /***
+     * Subscribes to the stream through the {@link MultiplexedStreamPoller}, if enabled, or else through the container.
+     */
+    private Subscription receive() {
+        lastDelivery = System.currentTimeMillis();
+        return receive(getConsumerName(getEntityClass(), getRepositoryClass()));
+    }
+
+    private Subscription receive(String consumerName) {
+        Consumer consumer = Consumer.from(getConsumerGroup(getRepositoryClass()), consumerName);
+        java.util.function.Consumer<MapRecord<String, String, String>> listener =
+                consumerName.equals(getConsumerName(getEntityClass(), getRepositoryClass())) ? this::onMessage : record -> onMessage(record, consumerName);
+        if (multiplexedStreamPoller != null) {
+            return multiplexedStreamPoller.register(getStreamKey(getEntityClass()), consumer, listener);
+        }
+        return getStreamMessageListenerContainer().register(
+                StreamMessageListenerContainer.StreamReadRequest.builder(StreamOffset.create(getStreamKey(getEntityClass()), ReadOffset.lastConsumed()))
+                        .consumer(consumer)
+                        .autoAcknowledge(false)
+                        .cancelOnError(e -> !isTransient(e))
+                        .build(),
+                listener::accept
         );
+    }
+
+    /***
+     * Timeouts and connection failures are retried by the next poll, while other errors, e.g. <code>NOGROUP</code>,
+     * cancel the subscription for the watchdog to resubscribe it.
+     */
+    private static boolean isTransient(Throwable e) {
+        return e instanceof TransientDataAccessException || e instanceof RedisConnectionFailureException;
+    }
+
+    /***
+     * Replaces the subscription, creating the stream and the consumer group first if they were deleted,
+     * in which case the new group reads the stream from its beginning.
+     */
+    public synchronized void resubscribe() {
+        if (!running || draining) return;
+        cancel(subscription);
+        boolean groupCreated = createGroup(ReadOffset.from("0"));
+        if (pendingWriteIndex != null && groupCreated) {
+            pendingWriteIndex.registerGroup(getEntityClass(), getConsumerGroup(getRepositoryClass()));
+        }
+        subscription = receive();
+        for (int i = 0; i < scaledSubscriptions.size(); i++) {
+            if (!scaledSubscriptions.get(i).isActive()) {
+                cancel(scaledSubscriptions.get(i));
+                scaledSubscriptions.set(i, receive(getConsumerName(getEntityClass(), getRepositoryClass(), i + 2)));
+            }
+        }
+        logger.info("Listener resubscribed to stream {} for consumer group {} {}", getStreamKey(getEntityClass()),
+                getConsumerGroup(getRepositoryClass()), groupCreated ? "created" : "existing");
+    }
+
+    private void cancel(Subscription previous) {
+        if (previous != null && multiplexedStreamPoller != null) {
+            previous.cancel();
+        } else if (previous != null) {
+            getStreamMessageListenerContainer().remove(previous);
+        }
+    }
+
+    /***
+     * @return the number of consumers of the listener in the group, the first one included.
+     */
+    public synchronized int getConsumerCount() {
+        return 1 + scaledSubscriptions.size();
+    }
+
+    /***
+     * Subscribes one more consumer to the group, named after the listener with its index as suffix,
+     * e.g. <code>employer_employerrepository_consumer_2</code>, sharing the processing of the listener.
+     * @return <code>false</code> if the listener is not running
+     */
+    public synchronized boolean addConsumer() {
+        if (!running || draining) return false;
+        scaledSubscriptions.add(receive(getConsumerName(getEntityClass(), getRepositoryClass(), scaledSubscriptions.size() + 2)));
+        return true;
+    }
+
+    /***
+     * Unsubscribes the last consumer added, handing its pending entries over to the first consumer,
+     * and deletes it from the group. If the hand-over fails or stops making progress, the consumer is kept
+     * with its remaining entries, which the pending message handler retries, instead of losing them with the consumer.
+     * @return <code>false</code> if only the first consumer is left
+     */
+    public synchronized boolean removeConsumer() {
+        if (scaledSubscriptions.isEmpty()) return false;
+        String consumerName = getConsumerName(getEntityClass(), getRepositoryClass(), scaledSubscriptions.size() + 1);
+        cancel(scaledSubscriptions.remove(scaledSubscriptions.size() - 1));
+        String streamKey = getStreamKey(getEntityClass());
+        String group = getConsumerGroup(getRepositoryClass());
+        try {
+            long remaining = getPendingCount(consumerName);
+            while (remaining > 0) {
+                PendingMessages pending = getRedisTemplate().opsForStream().pending(streamKey, Consumer.from(group, consumerName),
+                        Range.unbounded(), snapshotBatchSize);
+                if (pending == null || pending.isEmpty()) break;
+                long previous = remaining;
+                if (!handOver(pending)
+                        || (remaining = getPendingCount(consumerName)) >= previous) {
+                    logger.warn("Consumer {} kept with {} pending entries, left to the pending message handler", consumerName, previous);
+                    return true;
+                }
+            }
+            getRedisTemplate().opsForStream().deleteConsumer(streamKey, Consumer.from(group, consumerName));
+        } catch (Exception e) {
+            logger.warn("Error handing over the pending entries of consumer {} - {}", consumerName, e.getMessage());
+        }
+        return true;
+    }
+
+    private long getPendingCount(String consumerName) {
+        PendingMessagesSummary summary = getRedisTemplate().opsForStream()
+                .pending(getStreamKey(getEntityClass()), getConsumerGroup(getRepositoryClass()));
+        return summary != null ? summary.getPendingMessagesPerConsumer().getOrDefault(consumerName, 0L) : 0;
+    }
 
-        getStreamMessageListenerContainer().start();
-        logger.info("Listener started for stream {} for entity {} managed by repository {}", getStreamKey(getEntityClass()), getEntityClass().getSimpleName(), getRepositoryClass().getSimpleName());
+    /***
+     * @return the number of entries delivered to the consumer group and not yet acknowledged.
+     */
+    public long getPendingCount() {
+        PendingMessagesSummary summary = getRedisTemplate().opsForStream()
+                .pending(getStreamKey(getEntityClass()), getConsumerGroup(getRepositoryClass()));
+        return summary != null ? summary.getTotalPendingMessages() : 0;
+    }
+
+    /***
+     * @return the state of the subscription, reading the consumer group from Redis.
+     */
+    public SubscriptionStatus getSubscriptionStatus() {
+        String streamKey = getStreamKey(getEntityClass());
+        String group = getConsumerGroup(getRepositoryClass());
+        Subscription current = subscription;
+        boolean active = current != null && current.isActive();
+        Duration idle = Duration.ofMillis(Math.max(0, System.currentTimeMillis() - lastDelivery));
+        boolean delivering = this.delivering.get() > 0 || !inFlight.isEmpty();
+        StreamInfo.XInfoGroup info = null;
+        String lastGeneratedId = null;
+        try {
+            info = getRedisTemplate().opsForStream().groups(streamKey).stream()
+                    .filter(xInfoGroup -> group.equals(xInfoGroup.groupName()))
+                    .findFirst()
+                    .orElse(null);
+            if (info != null && !(info.getRaw().get("lag") instanceof Number)) {
+                lastGeneratedId = getRedisTemplate().opsForStream().info(streamKey).lastGeneratedId();
+            }
+        } catch (Exception e) {
+            logger.debug("Error reading consumer group {} of stream {} - {}", group, streamKey, e.getMessage());
+        }
+        if (info == null) {
+            return new SubscriptionStatus(streamKey, group, getConsumerName(getEntityClass(), getRepositoryClass()), active, false, null, false, delivering, idle);
+        }
+        Long lag = info.getRaw().get("lag") instanceof Number number ? number.longValue() : null;
+        boolean behind = lag != null ? lag > 0
+                : lastGeneratedId != null && compare(RecordId.of(info.lastDeliveredId()), RecordId.of(lastGeneratedId)) < 0;
+        return new SubscriptionStatus(streamKey, group, getConsumerName(getEntityClass(), getRepositoryClass()), active, true, lag, behind, delivering, idle);
     }
 
     @Override
     public void onMessage(MapRecord<String, String, String> record) {
+        onMessage(record, getConsumerName(getEntityClass(), getRepositoryClass()));
+    }
+
+    /***
+     * The subscription is idle from the end of the last delivery, as the polling thread may wait here
+     * for the bulkhead, the lane of the scheduler or the rate limiter.
+     * @param consumerName the consumer the record was delivered to, whose lane it is scheduled in
+     */
+    private void onMessage(MapRecord<String, String, String> record, String consumerName) {
+        delivering.incrementAndGet();
+        try {
+            deliver(record, consumerName);
+        } finally {
+            lastDelivery = System.currentTimeMillis();
+            delivering.decrementAndGet();
+        }
+    }
+
+    private void deliver(MapRecord<String, String, String> record, String consumerName) {
+        if (draining) {
+            rejected.add(record.getId());
+            logger.debug("Record {} delivered while draining, left pending", record.getId());
+            return;
+        }
+        Bulkhead bulkhead = getBulkhead();
+        if (bulkhead != null) {
+            try {
+                bulkhead.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted waiting for the bulkhead of record: {}, left pending", record.getId());
+                return;
+            }
+        }
+        inFlight.put(record.getId(), record);
+        RecordView<T> view = getProcessor() instanceof AbstractProcessor<T, R> processor ? processor.view(record) : null;
+        trackHotKey(record, view);
         try {
 //            getProcessOrchestrator().addProcessor(getProcessor());
-            getProcessOrchestrator().orchestrate(record, getProcessor());
+            schedule(record, view, consumerName).whenComplete((v, e) -> {
+                if (e != null) {
+                    logger.error("Error processing record: {}", record.getId(), e);
+                }
+                completed(record);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted scheduling record: {}, left pending", record.getId());
+            completed(record);
         } catch (Exception e) {
             logger.error("Error processing record: {}", record.getId(), e);
+            completed(record);
+        }
+    }
+
+    /***
+     * Orchestrates the record in the polling thread, or in the lane of the consumer of the {@link PriorityScheduler},
+     * if enabled, weighted by the {@code priority} field of the event or else by the priority of the processor.
+     * With {@link Bulkheads}, the record is then orchestrated in the writer thread of the bulkhead of the listener.
+     */
+    private CompletableFuture<Void> schedule(MapRecord<String, String, String> record, RecordView<T> view, String consumerName) throws InterruptedException {
+        Bulkhead bulkhead = getBulkhead();
+        if (priorityScheduler == null) {
+            return bulkhead == null ? orchestrate(record, view) : bulkhead.execute(() -> orchestrate(record, view));
+        }
+        return priorityScheduler.submit(consumerName, getPriority(record),
+                bulkhead == null ? () -> orchestrate(record, view) : () -> bulkhead.execute(() -> orchestrate(record, view)));
+    }
+
+    private CompletableFuture<Void> orchestrate(MapRecord<String, String, String> record, RecordView<T> view) {
+        return view == null
+                ? getProcessOrchestrator().orchestrateAsync(record, getProcessor())
+                : getProcessOrchestrator().orchestrateAsync(view, getProcessor());
+    }
+
+    private Bulkhead getBulkhead() {
+        if (bulkheads == null) return null;
+        Bulkhead current = bulkhead;
+        if (current == null) {
+            current = bulkheads.get(getEntityClass(), getRepositoryClass());
+            bulkhead = current;
+        }
+        return current;
+    }
+
+    private int getPriority(MapRecord<String, String, String> record) {
+        String priority = record.getValue().get(EVENT_PRIORITY_KEY);
+        if (priority != null) {
+            try {
+                return Integer.parseInt(priority);
+            } catch (NumberFormatException e) {
+                logger.debug("Invalid priority {} of record {}", priority, record.getId());
+            }
+        }
+        return getProcessor().getPriority();
+    }
+
+    /***
+     * Counts the entity ID of the record, read from its view when the event doesn't carry it.
+     */
+    private void trackHotKey(MapRecord<String, String, String> record, RecordView<T> view) {
+        if (hotKeyTracker == null) return;
+        String id = view != null ? view.getId() : getEntityId(record);
+        if (id != null) {
+            hotKeyTracker.record(record.getStream(), id);
+        }
+    }
+
+    private void completed(MapRecord<String, String, String> record) {
+        Bulkhead bulkhead = getBulkhead();
+        if (bulkhead != null) {
+            bulkhead.release();
+        }
+        synchronized (inFlight) {
+            inFlight.remove(record.getId());
+            inFlight.notifyAll();
+        }
+    }
+
+    /***
+     * The first listener to be started bootstraps all the listeners sharing its container, which are then already bootstrapped.
+     */
+    @Override
+    public void start() {
+        if (bootstrapped) return;
+        StreamMessageListenerContainer<String, MapRecord<String, String, String>> container = getStreamMessageListenerContainer();
+        List<AbstractStreamListener<?, ?>> listeners = streamListeners.orderedStream()
+                .filter(listener -> !listener.bootstrapped && listener.getStreamMessageListenerContainer() == container)
+                .toList();
+        bootstrap(listeners);
+    }
+
+    /***
+     * Started before the container and stopped after it, i.e. once it stopped polling.
+     */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 1;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void stop() {
+        drain();
+    }
+
+    /***
+     * Drains in its own thread, so that all the listeners drain in parallel within the shutdown phase.
+     */
+    @Override
+    public void stop(Runnable callback) {
+        Thread thread = new Thread(() -> {
+            try {
+                drain();
+            } finally {
+                callback.run();
+            }
+        }, "wb-drain-" + getConsumerName(getEntityClass(), getRepositoryClass()));
+        thread.start();
+    }
+
+    private void drain() {
+        if (!running) return;
+        long start = System.nanoTime();
+        synchronized (this) {
+            draining = true;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            scaledSubscriptions.forEach(Subscription::cancel);
+        }
+        int initial = inFlight.size();
+        long deadline = start + Duration.ofMillis(drainTimeout).toNanos();
+        synchronized (inFlight) {
+            long remaining;
+            while (!inFlight.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    inFlight.wait(Math.max(1, Duration.ofNanos(remaining).toMillis()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (lazyAcknowledger != null) {
+            lazyAcknowledger.flush();
+        }
+        List<RecordId> abandoned = new ArrayList<>(inFlight.keySet());
+        running = false;
+        bootstrapped = false;
+        logger.info("Listener on stream {} for repository {} drained in {} ms: {} records drained, {} abandoned, {} rejected",
+                getStreamKey(getEntityClass()), getRepositoryClass().getSimpleName(),
+                Duration.ofNanos(System.nanoTime() - start).toMillis(), initial - abandoned.size(), abandoned.size(), rejected.size());
+        if (!abandoned.isEmpty()) {
+            logger.warn("Records abandoned after {} ms, left pending for retry: {}", drainTimeout, abandoned);
+        }
+    }
+
+    /***
+     * Claims the pending entries for the first consumer, keeping the shortest of their idle times instead of resetting it,
+     * so that the pending message handler retries them, or dead-letters them, as it would have done.
+     * @return <code>false</code> if the entries couldn't be claimed
+     */
+    private boolean handOver(PendingMessages pending) {
+        if (pending.isEmpty()) return true;
+        List<RecordId> recordIds = pending.stream().map(PendingMessage::getId).toList();
+        try {
+            byte[] streamKey = RedisSerializer.string().serialize(getStreamKey(getEntityClass()));
+            Duration idle = pending.stream().map(PendingMessage::getElapsedTimeSinceLastDelivery).min(Duration::compareTo).orElse(Duration.ZERO);
+            XClaimOptions options = XClaimOptions.minIdle(Duration.ZERO).ids(recordIds.toArray(RecordId[]::new)).idle(idle);
+            getRedisTemplate().execute((RedisCallback<List<RecordId>>) connection -> connection.streamCommands()
+                    .xClaimJustId(streamKey, getConsumerGroup(getRepositoryClass()), getConsumerName(getEntityClass(), getRepositoryClass()), options));
+            return true;
+        } catch (Exception e) {
+            logger.warn("Error handing over records {} - {}", recordIds, e.getMessage());
+            return false;
         }
     }
 
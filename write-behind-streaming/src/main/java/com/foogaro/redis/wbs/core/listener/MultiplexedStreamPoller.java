@@ -0,0 +1,310 @@
+package com.foogaro.redis.wbs.core.listener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.stream.Subscription;
+import org.springframework.util.ErrorHandler;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Polls the streams of all the listeners from a single thread and connection, one pipeline of non-blocking
+ * <code>XREADGROUP</code>s per round, and dispatches the records of each subscription in order on a pool of workers.
+ */
+public class MultiplexedStreamPoller implements DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final RedisSerializer<String> SERIALIZER = RedisSerializer.string();
+    private static final String EMPTY_STREAM_ID = "0-0";
+
+    private final RedisConnectionFactory connectionFactory;
+    private final int batchSize;
+    private final Duration pollTimeout;
+    private final ErrorHandler errorHandler;
+    private final ExecutorService workers;
+    private final List<MultiplexedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Object signal = new Object();
+    private volatile boolean running;
+    private Thread thread;
+
+    /***
+     * @param connectionFactory the connections of the blocking reads, whose read timeout must exceed the poll timeout
+     * @param batchSize the maximum number of records read from each stream per round (COUNT)
+     * @param pollTimeout how long the poller blocks waiting for new entries (BLOCK)
+     * @param workers the number of threads dispatching the records to the listeners
+     * @param errorHandler notified of the failed reads
+     */
+    public MultiplexedStreamPoller(RedisConnectionFactory connectionFactory, int batchSize, Duration pollTimeout, int workers,
+                                   ErrorHandler errorHandler) {
+        this.connectionFactory = connectionFactory;
+        this.batchSize = batchSize;
+        this.pollTimeout = pollTimeout;
+        this.errorHandler = errorHandler;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread worker = new Thread(runnable, "wb-multiplex-" + threads.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+    }
+
+    /***
+     * Subscribes the listener to the stream for the consumer, reading the entries never delivered to its group,
+     * and starts polling, if not yet started.
+     */
+    public Subscription register(String streamKey, Consumer consumer, java.util.function.Consumer<MapRecord<String, String, String>> listener) {
+        MultiplexedSubscription subscription = new MultiplexedSubscription(streamKey, consumer, listener);
+        subscriptions.add(subscription);
+        start();
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+        logger.debug("Stream {} multiplexed for consumer {} of group {}, {} subscriptions", streamKey, consumer.getName(),
+                consumer.getGroup(), subscriptions.size());
+        return subscription;
+    }
+
+    public List<? extends Subscription> getSubscriptions() {
+        return List.copyOf(subscriptions);
+    }
+
+    private synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::poll, "wb-multiplex-poller");
+        thread.setDaemon(true);
+        thread.start();
+        logger.info("Multiplexed stream poller started, batch size {}, poll timeout {} ms", batchSize, pollTimeout.toMillis());
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        Thread poller;
+        synchronized (this) {
+            running = false;
+            poller = thread;
+        }
+        if (poller != null) {
+            poller.interrupt();
+            poller.join(pollTimeout.plusSeconds(1).toMillis());
+        }
+        workers.shutdownNow();
+    }
+
+    private void poll() {
+        RedisConnection connection = null;
+        while (running) {
+            List<MultiplexedSubscription> active = subscriptions.stream().filter(MultiplexedSubscription::isActive).toList();
+            List<MultiplexedSubscription> ready = active.stream().filter(subscription -> !subscription.isDispatching()).toList();
+            try {
+                if (ready.isEmpty()) {
+                    awaitDispatches(active);
+                    continue;
+                }
+                if (connection == null) {
+                    connection = connectionFactory.getConnection();
+                }
+                Map<String, String> lastIds = new LinkedHashMap<>();
+                if (read(connection, ready, lastIds) == 0 && running) {
+                    if (ready.size() < active.size()) {
+                        awaitDispatches(active);
+                    } else {
+                        block(connection, lastIds);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                if (!running) break;
+                errorHandler.handleError(e);
+                connection = close(connection);
+                try {
+                    Thread.sleep(pollTimeout.toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        close(connection);
+    }
+
+    /***
+     * Waits until a batch has been dispatched or a subscription registered, or for the poll timeout.
+     */
+    private void awaitDispatches(List<MultiplexedSubscription> active) throws InterruptedException {
+        synchronized (signal) {
+            if (subscriptions.stream().noneMatch(MultiplexedSubscription::isActive)
+                    || active.stream().anyMatch(MultiplexedSubscription::isDispatching)) {
+                signal.wait(pollTimeout.toMillis());
+            }
+        }
+    }
+
+    /***
+     * Reads a batch of each subscription with one pipeline and dispatches them asynchronously.
+     * @param lastIds filled with the last entry ID of each stream, as of before the reads
+     * @return the number of records read
+     */
+    private int read(RedisConnection connection, List<MultiplexedSubscription> ready, Map<String, String> lastIds) {
+        List<String> streamKeys = ready.stream().map(MultiplexedSubscription::getStreamKey).distinct().toList();
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+        List<Object> results;
+        connection.openPipeline();
+        try {
+            for (String streamKey : streamKeys) {
+                connection.streamCommands().xRevRange(SERIALIZER.serialize(streamKey), Range.unbounded(), Limit.limit().count(1));
+            }
+            for (MultiplexedSubscription subscription : ready) {
+                connection.streamCommands().xReadGroup(subscription.consumer, options, subscription.offsets);
+            }
+        } finally {
+            try {
+                results = connection.closePipeline();
+            } catch (RedisPipelineException e) {
+                results = e.getPipelineResult();
+            }
+        }
+
+        for (int i = 0; i < streamKeys.size(); i++) {
+            lastIds.put(streamKeys.get(i), results.get(i) instanceof List<?> last && !last.isEmpty()
+                    ? ((ByteRecord) last.get(0)).getId().getValue() : EMPTY_STREAM_ID);
+        }
+        int read = 0;
+        for (int i = 0; i < ready.size(); i++) {
+            MultiplexedSubscription subscription = ready.get(i);
+            Object result = results.get(streamKeys.size() + i);
+            if (result instanceof Exception e) {
+                subscription.failed(e);
+                continue;
+            }
+            if (!(result instanceof List<?> records) || records.isEmpty()) continue;
+            read += records.size();
+            subscription.dispatchAsync(records);
+        }
+        return read;
+    }
+
+    /***
+     * Waits for a new entry in any of the streams, or for the poll timeout.
+     */
+    @SuppressWarnings("unchecked")
+    private void block(RedisConnection connection, Map<String, String> lastIds) {
+        StreamOffset<byte[]>[] offsets = lastIds.entrySet().stream()
+                .map(entry -> StreamOffset.create(SERIALIZER.serialize(entry.getKey()), ReadOffset.from(entry.getValue())))
+                .toArray(StreamOffset[]::new);
+        connection.streamCommands().xRead(StreamReadOptions.empty().count(1).block(pollTimeout), offsets);
+    }
+
+    private RedisConnection close(RedisConnection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (Exception e) {
+                logger.debug("Error closing connection - {}", e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private class MultiplexedSubscription implements Subscription {
+
+        private final String streamKey;
+        private final byte[] rawStreamKey;
+        private final Consumer consumer;
+        private final StreamOffset<byte[]>[] offsets;
+        private final java.util.function.Consumer<MapRecord<String, String, String>> listener;
+        private volatile boolean active = true;
+        private volatile boolean dispatching;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private MultiplexedSubscription(String streamKey, Consumer consumer, java.util.function.Consumer<MapRecord<String, String, String>> listener) {
+            this.streamKey = streamKey;
+            this.rawStreamKey = SERIALIZER.serialize(streamKey);
+            this.offsets = new StreamOffset[]{StreamOffset.create(rawStreamKey, ReadOffset.lastConsumed())};
+            this.consumer = consumer;
+            this.listener = listener;
+        }
+
+        String getStreamKey() {
+            return streamKey;
+        }
+
+        boolean isDispatching() {
+            return dispatching;
+        }
+
+        /***
+         * Dispatches the records on a worker, and wakes the poller up once done, to read the stream again.
+         */
+        void dispatchAsync(List<?> records) {
+            dispatching = true;
+            try {
+                workers.execute(() -> {
+                    try {
+                        dispatch(records);
+                    } finally {
+                        dispatched();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                logger.warn("Records of stream {} not dispatched, left pending - {}", streamKey, e.getMessage());
+                dispatched();
+            }
+        }
+
+        private void dispatched() {
+            dispatching = false;
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+
+        void dispatch(List<?> records) {
+            for (Object record : records) {
+                if (!active) return;
+                try {
+                    listener.accept(((ByteRecord) record).deserialize(SERIALIZER));
+                } catch (Exception e) {
+                    logger.error("Error delivering record {} of stream {}", ((ByteRecord) record).getId(), streamKey, e);
+                }
+            }
+        }
+
+        void failed(Exception e) {
+            logger.warn("Error reading stream {} for consumer {} of group {}, cancelling its subscription - {}",
+                    streamKey, consumer.getName(), consumer.getGroup(), e.getMessage());
+            errorHandler.handleError(e);
+            cancel();
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public boolean await(Duration timeout) {
+            return active;
+        }
+
+        @Override
+        public void cancel() {
+            active = false;
+            subscriptions.remove(this);
+        }
+    }
+}
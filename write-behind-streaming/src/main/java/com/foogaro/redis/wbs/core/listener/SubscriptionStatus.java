@@ -0,0 +1,16 @@
+package com.foogaro.redis.wbs.core.listener;
+
+import java.time.Duration;
+
+/***
+ * The state of the subscription of a listener, as seen by the {@link com.foogaro.redis.wbs.core.watchdog.SubscriptionWatchdog}.
+ * @param active whether the subscription is still polling, as it is cancelled when a poll fails
+ * @param groupExists whether the consumer group exists, as it is lost when the stream is deleted
+ * @param lag the number of entries not yet delivered to the group, <code>null</code> if Redis doesn't report it (before 7.0)
+ * @param behind whether the group has entries not yet delivered
+ * @param delivering whether a record is being delivered or is still in flight, which is back-pressure rather than a stall
+ * @param idle the time since the last delivery ended, or since the subscription was registered
+ */
+public record SubscriptionStatus(String stream, String group, String consumer, boolean active, boolean groupExists,
+                                 Long lag, boolean behind, boolean delivering, Duration idle) {
+}
@@ -0,0 +1,59 @@
+package com.foogaro.redis.wbs.core.orchestrator;
+
+import com.foogaro.redis.wbs.core.fanout.FanOut;
+import com.foogaro.redis.wbs.core.processor.AbstractFanOutProcessor;
+import com.foogaro.redis.wbs.core.processor.Processor;
+import com.foogaro.redis.wbs.core.processor.RecordView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * Orchestrator of fan-out entities: the listener thread only decodes and dispatches the record,
+ * the acknowledgement is sent once all the sinks applied it.
+ * This way the stream is not held back by the slowest sink.
+ */
+public abstract class AbstractFanOutProcessOrchestrator<T> extends AbstractProcessOrchestrator<T, FanOut> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Override
+    public void orchestrate(MapRecord<String, String, String> record, Processor<T, FanOut> processor) {
+        orchestrateAsync(record, processor);
+    }
+
+    @Override
+    public CompletableFuture<Void> orchestrateAsync(MapRecord<String, String, String> record, Processor<T, FanOut> processor) {
+        if (!(processor instanceof AbstractFanOutProcessor<T> fanOutProcessor)) {
+            return super.orchestrateAsync(record, processor);
+        }
+        return acknowledgeWhenApplied(fanOutProcessor.dispatch(record), record, fanOutProcessor);
+    }
+
+    @Override
+    public CompletableFuture<Void> orchestrateAsync(RecordView<T> view, Processor<T, FanOut> processor) {
+        if (!(processor instanceof AbstractFanOutProcessor<T> fanOutProcessor)) {
+            return super.orchestrateAsync(view, processor);
+        }
+        return acknowledgeWhenApplied(fanOutProcessor.dispatch(view), view.getRecord(), fanOutProcessor);
+    }
+
+    private CompletableFuture<Void> acknowledgeWhenApplied(CompletableFuture<Void> dispatched, MapRecord<String, String, String> record,
+                                                           AbstractFanOutProcessor<T> fanOutProcessor) {
+        return dispatched.handle((v, e) -> {
+            if (e != null) {
+                logger.warn("Message {} not applied by all sinks, left pending for retry", record.getId());
+                return null;
+            }
+            try {
+                fanOutProcessor.acknowledge(record);
+            } catch (Exception ex) {
+                logger.error("Error acknowledging message: {}", record.getId(), ex);
+            }
+            return null;
+        });
+    }
+
+}
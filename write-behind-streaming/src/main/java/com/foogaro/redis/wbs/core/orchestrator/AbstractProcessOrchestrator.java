@@ -2,11 +2,38 @@ package com.foogaro.redis.wbs.core.orchestrator;
 
 import com.foogaro.redis.wbs.core.exception.AcknowledgeMessageException;
 import com.foogaro.redis.wbs.core.exception.ProcessMessageException;
+import com.foogaro.redis.wbs.core.pipeline.RingBuffer;
+import com.foogaro.redis.wbs.core.pipeline.StagedPipeline;
 import com.foogaro.redis.wbs.core.processor.Processor;
+import com.foogaro.redis.wbs.core.processor.RecordView;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.stream.MapRecord;
 
+import java.util.concurrent.CompletableFuture;
+
+import static com.foogaro.redis.wbs.core.Misc.getConsumerGroup;
+import static com.foogaro.redis.wbs.core.Misc.getConsumerName;
+
 public abstract class AbstractProcessOrchestrator<T, R> implements ProcessOrchestrator<T, R> {
 
+    /***
+     * When enabled, records are decoded, written and acknowledged by a {@link StagedPipeline} instead of the listener thread.
+     */
+    @Value("${wb.stream.pipeline.enabled:false}")
+    private boolean pipelineEnabled;
+    @Value("${wb.stream.pipeline.buffer-size:1024}")
+    private int pipelineBufferSize;
+    @Value("${wb.stream.pipeline.wait-strategy:blocking}")
+    private String pipelineWaitStrategy;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private volatile StagedPipeline<T, R> pipeline;
+
     @Override
     public void orchestrate(MapRecord<String, String, String> record, Processor<T, R> processor) {
         try {
@@ -19,4 +46,56 @@ public abstract class AbstractProcessOrchestrator<T, R> implements ProcessOrches
         }
     }
 
+    @Override
+    public CompletableFuture<Void> orchestrateAsync(MapRecord<String, String, String> record, Processor<T, R> processor) {
+        if (!pipelineEnabled) {
+            return ProcessOrchestrator.super.orchestrateAsync(record, processor);
+        }
+        try {
+            return getPipeline(processor).submit(record, processor);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> orchestrateAsync(RecordView<T> view, Processor<T, R> processor) {
+        if (pipelineEnabled) {
+            try {
+                return getPipeline(processor).submit(view, processor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        try {
+            processor.process(view);
+            processor.acknowledge(view.getRecord());
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private StagedPipeline<T, R> getPipeline(Processor<T, R> processor) {
+        StagedPipeline<T, R> current = pipeline;
+        if (current != null) return current;
+        synchronized (this) {
+            if (pipeline == null) {
+                pipeline = new StagedPipeline<>(getConsumerName(processor.getEntityClass(), processor.getRepositoryClass()),
+                        pipelineBufferSize, RingBuffer.WaitStrategy.from(pipelineWaitStrategy), meterRegistry,
+                        Tags.of("entity", processor.getEntityClass().getSimpleName(),
+                                "group", getConsumerGroup(processor.getRepositoryClass())));
+            }
+            return pipeline;
+        }
+    }
+
+    @PreDestroy
+    public void stopPipeline() {
+        StagedPipeline<T, R> current = pipeline;
+        if (current != null) current.stop();
+    }
+
 }
@@ -1,12 +1,35 @@
 package com.foogaro.redis.wbs.core.orchestrator;
 
 import com.foogaro.redis.wbs.core.processor.Processor;
+import com.foogaro.redis.wbs.core.processor.RecordView;
 import org.springframework.data.redis.connection.stream.MapRecord;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface ProcessOrchestrator<T, R> {
 
 //    void addProcessor(Processor<T, R> processor);
 //    void orchestrate(MapRecord<String, String, String> record);
     void orchestrate(MapRecord<String, String, String> record, Processor<T, R> processor);
 
+    /***
+     * Orchestrates the record, completing the returned future once it has been processed and acknowledged.
+     * Orchestrators handing the record over to other threads complete it after this method returns.
+     */
+    default CompletableFuture<Void> orchestrateAsync(MapRecord<String, String, String> record, Processor<T, R> processor) {
+        try {
+            orchestrate(record, processor);
+            return CompletableFuture.completedFuture(null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /***
+     * Orchestrates the record of a view already built by the listener, so that its ID and entity are read once.
+     */
+    default CompletableFuture<Void> orchestrateAsync(RecordView<T> view, Processor<T, R> processor) {
+        return orchestrateAsync(view.getRecord(), processor);
+    }
+
 }
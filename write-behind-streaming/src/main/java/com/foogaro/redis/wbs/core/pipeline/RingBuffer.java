@@ -0,0 +1,159 @@
+package com.foogaro.redis.wbs.core.pipeline;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/***
+ * A bounded ring of preallocated slots between the threads of two stages, with any number of producers
+ * and a single consumer, waiting according to the {@link WaitStrategy} when it is full or empty.
+ */
+public class RingBuffer<E> {
+
+    /***
+     * How a thread waits for a slot: trading latency for CPU, from the cheapest to the fastest.
+     */
+    public enum WaitStrategy {
+        /*** Parks on a condition until signalled. */
+        BLOCKING,
+        /*** Parks for 100 microseconds at a time. */
+        SLEEPING,
+        /*** Yields the CPU to other threads. */
+        YIELDING,
+        /*** Spins, burning a core per waiting thread: only with a spare core per stage. */
+        BUSY_SPIN;
+
+        public static WaitStrategy from(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final long SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final E[] slots;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+    private final ReentrantLock producerLock = new ReentrantLock();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private long claimed;
+
+    /***
+     * @param capacity the number of slots, rounded up to a power of two
+     * @param factory creates the slots, once
+     */
+    @SuppressWarnings("unchecked")
+    public RingBuffer(int capacity, Supplier<E> factory, WaitStrategy waitStrategy) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = (E[]) new Object[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = factory.get();
+        }
+        this.mask = size - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /***
+     * Waits for a free slot and claims it: the caller must fill it and then {@link #publish()} it.
+     */
+    public E claim() throws InterruptedException {
+        producerLock.lockInterruptibly();
+        try {
+            long sequence = tail.get();
+            while (sequence - head.get() >= slots.length) {
+                if (waitStrategy == WaitStrategy.BLOCKING) {
+                    lock.lockInterruptibly();
+                    try {
+                        while (sequence - head.get() >= slots.length) {
+                            notFull.await();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                } else {
+                    pause();
+                }
+            }
+            claimed = sequence;
+            return slots[(int) sequence & mask];
+        } catch (InterruptedException e) {
+            producerLock.unlock();
+            throw e;
+        }
+    }
+
+    /***
+     * Makes the claimed slot visible to the consumer.
+     */
+    public void publish() {
+        tail.set(claimed + 1);
+        producerLock.unlock();
+        signal(notEmpty);
+    }
+
+    /***
+     * Waits for a published slot: the consumer must copy it and then {@link #release()} it.
+     */
+    public E take() throws InterruptedException {
+        long sequence = head.get();
+        while (tail.get() == sequence) {
+            if (waitStrategy == WaitStrategy.BLOCKING) {
+                lock.lockInterruptibly();
+                try {
+                    while (tail.get() == sequence) {
+                        notEmpty.await();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                pause();
+            }
+        }
+        return slots[(int) sequence & mask];
+    }
+
+    /***
+     * Frees the slot taken, for the producers to reuse.
+     */
+    public void release() {
+        head.set(head.get() + 1);
+        signal(notFull);
+    }
+
+    /***
+     * @return the number of slots published and not yet released.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    private void pause() throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException();
+        switch (waitStrategy) {
+            case SLEEPING -> LockSupport.parkNanos(SLEEP_NANOS);
+            case YIELDING -> Thread.yield();
+            default -> Thread.onSpinWait();
+        }
+    }
+
+    private void signal(Condition condition) {
+        if (waitStrategy != WaitStrategy.BLOCKING) return;
+        lock.lock();
+        try {
+            condition.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
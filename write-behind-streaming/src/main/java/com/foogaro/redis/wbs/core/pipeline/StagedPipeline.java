@@ -0,0 +1,194 @@
+package com.foogaro.redis.wbs.core.pipeline;
+
+import com.foogaro.redis.wbs.core.processor.AbstractProcessor;
+import com.foogaro.redis.wbs.core.processor.Processor;
+import com.foogaro.redis.wbs.core.processor.RecordView;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * Processes the records of a listener in decode, write and acknowledge stages, each in a thread of its own
+ * connected by {@link RingBuffer}s, so that throughput is set by the slowest stage rather than by the sum of them.
+ */
+public class StagedPipeline<T, R> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final class Work<T, R> {
+        MapRecord<String, String, String> record;
+        Processor<T, R> processor;
+        RecordView<T> view;
+        CompletableFuture<Void> future;
+        Throwable failure;
+
+        void set(MapRecord<String, String, String> record, Processor<T, R> processor, RecordView<T> view,
+                 CompletableFuture<Void> future, Throwable failure) {
+            this.record = record;
+            this.processor = processor;
+            this.view = view;
+            this.future = future;
+            this.failure = failure;
+        }
+    }
+
+    private final RingBuffer<Work<T, R>> decodeBuffer;
+    private final RingBuffer<Work<T, R>> writeBuffer;
+    private final RingBuffer<Work<T, R>> acknowledgeBuffer;
+    private final List<Thread> threads;
+    private volatile boolean running = true;
+
+    /***
+     * @param name the name of the threads of the stages, e.g. the consumer name
+     * @param bufferSize the capacity of the buffer in front of each stage
+     * @param meterRegistry where to publish the queue depths, <code>null</code> for none
+     * @param tags the tags of the queue depths
+     */
+    public StagedPipeline(String name, int bufferSize, RingBuffer.WaitStrategy waitStrategy, MeterRegistry meterRegistry, Tags tags) {
+        this.decodeBuffer = new RingBuffer<>(bufferSize, Work::new, waitStrategy);
+        this.writeBuffer = new RingBuffer<>(bufferSize, Work::new, waitStrategy);
+        this.acknowledgeBuffer = new RingBuffer<>(bufferSize, Work::new, waitStrategy);
+        if (meterRegistry != null) {
+            register(meterRegistry, tags, "decode", decodeBuffer);
+            register(meterRegistry, tags, "write", writeBuffer);
+            register(meterRegistry, tags, "acknowledge", acknowledgeBuffer);
+        }
+        this.threads = List.of(
+                start("wb-decode-" + name, this::decode),
+                start("wb-write-" + name, this::write),
+                start("wb-ack-" + name, this::acknowledge));
+    }
+
+    private static void register(MeterRegistry meterRegistry, Tags tags, String stage, RingBuffer<?> buffer) {
+        Gauge.builder("wb.pipeline.queue.depth", buffer, RingBuffer::size).tags(tags.and("stage", stage)).register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    private Thread start(String name, Stage stage) {
+        Thread thread = new Thread(() -> {
+            while (running) {
+                try {
+                    stage.run();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.error("Error in stage {}", name, e);
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /***
+     * Hands the record over to the decode stage, waiting while its buffer is full.
+     * @return completed once the record has been acknowledged
+     */
+    public CompletableFuture<Void> submit(MapRecord<String, String, String> record, Processor<T, R> processor) throws InterruptedException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        decodeBuffer.claim().set(record, processor, null, future, null);
+        decodeBuffer.publish();
+        return future;
+    }
+
+    /***
+     * Hands the view over to the decode stage, which decodes its entity without building it again.
+     * @return completed once the record has been acknowledged
+     */
+    public CompletableFuture<Void> submit(RecordView<T> view, Processor<T, R> processor) throws InterruptedException {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        decodeBuffer.claim().set(view.getRecord(), processor, view, future, null);
+        decodeBuffer.publish();
+        return future;
+    }
+
+    private void decode() throws InterruptedException {
+        Work<T, R> work = decodeBuffer.take();
+        MapRecord<String, String, String> record = work.record;
+        Processor<T, R> processor = work.processor;
+        RecordView<T> view = work.view;
+        CompletableFuture<Void> future = work.future;
+        work.set(null, null, null, null, null);
+        decodeBuffer.release();
+
+        Throwable failure = null;
+        if (view == null && processor instanceof AbstractProcessor<T, R> abstractProcessor) {
+            view = abstractProcessor.view(record);
+        }
+        if (view != null) {
+            try {
+                view.getEntity();
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        writeBuffer.claim().set(record, processor, view, future, failure);
+        writeBuffer.publish();
+    }
+
+    private void write() throws InterruptedException {
+        Work<T, R> work = writeBuffer.take();
+        MapRecord<String, String, String> record = work.record;
+        Processor<T, R> processor = work.processor;
+        RecordView<T> view = work.view;
+        CompletableFuture<Void> future = work.future;
+        Throwable failure = work.failure;
+        work.set(null, null, null, null, null);
+        writeBuffer.release();
+
+        if (failure == null) {
+            try {
+                if (view != null) {
+                    processor.process(view);
+                } else {
+                    processor.process(record);
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+        acknowledgeBuffer.claim().set(record, processor, null, future, failure);
+        acknowledgeBuffer.publish();
+    }
+
+    private void acknowledge() throws InterruptedException {
+        Work<T, R> work = acknowledgeBuffer.take();
+        MapRecord<String, String, String> record = work.record;
+        Processor<T, R> processor = work.processor;
+        CompletableFuture<Void> future = work.future;
+        Throwable failure = work.failure;
+        work.set(null, null, null, null, null);
+        acknowledgeBuffer.release();
+
+        if (failure != null) {
+            future.completeExceptionally(failure);
+            return;
+        }
+        try {
+            processor.acknowledge(record);
+            future.complete(null);
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /***
+     * Stops the stages: the records still in the buffers are not acknowledged, and stay pending for retry.
+     */
+    public void stop() {
+        running = false;
+        threads.forEach(Thread::interrupt);
+    }
+}
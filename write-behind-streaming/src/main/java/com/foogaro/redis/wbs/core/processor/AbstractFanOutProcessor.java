@@ -0,0 +1,218 @@
+package com.foogaro.redis.wbs.core.processor;
+
+import com.foogaro.redis.wbs.core.exception.AcknowledgeMessageException;
+import com.foogaro.redis.wbs.core.exception.ProcessMessageException;
+import com.foogaro.redis.wbs.core.fanout.FanOut;
+import com.foogaro.redis.wbs.core.fanout.FanOutProgress;
+import com.foogaro.redis.wbs.core.fanout.FanOutSink;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.repository.Repository;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.foogaro.redis.wbs.core.Misc.getConsumerGroup;
+
+/***
+ * Processor of an entity annotated with {@code @WriteBehind(fanOut = true)}, handing each record over to one
+ * {@link FanOutSink} per repository; retries skip the sinks which already applied the record, as kept by {@link FanOutProgress}.
+ */
+public abstract class AbstractFanOutProcessor<T> extends AbstractProcessor<T, FanOut> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Value("${wb.stream.fanout.queue-capacity:1024}")
+    private int queueCapacity;
+    @Value("${wb.stream.fanout.progress-ttl:86400000}")
+    private long progressTtl;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private List<FanOutSink<T>> sinks;
+    private FanOutProgress progress;
+    private final Map<RecordId, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    public abstract List<Processor<T, ?>> getSinkProcessors();
+
+    protected AbstractFanOutProcessor(Class<T> entityClass) {
+        super(entityClass, FanOut.class);
+    }
+
+    protected FanOutProgress createProgress() {
+        return new FanOutProgress(getRedisTemplate(), Duration.ofMillis(progressTtl));
+    }
+
+    @PostConstruct
+    private void initSinks() {
+        progress = createProgress();
+        sinks = getSinkProcessors().stream()
+                .map(processor -> new FanOutSink<T>(processor, queueCapacity))
+                .toList();
+        if (meterRegistry != null) {
+            sinks.forEach(sink -> {
+                Tags tags = Tags.of("entity", getEntityClass().getSimpleName().toLowerCase(), "sink", sink.getName());
+                Gauge.builder("wb.fanout.sink.backlog", sink, FanOutSink::getBacklog).tags(tags).register(meterRegistry);
+                FunctionCounter.builder("wb.fanout.sink.applied", sink, FanOutSink::getApplied).tags(tags).register(meterRegistry);
+                FunctionCounter.builder("wb.fanout.sink.failed", sink, FanOutSink::getFailed).tags(tags).register(meterRegistry);
+            });
+        }
+        logger.info("Fan-out of entity {} to sinks {}", getEntityClass().getSimpleName(), sinks.stream().map(FanOutSink::getName).toList());
+    }
+
+    @PreDestroy
+    private void shutdownSinks() {
+        sinks.forEach(FanOutSink::shutdown);
+    }
+
+    public List<FanOutSink<T>> getSinks() {
+        return sinks;
+    }
+
+    @Override
+    public List<Repository<T, ?>> getRepositories() {
+        return sinks.stream()
+                .flatMap(sink -> sink.getProcessor().getRepositories().stream())
+                .toList();
+    }
+
+    /***
+     * Dispatches the record to the sinks without waiting for them.
+     * A record which is already being dispatched is not dispatched twice: the same future is returned.
+     */
+    public CompletableFuture<Void> dispatch(final MapRecord<String, String, String> record) {
+        return dispatch(view(record));
+    }
+
+    public CompletableFuture<Void> dispatch(final MapRecord<String, String, String> record, final T entity) {
+        return dispatch(RecordView.of(record, entity, this::readEntityId));
+    }
+
+    public CompletableFuture<Void> dispatch(final RecordView<T> view) {
+        MapRecord<String, String, String> record = view.getRecord();
+        CompletableFuture<Void> promise = new CompletableFuture<>();
+        CompletableFuture<Void> existing = inFlight.putIfAbsent(record.getId(), promise);
+        if (existing != null) {
+            return existing;
+        }
+
+        Set<String> applied = getApplied(record);
+        CompletableFuture<?>[] futures = sinks.stream()
+                .filter(sink -> !applied.contains(sink.getName()))
+                .map(sink -> submit(sink, view).thenRun(() -> applied(record, sink)))
+                .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(futures).whenComplete((v, e) -> {
+            inFlight.remove(record.getId(), promise);
+            if (e == null) {
+                promise.complete(null);
+            } else {
+                promise.completeExceptionally(e);
+            }
+        });
+        return promise;
+    }
+
+    /***
+     * @return the sinks which applied the record, none if they can't be read, as applying a record again is harmless.
+     */
+    private Set<String> getApplied(final MapRecord<String, String, String> record) {
+        try {
+            return progress.getApplied(record);
+        } catch (Exception e) {
+            logger.warn("Error reading the sinks which applied message: {} - {}", record.getId(), e.getMessage());
+            return Set.of();
+        }
+    }
+
+    private void applied(final MapRecord<String, String, String> record, final FanOutSink<T> sink) {
+        try {
+            progress.applied(record, sink.getName());
+        } catch (Exception e) {
+            logger.warn("Error recording message: {} as applied by sink {} - {}", record.getId(), sink.getName(), e.getMessage());
+        }
+    }
+
+    /***
+     * @return the future of the sink, or a failed one if the sink rejected the record, e.g. with its queue full,
+     * so that the promise of the record is completed either way.
+     */
+    private CompletableFuture<Void> submit(final FanOutSink<T> sink, final RecordView<T> view) {
+        try {
+            return sink.submit(view);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public void process(final MapRecord<String, String, String> record) throws ProcessMessageException {
+        await(record, dispatch(record));
+    }
+
+    @Override
+    public void process(final MapRecord<String, String, String> record, final T entity) throws ProcessMessageException {
+        await(record, dispatch(record, entity));
+    }
+
+    @Override
+    public void process(final RecordView<T> view) throws ProcessMessageException {
+        await(view.getRecord(), dispatch(view));
+    }
+
+    private void await(final MapRecord<String, String, String> record, final CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            logger.error("Error processing message: {} - {}", record.getId(), e.getCause().getMessage());
+            throw new RuntimeException(new ProcessMessageException(e.getCause()));
+        }
+    }
+
+    @Override
+    public void acknowledge(final MapRecord<String, String, String> record) throws AcknowledgeMessageException {
+        try {
+            getRedisTemplate().opsForStream().acknowledge(getConsumerGroup(getRepositoryClass()), record);
+            notifyAcknowledged(getConsumerGroup(getRepositoryClass()), record);
+            logger.debug("Acknowledged message: {} for group: {}", record.getId(), getConsumerGroup(getRepositoryClass()));
+        } catch (Exception e) {
+            logger.error("Error acknowledging message: {}", record.getId(), e);
+            throw new RuntimeException(new AcknowledgeMessageException(e));
+        }
+        clearApplied(record);
+    }
+
+    /***
+     * Forgets the sinks which applied the record, as it won't be retried.
+     */
+    @Override
+    public void discard(final MapRecord<String, String, String> record) {
+        inFlight.remove(record.getId());
+        clearApplied(record);
+    }
+
+    private void clearApplied(final MapRecord<String, String, String> record) {
+        try {
+            progress.clear(record);
+        } catch (Exception e) {
+            logger.warn("Error clearing the sinks which applied message: {} - {}", record.getId(), e.getMessage());
+        }
+    }
+
+}
@@ -1,10 +1,18 @@
 package com.foogaro.redis.wbs.core.processor;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.foogaro.redis.wbs.core.Misc;
+import com.foogaro.redis.wbs.core.annotation.WriteBehind;
 import com.foogaro.redis.wbs.core.exception.AcknowledgeMessageException;
 import com.foogaro.redis.wbs.core.exception.ProcessMessageException;
+import com.foogaro.redis.wbs.core.jdbc.JdbcBatchSink;
+import com.foogaro.redis.wbs.core.jdbc.OffsetCheckpoint;
+import com.foogaro.redis.wbs.core.ratelimit.WriteRateLimiter;
+import com.foogaro.redis.wbs.core.service.LastAppliedIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,8 +21,15 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.Repository;
 
+import java.io.IOException;
+import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import static com.foogaro.redis.wbs.core.Misc.*;
 
@@ -28,6 +43,21 @@ public abstract class AbstractProcessor<T, R> implements Processor<T, R> {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired(required = false)
+    private List<AcknowledgeListener> acknowledgeListeners = List.of();
+
+    @Autowired(required = false)
+    private LastAppliedIndex lastAppliedIndex;
+
+    @Autowired(required = false)
+    private WriteRateLimiter writeRateLimiter;
+
+    @Autowired(required = false)
+    private OffsetCheckpoint offsetCheckpoint;
+
+    @Autowired(required = false)
+    private LazyAcknowledger lazyAcknowledger;
+
     @Override
     public RedisTemplate<String, String> getRedisTemplate() {
         return redisTemplate;
@@ -38,10 +68,28 @@ public abstract class AbstractProcessor<T, R> implements Processor<T, R> {
         return objectMapper;
     }
 
+    protected void notifyAcknowledged(final String group, final MapRecord<String, String, String> record) {
+        for (AcknowledgeListener listener : acknowledgeListeners) {
+            try {
+                listener.acknowledged(getEntityClass(), group, record);
+            } catch (Exception e) {
+                logger.warn("Error notifying acknowledgement of message: {} to {} - {}", record.getId(), listener.getClass().getSimpleName(), e.getMessage());
+            }
+        }
+    }
+
     protected final MapRecord<String, String, String> record;
     protected int priority;
     private Class<T> entityClass;
     private Class<R> repositoryClass;
+    private Class<?> idType;
+    private volatile Optional<JdbcBatchSink<T>> jdbcBatchSink;
+    private volatile List<Repository<T, ?>> repositories;
+    private volatile ObjectReader entityReader;
+    private volatile Optional<String> idField;
+    private final RecordView.Decoder<T> decoder = this::convertToEntity;
+    private final Function<String, String> idReader = this::readEntityId;
+    private final BiConsumer<String, MapRecord<String, String, String>> acknowledged = this::notifyAcknowledged;
 
     @SuppressWarnings("unchecked")
     protected AbstractProcessor() {
@@ -66,9 +114,148 @@ public abstract class AbstractProcessor<T, R> implements Processor<T, R> {
         this.repositoryClass = (Class<R>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[1];
     }
 
+    protected AbstractProcessor(Class<T> entityClass, Class<R> repositoryClass) {
+        this(entityClass, repositoryClass, null);
+    }
+
+    /***
+     * @param idType the type of the ID of the entity, <code>null</code> to resolve it from the repository at runtime
+     */
+    protected AbstractProcessor(Class<T> entityClass, Class<R> repositoryClass, Class<?> idType) {
+        this.record = null;
+        this.priority = WriteBehind.DEFAULT_PRIORITY;
+        this.entityClass = entityClass;
+        this.repositoryClass = repositoryClass;
+        this.idType = idType;
+    }
+
+    /***
+     * Decodes the content through an {@link ObjectReader} of the entity class, built once,
+     * which skips resolving the type on every record; Jackson recycles its parsing buffers per thread.
+     */
     public T convertToEntity(String content) throws JsonProcessingException {
-        return getObjectMapper().readValue(content, getEntityClass());
+        ObjectReader reader = entityReader;
+        if (reader == null) {
+            entityReader = reader = getObjectMapper().readerFor(getEntityClass());
+        }
+        return reader.readValue(content);
+    }
+
+    /***
+     * Decodes the payload of the record.
+     * @return the entity, or <code>null</code> for delete operations, whose content is the ID.
+     */
+    protected T decode(final MapRecord<String, String, String> record) throws JsonProcessingException {
+        return isDeleteOperation(record) ? null : convertToEntity(record.getValue().get(EVENT_CONTENT_KEY));
+    }
+
+    protected boolean isDeleteOperation(final MapRecord<String, String, String> record) {
+        return Misc.Operation.DELETE.getValue().equals(record.getValue().get(EVENT_OPERATION_KEY));
+    }
+
+    /***
+     * @return a view of the record decoding its content lazily, once.
+     */
+    public RecordView<T> view(final MapRecord<String, String, String> record) {
+        return new RecordView<>(record, decoder, idReader);
+    }
+
+    /***
+     * @return the ID of the entity of the record, i.e. the {@code id} field of the event, the content of a delete,
+     * or the ID property read from the content, <code>null</code> if the event doesn't carry it.
+     */
+    protected String getEntityId(final MapRecord<String, String, String> record) {
+        return view(record).getId();
+    }
+
+    /***
+     * Reads the value of the {@link #getIdField() ID field} from the top level of the JSON content,
+     * with a streaming parser which skips the other values without decoding them.
+     * @return the ID, or <code>null</code> if the content has none
+     */
+    protected String readEntityId(final String content) {
+        String field = getIdField().orElse(null);
+        if (field == null || content == null) return null;
+        try (JsonParser parser = getObjectMapper().getFactory().createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals(name)) {
+                    return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            logger.debug("Error reading the ID of content: {} - {}", content, e.getMessage());
+        }
+        return null;
+    }
+
+    /***
+     * @return the name of the ID property of the entity, i.e. the field annotated with a JPA or Spring Data {@code @Id},
+     * or else the field named {@code id}, if any.
+     */
+    protected Optional<String> getIdField() {
+        if (idField == null) {
+            idField = Misc.getIdField(getEntityClass()).map(Field::getName);
+        }
+        return idField;
+    }
+
+    /***
+     * @return <code>true</code> if an event of the same entity as new as the record, or newer, was already applied,
+     * in which case the record must not be written.
+     */
+    protected boolean isStale(final MapRecord<String, String, String> record) {
+        return isStale(view(record));
+    }
+
+    protected boolean isStale(final RecordView<T> view) {
+        MapRecord<String, String, String> record = view.getRecord();
+        if (lastAppliedIndex == null) return false;
+        String id = view.getId();
+        if (id == null) return false;
+        try {
+            if (lastAppliedIndex.isStale(getEntityClass(), getConsumerGroup(repositoryClass), id, record.getId())) {
+                logger.debug("Skipping stale message: {} for {} {}", record.getId(), getEntityClass().getSimpleName(), id);
+                return true;
+            }
+        } catch (Exception e) {
+            logger.warn("Error checking whether message: {} is stale - {}", record.getId(), e.getMessage());
+        }
+        return false;
+    }
+
+    protected void markApplied(final MapRecord<String, String, String> record) {
+        markApplied(view(record));
+    }
+
+    protected void markApplied(final RecordView<T> view) {
+        MapRecord<String, String, String> record = view.getRecord();
+        if (lastAppliedIndex == null) return;
+        String id = view.getId();
+        if (id == null) return;
+        try {
+            lastAppliedIndex.applied(getEntityClass(), getConsumerGroup(repositoryClass), id, record.getId());
+        } catch (Exception e) {
+            logger.warn("Error recording message: {} as applied - {}", record.getId(), e.getMessage());
+        }
+    }
+
+    /***
+     * Waits for the {@link WriteRateLimiter} to allow a transaction of the given number of writes.
+     */
+    protected WriteRateLimiter.Permit acquireWrites(final int writes) {
+        if (writeRateLimiter == null) return WriteRateLimiter.Permit.NONE;
+        try {
+            return writeRateLimiter.acquire(getRepositoryClass(), writes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(new ProcessMessageException(e));
+        }
     }
+
     public MapRecord<String, String, String> getRecord() {
         return record;
     }
@@ -88,49 +275,191 @@ public abstract class AbstractProcessor<T, R> implements Processor<T, R> {
         return repositoryClass;
     }
 
+    public Class<?> getIdType() {
+        return idType;
+    }
+
+    /***
+     * @return the repositories of the processor, looked up once in the bean factory, as repositories are singletons.
+     */
     public List<Repository<T, ?>> getRepositories() {
-        return getRepositoryFinder().findRepositoriesForEntity(getEntityClass(), getRepositoryClass());
+        List<Repository<T, ?>> found = repositories;
+        if (found == null) {
+            repositories = found = List.copyOf(getRepositoryFinder().findRepositoriesForEntity(getEntityClass(), getRepositoryClass()));
+        }
+        return found;
+    }
+
+    /***
+     * @return the {@link JdbcBatchSink} replacing the writes of the repository, if one is declared.
+     */
+    public Optional<JdbcBatchSink<T>> getJdbcBatchSink() {
+        if (jdbcBatchSink == null) {
+            jdbcBatchSink = getRepositoryFinder().findJdbcBatchSink(getEntityClass(), getRepositoryClass());
+        }
+        return jdbcBatchSink;
     }
 
     public void process(final MapRecord<String, String, String> record) throws ProcessMessageException {
+        process(view(record));
+    }
+
+    public void process(final MapRecord<String, String, String> record, final T entity) throws ProcessMessageException {
+        process(RecordView.of(record, entity, idReader));
+    }
+
+    /***
+     * Writes the record to all the repositories, unless it is stale, decoding the entity only then, once for all of them.
+     */
+    public void process(final RecordView<T> view) throws ProcessMessageException {
+        if (isStale(view)) return;
+        MapRecord<String, String, String> record = view.getRecord();
+
+        Optional<JdbcBatchSink<T>> sink = getJdbcBatchSink();
+        if (sink.isPresent()) {
+            write(sink.get(), List.of(view));
+            return;
+        }
+
         List<Repository<T, ?>> repositories = getRepositories();
 
-        repositories.forEach(repo -> {
+        WriteRateLimiter.Permit permit = acquireWrites(repositories.size());
+        try {
+            if (offsetCheckpoint == null) {
+                save(repositories, view);
+            } else if (checkpointed(List.of(view), fresh -> save(repositories, view)).isEmpty()) {
+                return;
+            }
+        } finally {
+            permit.close();
+        }
+        markApplied(view);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Processed message: {} on {} repositories", record.getId(), repositories.size());
+        }
+    }
+
+    private void save(final List<Repository<T, ?>> repositories, final RecordView<T> view) {
+        MapRecord<String, String, String> record = view.getRecord();
+        boolean delete = view.isDelete();
+        for (Repository<T, ?> repo : repositories) {
             try {
-                String content = record.getValue().get(EVENT_CONTENT_KEY);
-                logger.debug("Processing message: {}", record.getId());
-                if (Misc.Operation.DELETE.getValue().equals(record.getValue().get(EVENT_OPERATION_KEY))) {
-                    logger.trace("Deleting message: {}", record.getId());
-                    getRepositoryFinder().executeIdOperation(repo, content, CrudRepository::deleteById);
-                    logger.trace("Deleted message: {}", record.getId());
+                if (delete) {
+                    getRepositoryFinder().executeIdOperation(repo, getIdType(), record.getValue().get(EVENT_CONTENT_KEY), CrudRepository::deleteById);
                 } else {
-                    logger.trace("Saving message: {}", record.getId());
-                    getRepositoryFinder().executeOperation(repo, convertToEntity(content), CrudRepository::save);
-                    logger.trace("Saved message: {}", record.getId());
+                    getRepositoryFinder().executeOperation(repo, view.getEntity(), CrudRepository::save);
                 }
-                logger.info("Processed message: {}", record.getId());
             } catch (Exception e) {
                 logger.error("Error processing message: {}", record.getId(), e);
                 throw new RuntimeException(new ProcessMessageException(e));
             }
-        });
+        }
     }
 
-    public void acknowledge(final MapRecord<String, String, String> record) throws AcknowledgeMessageException {
+    /***
+     * Writes the records not applied yet in one transaction with their {@link OffsetCheckpoint}.
+     * @return the records written
+     */
+    private List<RecordView<T>> checkpointed(final List<RecordView<T>> views, final Consumer<List<RecordView<T>>> writes) {
+        try {
+            return offsetCheckpoint.write(getConsumerGroup(repositoryClass), views, RecordView::getId,
+                    view -> view.getRecord().getId(), RecordView::isDelete, writes);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof ProcessMessageException) throw e;
+            logger.error("Error checkpointing {} messages from: {}", views.size(), views.get(0).getRecord().getId(), e);
+            throw new RuntimeException(new ProcessMessageException(e));
+        }
+    }
 
-        List<Repository<T, ?>> repositories = getRepositories();
+    /***
+     * Processes the records in stream order. With a {@link JdbcBatchSink}, consecutive saves
+     * and consecutive deletes are each written as a single JDBC batch, otherwise records are processed one by one.
+     */
+    public void process(final List<MapRecord<String, String, String>> records) throws ProcessMessageException {
+        Optional<JdbcBatchSink<T>> sink = getJdbcBatchSink();
+        if (sink.isEmpty()) {
+            for (MapRecord<String, String, String> record : records) {
+                process(record);
+            }
+            return;
+        }
 
-        repositories.forEach(repo -> {
+        List<RecordView<T>> run = new ArrayList<>();
+        boolean deleting = false;
+        for (MapRecord<String, String, String> record : records) {
+            RecordView<T> view = view(record);
+            if (isStale(view)) continue;
+            if (!run.isEmpty() && view.isDelete() != deleting) {
+                write(sink.get(), run);
+                run.clear();
+            }
+            deleting = view.isDelete();
+            run.add(view);
+        }
+        if (!run.isEmpty()) {
+            write(sink.get(), run);
+        }
+    }
+
+    /***
+     * Writes a run of saves, or of deletes, as a single JDBC batch.
+     */
+    private void write(JdbcBatchSink<T> sink, List<RecordView<T>> views) {
+        MapRecord<String, String, String> first = views.get(0).getRecord();
+        WriteRateLimiter.Permit permit = acquireWrites(views.size());
+        try {
+            List<RecordView<T>> written = views;
+            if (offsetCheckpoint == null) {
+                writeBatch(sink, views);
+            } else {
+                written = checkpointed(views, fresh -> writeBatch(sink, fresh));
+            }
+            written.forEach(this::markApplied);
+            logger.debug("Processed {} messages up to: {}", written.size(), views.get(views.size() - 1).getRecord().getId());
+        } catch (Exception e) {
+            logger.error("Error processing {} messages from: {}", views.size(), first.getId(), e);
+            throw new RuntimeException(new ProcessMessageException(e));
+        } finally {
+            permit.close();
+        }
+    }
+
+    private void writeBatch(JdbcBatchSink<T> sink, List<RecordView<T>> views) {
+        if (views.get(0).isDelete()) {
+            sink.delete(views.stream().map(view -> view.getRecord().getValue().get(EVENT_CONTENT_KEY)).toList());
+        } else {
+            List<T> entities = new ArrayList<>(views.size());
             try {
-                logger.debug("Acknowledging message: {}", record.getId());
-                getRedisTemplate().opsForStream().acknowledge(getConsumerGroup(repositoryClass), record);
-                logger.debug("Acknowledged message: {} for group: {}", record.getId(), getConsumerGroup(repositoryClass));
-            } catch (Exception e) {
-                logger.error("Error acknowledging message: {}", record.getId(), e);
-                // will be picked up by the processPendingMessages method
-                throw new RuntimeException(new AcknowledgeMessageException(e));
+                for (RecordView<T> view : views) {
+                    entities.add(view.getEntity());
+                }
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(new ProcessMessageException(e));
             }
-        });
+            sink.upsert(entities);
+        }
+    }
+
+    /***
+     * Acknowledges the record once for the consumer group, which all the repositories of the processor share.
+     * Under an {@link OffsetCheckpoint}, the record is acknowledged later, in a batch, by the {@link LazyAcknowledger}.
+     */
+    public void acknowledge(final MapRecord<String, String, String> record) throws AcknowledgeMessageException {
+        if (getRepositories().isEmpty()) return;
+        String group = getConsumerGroup(repositoryClass);
+        if (lazyAcknowledger != null && offsetCheckpoint != null) {
+            lazyAcknowledger.acknowledge(group, record, acknowledged);
+            return;
+        }
+        try {
+            getRedisTemplate().opsForStream().acknowledge(group, record);
+            notifyAcknowledged(group, record);
+            logger.debug("Acknowledged message: {} for group: {}", record.getId(), group);
+        } catch (Exception e) {
+            logger.error("Error acknowledging message: {}", record.getId(), e);
+            // will be picked up by the processPendingMessages method
+            throw new RuntimeException(new AcknowledgeMessageException(e));
+        }
     }
 
 }
@@ -0,0 +1,13 @@
+package com.foogaro.redis.wbs.core.processor;
+
+import org.springframework.data.redis.connection.stream.MapRecord;
+
+/***
+ * Callback of the beans that need to know when a record has been persisted and acknowledged by a consumer group.
+ * Beans implementing it are notified by the processors right after the XACK.
+ */
+public interface AcknowledgeListener {
+
+    void acknowledged(Class<?> entityClass, String group, MapRecord<String, String, String> record);
+
+}
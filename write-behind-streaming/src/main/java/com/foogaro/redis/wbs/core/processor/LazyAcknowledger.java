@@ -0,0 +1,151 @@
+package com.foogaro.redis.wbs.core.processor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/***
+ * Acknowledges the records applied under an {@link com.foogaro.redis.wbs.core.jdbc.OffsetCheckpoint} in batches,
+ * with one <code>XACK</code> per stream and group in a single pipeline, notifying the acknowledge listeners once flushed.
+ */
+public class LazyAcknowledger implements InitializingBean, DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private record Entry(String group, MapRecord<String, String, String> record,
+                         BiConsumer<String, MapRecord<String, String, String>> acknowledged) {
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration interval;
+    private final int batchSize;
+    private final MeterRegistry meterRegistry;
+    private final Object lock = new Object();
+    private List<Entry> buffer = new ArrayList<>();
+    private final Counter acknowledged;
+    private final Counter flushes;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wb-ack");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param interval how often the buffered records are acknowledged
+     * @param batchSize the number of buffered records acknowledged right away
+     * @param meterRegistry where to publish the buffered and acknowledged records, <code>null</code> for none
+     */
+    public LazyAcknowledger(RedisConnectionFactory connectionFactory, Duration interval, int batchSize, MeterRegistry meterRegistry) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.interval = interval;
+        this.batchSize = Math.max(1, batchSize);
+        this.meterRegistry = meterRegistry;
+        if (meterRegistry != null) {
+            this.acknowledged = Counter.builder("wb.ack.acknowledged").register(meterRegistry);
+            this.flushes = Counter.builder("wb.ack.flushes").register(meterRegistry);
+        } else {
+            this.acknowledged = null;
+            this.flushes = null;
+        }
+    }
+
+    /***
+     * Publishes the buffered records and starts flushing them every interval, once constructed.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (meterRegistry != null) {
+            Gauge.builder("wb.ack.buffered", this, LazyAcknowledger::getBuffered).register(meterRegistry);
+        }
+        scheduler.scheduleWithFixedDelay(this::flush, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /***
+     * Buffers the record, to be acknowledged for the group with the next flush.
+     * @param acknowledged notified once the record is acknowledged
+     */
+    public void acknowledge(String group, MapRecord<String, String, String> record,
+                            BiConsumer<String, MapRecord<String, String, String>> acknowledged) {
+        boolean full;
+        synchronized (lock) {
+            buffer.add(new Entry(group, record, acknowledged));
+            full = buffer.size() >= batchSize;
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    public int getBuffered() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    /***
+     * Acknowledges the buffered records. If it fails, they are left pending, and skipped when retried.
+     */
+    public void flush() {
+        List<Entry> batch;
+        synchronized (lock) {
+            if (buffer.isEmpty()) return;
+            batch = buffer;
+            buffer = new ArrayList<>();
+        }
+        Map<String, List<Entry>> byStream = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            byStream.computeIfAbsent(entry.record().getStream() + '\n' + entry.group(), key -> new ArrayList<>()).add(entry);
+        }
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (List<Entry> entries : byStream.values()) {
+                    Entry first = entries.get(0);
+                    connection.streamCommands().xAck(RedisSerializer.string().serialize(first.record().getStream()), first.group(),
+                            entries.stream().map(entry -> entry.record().getId()).toArray(RecordId[]::new));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            logger.warn("Error acknowledging {} messages, left pending - {}", batch.size(), e.getMessage());
+            return;
+        }
+        if (acknowledged != null) {
+            acknowledged.increment(batch.size());
+            flushes.increment();
+        }
+        logger.debug("Acknowledged {} messages on {} streams", batch.size(), byStream.size());
+        for (Entry entry : batch) {
+            try {
+                entry.acknowledged().accept(entry.group(), entry.record());
+            } catch (Exception e) {
+                logger.warn("Error notifying acknowledgement of message: {} - {}", entry.record().getId(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        flush();
+    }
+}
@@ -24,6 +24,15 @@ public interface Processor<T, R> {
     Class<R> getRepositoryClass();
     List<Repository<T, ?>> getRepositories();
     void process(final MapRecord<String, String, String> record) throws ProcessMessageException;
+    void process(final MapRecord<String, String, String> record, final T entity) throws ProcessMessageException;
+    void process(final RecordView<T> view) throws ProcessMessageException;
+    void process(final List<MapRecord<String, String, String>> records) throws ProcessMessageException;
     void acknowledge(final MapRecord<String, String, String> record) throws AcknowledgeMessageException;
 
+    /***
+     * Called once the record has been moved to the dead letter queue, to release what is kept for its retries.
+     */
+    default void discard(final MapRecord<String, String, String> record) {
+    }
+
 }
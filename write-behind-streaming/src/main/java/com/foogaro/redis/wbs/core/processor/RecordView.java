@@ -0,0 +1,82 @@
+package com.foogaro.redis.wbs.core.processor;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.foogaro.redis.wbs.core.Misc;
+import org.springframework.data.redis.connection.stream.MapRecord;
+
+import java.util.function.Function;
+
+import static com.foogaro.redis.wbs.core.Misc.*;
+
+/***
+ * A record as seen by the processors, reading the ID of the entity without decoding the content,
+ * which is decoded only when a repository actually writes the entity, and then once for all of them.
+ */
+public class RecordView<T> {
+
+    @FunctionalInterface
+    public interface Decoder<T> {
+        T decode(String content) throws JsonProcessingException;
+    }
+
+    private final MapRecord<String, String, String> record;
+    private final Decoder<T> decoder;
+    private final Function<String, String> idReader;
+    private boolean decoded;
+    private T entity;
+    private boolean idResolved;
+    private String id;
+
+    /***
+     * @param decoder decodes the content into the entity
+     * @param idReader reads the ID of the entity from the content, returning <code>null</code> if missing
+     */
+    public RecordView(MapRecord<String, String, String> record, Decoder<T> decoder, Function<String, String> idReader) {
+        this.record = record;
+        this.decoder = decoder;
+        this.idReader = idReader;
+    }
+
+    /***
+     * A view of a record whose entity was already decoded, or <code>null</code> for deletes.
+     */
+    public static <T> RecordView<T> of(MapRecord<String, String, String> record, T entity, Function<String, String> idReader) {
+        RecordView<T> view = new RecordView<>(record, content -> entity, idReader);
+        view.decoded = true;
+        view.entity = entity;
+        return view;
+    }
+
+    public MapRecord<String, String, String> getRecord() {
+        return record;
+    }
+
+    public boolean isDelete() {
+        return Misc.Operation.DELETE.getValue().equals(record.getValue().get(EVENT_OPERATION_KEY));
+    }
+
+    /***
+     * @return the ID of the entity, <code>null</code> if the event doesn't carry it.
+     */
+    public synchronized String getId() {
+        if (!idResolved) {
+            id = Misc.getEntityId(record);
+            if (id == null) {
+                id = idReader.apply(record.getValue().get(EVENT_CONTENT_KEY));
+            }
+            idResolved = true;
+        }
+        return id;
+    }
+
+    /***
+     * @return the entity, decoded on the first call, or <code>null</code> for deletes, whose content is the ID.
+     */
+    public synchronized T getEntity() throws JsonProcessingException {
+        if (!decoded) {
+            entity = isDelete() ? null : decoder.decode(record.getValue().get(EVENT_CONTENT_KEY));
+            decoded = true;
+        }
+        return entity;
+    }
+}
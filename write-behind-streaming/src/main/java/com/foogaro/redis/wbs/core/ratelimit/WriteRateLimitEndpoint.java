@@ -0,0 +1,33 @@
+package com.foogaro.redis.wbs.core.ratelimit;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import java.util.Map;
+
+/***
+ * Actuator endpoint <code>writelimits</code> listing the write rate limits and changing them at runtime,
+ * e.g. <code>POST /actuator/writelimits/default</code> with <code>{"writesPerSecond": 200, "maxInFlight": 4}</code>.
+ */
+@Endpoint(id = "writelimits")
+public class WriteRateLimitEndpoint {
+
+    private final WriteRateLimiter writeRateLimiter;
+
+    public WriteRateLimitEndpoint(WriteRateLimiter writeRateLimiter) {
+        this.writeRateLimiter = writeRateLimiter;
+    }
+
+    @ReadOperation
+    public Map<String, WriteRateLimiter.Limit> limits() {
+        return writeRateLimiter.getLimits();
+    }
+
+    @WriteOperation
+    public WriteRateLimiter.Limit update(@Selector String name, @Nullable Double writesPerSecond, @Nullable Integer maxInFlight) {
+        return writeRateLimiter.setLimit(name, writesPerSecond, maxInFlight);
+    }
+}
@@ -0,0 +1,176 @@
+package com.foogaro.redis.wbs.core.ratelimit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Limits the writes to the database with a token bucket of writes per second and a maximum number of transactions
+ * in flight, shared by default and per repository, blocking the threads writing past the limit.
+ */
+public class WriteRateLimiter {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    public static final String DEFAULT_LIMIT = "default";
+    private static final String PROPERTY_PREFIX = "wb.stream.rate-limit.";
+
+    /***
+     * A transaction allowed by the limiter, to be closed once written.
+     */
+    public interface Permit extends AutoCloseable {
+
+        Permit NONE = () -> {};
+
+        @Override
+        void close();
+    }
+
+    public record Limit(double writesPerSecond, int maxInFlight, int inFlight) {
+    }
+
+    private final Environment environment;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<Class<?>, String> names = new ConcurrentHashMap<>();
+
+    public WriteRateLimiter(Environment environment, MeterRegistry meterRegistry) {
+        this.environment = environment;
+        this.meterRegistry = meterRegistry;
+        buckets.put(DEFAULT_LIMIT, newBucket(DEFAULT_LIMIT, PROPERTY_PREFIX));
+    }
+
+    /***
+     * Waits until the repository may start a transaction of the given number of writes.
+     */
+    public Permit acquire(Class<?> repositoryClass, int writes) throws InterruptedException {
+        String name = names.computeIfAbsent(repositoryClass, this::register);
+        Bucket bucket = buckets.getOrDefault(name, buckets.get(DEFAULT_LIMIT));
+        return bucket.acquire(writes);
+    }
+
+    public Map<String, Limit> getLimits() {
+        Map<String, Limit> limits = new TreeMap<>();
+        buckets.forEach((name, bucket) -> limits.put(name, bucket.getLimit()));
+        return limits;
+    }
+
+    /***
+     * Changes the limit of a repository, or the {@value #DEFAULT_LIMIT} one, keeping the values passed as <code>null</code>.
+     */
+    public Limit setLimit(String name, Double writesPerSecond, Integer maxInFlight) {
+        Bucket bucket = buckets.computeIfAbsent(name.toLowerCase(), key -> {
+            Limit shared = buckets.get(DEFAULT_LIMIT).getLimit();
+            return new Bucket(key, shared.writesPerSecond(), shared.maxInFlight());
+        });
+        bucket.setLimit(writesPerSecond, maxInFlight);
+        Limit limit = bucket.getLimit();
+        logger.info("Write rate limit {} set to {} writes per second, {} transactions in flight", name, limit.writesPerSecond(), limit.maxInFlight());
+        return limit;
+    }
+
+    /***
+     * @return the name of the limit of the repository: its own, if configured, otherwise the shared one.
+     */
+    private String register(Class<?> repositoryClass) {
+        String name = repositoryClass.getSimpleName().toLowerCase();
+        String prefix = PROPERTY_PREFIX + name + ".";
+        if (environment.containsProperty(prefix + "writes-per-second") || environment.containsProperty(prefix + "max-in-flight")) {
+            buckets.computeIfAbsent(name, key -> newBucket(key, prefix));
+        }
+        return name;
+    }
+
+    private Bucket newBucket(String name, String prefix) {
+        Bucket bucket = new Bucket(name,
+                environment.getProperty(prefix + "writes-per-second", Double.class, 0d),
+                environment.getProperty(prefix + "max-in-flight", Integer.class, 0));
+        Limit limit = bucket.getLimit();
+        if (limit.writesPerSecond() > 0 || limit.maxInFlight() > 0) {
+            logger.info("Write rate limit {}: {} writes per second, {} transactions in flight", name, limit.writesPerSecond(), limit.maxInFlight());
+        }
+        return bucket;
+    }
+
+    private class Bucket {
+
+        private final Timer waits;
+        private double writesPerSecond;
+        private int maxInFlight;
+        private int inFlight;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        Bucket(String name, double writesPerSecond, int maxInFlight) {
+            this.writesPerSecond = writesPerSecond;
+            this.maxInFlight = maxInFlight;
+            this.tokens = writesPerSecond;
+            this.waits = meterRegistry != null ? Timer.builder("wb.ratelimit.wait").tag("limit", name).register(meterRegistry) : null;
+        }
+
+        Permit acquire(int writes) throws InterruptedException {
+            long start = System.nanoTime();
+            long delay;
+            synchronized (this) {
+                if (writesPerSecond <= 0 && maxInFlight <= 0) return Permit.NONE;
+                while (maxInFlight > 0 && inFlight >= maxInFlight) {
+                    wait();
+                }
+                inFlight++;
+                delay = reserve(writes);
+            }
+            try {
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+            } catch (InterruptedException e) {
+                release();
+                throw e;
+            }
+            if (waits != null) {
+                waits.record(Duration.ofNanos(System.nanoTime() - start));
+            }
+            return this::release;
+        }
+
+        /***
+         * Takes the tokens for the writes, going into debt if needed, and returns how long to wait for the debt to be paid.
+         */
+        private long reserve(int writes) {
+            if (writesPerSecond <= 0) return 0;
+            long now = System.nanoTime();
+            tokens = Math.min(writesPerSecond, tokens + (now - refilled) * writesPerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilled = now;
+            tokens -= writes;
+            return tokens >= 0 ? 0 : (long) (-tokens / writesPerSecond * TimeUnit.SECONDS.toNanos(1));
+        }
+
+        private synchronized void release() {
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized void setLimit(Double writesPerSecond, Integer maxInFlight) {
+            if (writesPerSecond != null) {
+                this.writesPerSecond = writesPerSecond;
+                this.tokens = Math.min(tokens, writesPerSecond);
+            }
+            if (maxInFlight != null) {
+                this.maxInFlight = maxInFlight;
+            }
+            notifyAll();
+        }
+
+        synchronized Limit getLimit() {
+            return new Limit(writesPerSecond, maxInFlight, inFlight);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.foogaro.redis.wbs.core.scheduler;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/***
+ * Scheduler of the records of all the entity streams on a fixed number of workers, picking the next stream
+ * by smooth weighted round robin on its priority, with a bounded lane per listener whose records run one at a time, in order.
+ */
+public class PriorityScheduler implements DisposableBean {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private record Task(int priority, Supplier<CompletableFuture<Void>> supplier, CompletableFuture<Void> result) {
+    }
+
+    private static class Lane {
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private final AtomicLong executed = new AtomicLong();
+        private boolean busy;
+        private long current;
+    }
+
+    private final int laneCapacity;
+    private final MeterRegistry meterRegistry;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    private final Condition space = lock.newCondition();
+    private final Map<String, Lane> lanes = new LinkedHashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = true;
+
+    /***
+     * @param workers the number of records run concurrently across all the lanes
+     * @param laneCapacity the number of records each lane holds before its listener waits
+     * @param threadNamePrefix the prefix of the names of the worker threads
+     * @param meterRegistry where to publish the backlog and the throughput of each lane, <code>null</code> for none
+     */
+    public PriorityScheduler(int workers, int laneCapacity, String threadNamePrefix, MeterRegistry meterRegistry) {
+        this.laneCapacity = laneCapacity;
+        this.meterRegistry = meterRegistry;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, threadNamePrefix + (i + 1));
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /***
+     * Queues a record in its lane, waiting while the lane is full.
+     * @param laneName the lane, one per listener
+     * @param priority the weight of the record, at least 1
+     * @param task processes the record, returning a future completed once it has been processed and acknowledged
+     * @return a future completed with the one returned by the task
+     */
+    public CompletableFuture<Void> submit(String laneName, int priority, Supplier<CompletableFuture<Void>> task) throws InterruptedException {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        lock.lock();
+        try {
+            Lane lane = lanes.computeIfAbsent(laneName, this::newLane);
+            while (running && lane.queue.size() >= laneCapacity) {
+                space.await();
+            }
+            if (!running) {
+                throw new RejectedExecutionException("Scheduler stopped");
+            }
+            lane.queue.add(new Task(Math.max(1, priority), task, result));
+            ready.signal();
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    private Lane newLane(String laneName) {
+        Lane lane = new Lane();
+        if (meterRegistry != null) {
+            Gauge.builder("wb.scheduler.queued", lane, value -> value.queue.size()).tag("lane", laneName).register(meterRegistry);
+            FunctionCounter.builder("wb.scheduler.executed", lane.executed, AtomicLong::get).tag("lane", laneName).register(meterRegistry);
+        }
+        return lane;
+    }
+
+    private void work() {
+        while (running) {
+            Lane lane;
+            Task task;
+            lock.lock();
+            try {
+                while ((lane = next()) == null) {
+                    if (!running) return;
+                    ready.await();
+                }
+                task = lane.queue.poll();
+                lane.busy = true;
+                space.signalAll();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            run(task);
+            lock.lock();
+            try {
+                lane.busy = false;
+                lane.executed.incrementAndGet();
+                if (!lane.queue.isEmpty()) {
+                    ready.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /***
+     * The lane is released once the task returns: orchestrators handing the record over to other threads
+     * complete its future later, without holding back the next record of the lane.
+     */
+    private void run(Task task) {
+        try {
+            task.supplier().get().whenComplete((v, e) -> {
+                if (e != null) {
+                    task.result().completeExceptionally(e);
+                } else {
+                    task.result().complete(null);
+                }
+            });
+        } catch (Exception e) {
+            task.result().completeExceptionally(e);
+        }
+    }
+
+    /***
+     * Smooth weighted round robin among the lanes with records waiting and none running.
+     */
+    private Lane next() {
+        Lane next = null;
+        long total = 0;
+        for (Lane lane : lanes.values()) {
+            if (lane.busy || lane.queue.isEmpty()) continue;
+            int weight = lane.queue.peek().priority();
+            lane.current += weight;
+            total += weight;
+            if (next == null || lane.current > next.current) {
+                next = lane;
+            }
+        }
+        if (next != null) {
+            next.current -= total;
+        }
+        return next;
+    }
+
+    @Override
+    public void destroy() {
+        running = false;
+        List<Task> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            lanes.values().forEach(lane -> {
+                dropped.addAll(lane.queue);
+                lane.queue.clear();
+            });
+            ready.signalAll();
+            space.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dropped.forEach(task -> task.result().completeExceptionally(new RejectedExecutionException("Scheduler stopped")));
+        if (!dropped.isEmpty()) {
+            logger.warn("{} records not run before shutdown, left pending for retry", dropped.size());
+        }
+    }
+}
@@ -1,12 +1,17 @@
 package com.foogaro.redis.wbs.core.service;
 
 import com.foogaro.redis.wbs.core.annotation.WriteBehind;
+import com.foogaro.redis.wbs.core.jdbc.JdbcBatchSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.core.ResolvableType;
+import org.springframework.data.keyvalue.repository.KeyValueRepository;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.Repository;
 import org.springframework.stereotype.Component;
+import org.springframework.util.ClassUtils;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.ParameterizedType;
@@ -37,13 +42,77 @@ public class BeanFinder {
                 .collect(Collectors.toList());
     }
 
+    /***
+     * Finds the repositories of the entity which take part in the transactions of a
+     * {@link org.springframework.transaction.PlatformTransactionManager}, e.g. JPA ones,
+     * leaving out the key-value repositories, e.g. Redis ones.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<Repository<T, ?>> findTransactionalRepositories(Class<T> entityClass) {
+        List<Repository<T, ?>> repositories = new ArrayList<>();
+        for (String name : listableBeanFactory.getBeanNamesForType(Repository.class)) {
+            Class<?> type = listableBeanFactory.getType(name);
+            if (type == null || ResolvableType.forClass(type).as(Repository.class).resolveGeneric(0) != entityClass) continue;
+            Object bean = listableBeanFactory.getBean(name);
+            if (KeyValueRepository.class.isAssignableFrom(AopProxyUtils.ultimateTargetClass(bean))) continue;
+            repositories.add((Repository<T, ?>) bean);
+        }
+        return repositories;
+    }
+
+    /***
+     * Finds the {@link JdbcBatchSink} declared to replace the writes of the given repository, if any.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<JdbcBatchSink<T>> findJdbcBatchSink(Class<T> entityClass, Class<?> repositoryClass) {
+        if (!ClassUtils.isPresent("org.springframework.jdbc.core.JdbcTemplate", getClass().getClassLoader())) {
+            return Optional.empty();
+        }
+        return listableBeanFactory.getBeansOfType(JdbcBatchSink.class)
+                .values()
+                .stream()
+                .filter(sink -> sink.getEntityClass() == entityClass && sink.getRepositoryClass() == repositoryClass)
+                .map(sink -> (JdbcBatchSink<T>) sink)
+                .findFirst();
+    }
+
+    /***
+     * Finds a {@link JdbcBatchSink} declared for the given entity, whichever repository it replaces.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Optional<JdbcBatchSink<T>> findJdbcBatchSink(Class<T> entityClass) {
+        if (!ClassUtils.isPresent("org.springframework.jdbc.core.JdbcTemplate", getClass().getClassLoader())) {
+            return Optional.empty();
+        }
+        return listableBeanFactory.getBeansOfType(JdbcBatchSink.class)
+                .values()
+                .stream()
+                .filter(sink -> sink.getEntityClass() == entityClass)
+                .map(sink -> (JdbcBatchSink<T>) sink)
+                .findFirst();
+    }
+
     public Map<String, Object> findEntities() {
         Map<String, Object> writeBehindBeans = listableBeanFactory.getBeansWithAnnotation(WriteBehind.class);
         return writeBehindBeans;
     }
 
+    /***
+     * The ID types resolved from the repository classes, as they are needed for every delete.
+     */
+    private static final ClassValue<Class<?>> ID_TYPES = new ClassValue<>() {
+        @Override
+        protected Class<?> computeValue(Class<?> repositoryClass) {
+            return resolveIdType(repositoryClass);
+        }
+    };
+
     public <T> Class<?> getIdType(Repository<T, ?> repository) {
-        return Arrays.stream(repository.getClass().getInterfaces())
+        return ID_TYPES.get(repository.getClass());
+    }
+
+    private static Class<?> resolveIdType(Class<?> repositoryClass) {
+        return Arrays.stream(repositoryClass.getInterfaces())
                 .filter(i -> Repository.class.isAssignableFrom(i))
                 .filter(i -> i.getGenericInterfaces().length > 0)
                 .map(i -> i.getGenericInterfaces()[0])
@@ -84,7 +153,17 @@ public class BeanFinder {
 
     public <T, ID> void executeIdOperation(Repository<T, ?> repository, String idValue,
                                            BiConsumer<CrudRepository<T, ID>, ID> operation) {
-        Class<?> idType = getIdType(repository);
+        executeIdOperation(repository, null, idValue, operation);
+    }
+
+    /***
+     * @param idType the type of the ID, as known at compile time, or <code>null</code> to resolve it from the repository proxy
+     */
+    public <T, ID> void executeIdOperation(Repository<T, ?> repository, Class<?> idType, String idValue,
+                                           BiConsumer<CrudRepository<T, ID>, ID> operation) {
+        if (idType == null) {
+            idType = getIdType(repository);
+        }
         @SuppressWarnings("unchecked")
         ID id = (ID) createId(idType, idValue);
 
@@ -0,0 +1,232 @@
+package com.foogaro.redis.wbs.core.service;
+
+import com.foogaro.redis.wbs.core.processor.AcknowledgeListener;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.foogaro.redis.wbs.core.Misc.*;
+
+/***
+ * Lets producers wait until what they wrote to a stream has been persisted by every consumer group,
+ * re-checking on the position notifications published by the consumers on <code>&lt;stream&gt;:acks</code>.
+ */
+public class FlushBarrier implements AcknowledgeListener {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final String ACKS_CHANNEL_SUFFIX = KEY_SEPARATOR + "acks";
+
+    private record Waiter(RecordId recordId, CompletableFuture<Boolean> future) {
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final Duration notifyInterval;
+    private final Duration recheckInterval;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wb-flush-barrier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<String> movedStreams = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    public FlushBarrier(RedisConnectionFactory connectionFactory) {
+        this(connectionFactory, Duration.ofMillis(50), Duration.ofSeconds(5));
+    }
+
+    public FlushBarrier(RedisConnectionFactory connectionFactory, Duration notifyInterval, Duration recheckInterval) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(connectionFactory);
+        this.notifyInterval = notifyInterval;
+        this.recheckInterval = recheckInterval;
+    }
+
+    @PostConstruct
+    private void start() {
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+        scheduler.scheduleWithFixedDelay(this::publishMovedStreams, notifyInterval.toMillis(), notifyInterval.toMillis(), TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> waiters.keySet().forEach(this::evaluate), recheckInterval.toMillis(), recheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void stop() throws Exception {
+        scheduler.shutdown();
+        publishMovedStreams();
+        listenerContainer.destroy();
+        waiters.values().forEach(set -> set.forEach(waiter -> waiter.future().complete(false)));
+    }
+
+    @Override
+    public void acknowledged(Class<?> entityClass, String group, MapRecord<String, String, String> record) {
+        movedStreams.add(record.getStream());
+    }
+
+    /***
+     * @return a future completed with <code>true</code> once the record has been persisted by all the consumer groups.
+     */
+    public CompletableFuture<Boolean> persisted(Class<?> entityClass, RecordId recordId) {
+        return persisted(getStreamKey(entityClass), recordId);
+    }
+
+    /***
+     * Waits until the record has been persisted by all the consumer groups of the entity stream.
+     * @return <code>false</code> if the timeout elapsed first.
+     */
+    public boolean awaitPersisted(Class<?> entityClass, RecordId recordId, Duration timeout) throws InterruptedException {
+        return await(persisted(entityClass, recordId), timeout);
+    }
+
+    /***
+     * Waits until everything written so far to the entity stream has been persisted.
+     * @return <code>false</code> if the timeout elapsed first.
+     */
+    public boolean flush(Class<?> entityClass, Duration timeout) throws InterruptedException {
+        return await(flush(getStreamKey(entityClass)), timeout);
+    }
+
+    /***
+     * Waits until everything written so far to all the entity streams has been persisted,
+     * e.g. in shutdown hooks or at the end of a batch.
+     * @return <code>false</code> if the timeout elapsed first.
+     */
+    public boolean flushAll(Duration timeout) throws InterruptedException {
+        List<CompletableFuture<Boolean>> flushes = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().match(getStreamKeyPattern()).type(DataType.STREAM).build();
+        try (Cursor<String> keys = redisTemplate.scan(options)) {
+            keys.forEachRemaining(streamKey -> {
+                if (!isDLQStreamKey(streamKey)) {
+                    flushes.add(flush(streamKey));
+                }
+            });
+        }
+        CompletableFuture<Boolean> all = CompletableFuture.allOf(flushes.toArray(CompletableFuture[]::new))
+                .thenApply(v -> flushes.stream().allMatch(CompletableFuture::join));
+        try {
+            return await(all, timeout);
+        } finally {
+            flushes.forEach(flush -> flush.complete(false));
+        }
+    }
+
+    private CompletableFuture<Boolean> flush(String streamKey) {
+        List<MapRecord<String, Object, Object>> last = redisTemplate.opsForStream()
+                .reverseRange(streamKey, Range.unbounded(), Limit.limit().count(1));
+        if (last == null || last.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return persisted(streamKey, last.get(0).getId());
+    }
+
+    private CompletableFuture<Boolean> persisted(String streamKey, RecordId recordId) {
+        Waiter waiter = new Waiter(recordId, new CompletableFuture<>());
+        subscribe(streamKey).add(waiter);
+        waiter.future().whenComplete((persisted, e) -> waiters.getOrDefault(streamKey, Set.of()).remove(waiter));
+        evaluate(streamKey);
+        return waiter.future();
+    }
+
+    /***
+     * Waits for the future, completing it with <code>false</code> if the timeout elapses or the thread is interrupted
+     * first, which removes its waiter.
+     */
+    private boolean await(CompletableFuture<Boolean> future, Duration timeout) throws InterruptedException {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.complete(false);
+            return false;
+        } catch (InterruptedException e) {
+            future.complete(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error waiting for persistence", e.getCause());
+        }
+    }
+
+    /***
+     * @return the waiters of the stream, subscribing to its notifications when the first one is added.
+     */
+    private Set<Waiter> subscribe(String streamKey) {
+        return waiters.computeIfAbsent(streamKey, key -> {
+            listenerContainer.addMessageListener((message, pattern) -> scheduler.execute(() -> evaluate(streamKey)),
+                    new ChannelTopic(streamKey + ACKS_CHANNEL_SUFFIX));
+            return ConcurrentHashMap.newKeySet();
+        });
+    }
+
+    private void publishMovedStreams() {
+        for (Iterator<String> iterator = movedStreams.iterator(); iterator.hasNext(); ) {
+            String streamKey = iterator.next();
+            iterator.remove();
+            try {
+                redisTemplate.convertAndSend(streamKey + ACKS_CHANNEL_SUFFIX, "1");
+            } catch (Exception e) {
+                logger.warn("Error publishing the position of stream {} - {}", streamKey, e.getMessage());
+            }
+        }
+    }
+
+    /***
+     * Computes the committed position of each group once, then releases the waiters at or below all of them.
+     */
+    private void evaluate(String streamKey) {
+        Set<Waiter> streamWaiters = waiters.get(streamKey);
+        if (streamWaiters == null || streamWaiters.isEmpty()) return;
+        try {
+            List<RecordId> committed = new ArrayList<>();
+            List<RecordId> oldestPending = new ArrayList<>();
+            StreamInfo.XInfoGroups groups = redisTemplate.opsForStream().groups(streamKey);
+            groups.forEach(group -> {
+                committed.add(RecordId.of(group.lastDeliveredId()));
+                if (group.pendingCount() != null && group.pendingCount() > 0) {
+                    PendingMessagesSummary summary = redisTemplate.opsForStream().pending(streamKey, group.groupName());
+                    if (summary != null && summary.getTotalPendingMessages() > 0) {
+                        oldestPending.add(summary.minRecordId());
+                    }
+                }
+            });
+            if (committed.isEmpty()) {
+                logger.warn("No consumer group on stream {}, nothing to wait for", streamKey);
+            }
+            for (Waiter waiter : streamWaiters) {
+                if (isPersisted(waiter.recordId(), committed, oldestPending)) {
+                    waiter.future().complete(true);
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Error evaluating the position of stream {} - {}", streamKey, e.getMessage());
+        }
+    }
+
+    /***
+     * @param committed the last delivered ID of each group
+     * @param oldestPending the oldest pending ID of each group having pending records
+     */
+    static boolean isPersisted(RecordId recordId, Collection<RecordId> committed, Collection<RecordId> oldestPending) {
+        return committed.stream().allMatch(position -> compare(recordId, position) <= 0)
+                && oldestPending.stream().allMatch(pending -> compare(recordId, pending) < 0);
+    }
+}
@@ -0,0 +1,72 @@
+package com.foogaro.redis.wbs.core.service;
+
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static com.foogaro.redis.wbs.core.Misc.*;
+
+/***
+ * Index of the newest stream ID applied by each consumer group to each entity ID, so that retried or replayed events
+ * older than it are skipped instead of overwriting newer rows.
+ */
+public class LastAppliedIndex {
+
+    private static final String APPLIED_SUFFIX = KEY_SEPARATOR + "applied";
+
+    private static final RedisScript<Long> APPLY_SCRIPT = RedisScript.of("""
+            local current = redis.call('GET', KEYS[1])
+            if current then
+              local cms, cseq = string.match(current, '(%d+)-(%d+)')
+              local ms, seq = string.match(ARGV[1], '(%d+)-(%d+)')
+              cms, cseq, ms, seq = tonumber(cms), tonumber(cseq), tonumber(ms), tonumber(seq)
+              if cms > ms or (cms == ms and cseq >= seq) then
+                return 0
+              end
+            end
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration timeToLive;
+
+    public LastAppliedIndex(RedisConnectionFactory connectionFactory) {
+        this(connectionFactory, Duration.ofHours(1));
+    }
+
+    public LastAppliedIndex(RedisConnectionFactory connectionFactory, Duration timeToLive) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.timeToLive = timeToLive;
+    }
+
+    /***
+     * @return <code>true</code> if the group already applied an event of the entity ID as new as the record, or newer.
+     */
+    public boolean isStale(Class<?> entityClass, String group, String id, RecordId recordId) {
+        return getLastApplied(entityClass, group, id)
+                .map(lastApplied -> compare(recordId, lastApplied) <= 0)
+                .orElse(false);
+    }
+
+    public Optional<RecordId> getLastApplied(Class<?> entityClass, String group, String id) {
+        return Optional.ofNullable(redisTemplate.opsForValue().get(getKey(entityClass, group, id))).map(RecordId::of);
+    }
+
+    /***
+     * Records that the group applied the record to the entity ID, unless a newer one was recorded meanwhile.
+     */
+    public void applied(Class<?> entityClass, String group, String id, RecordId recordId) {
+        redisTemplate.execute(APPLY_SCRIPT, List.of(getKey(entityClass, group, id)),
+                recordId.getValue(), String.valueOf(timeToLive.toMillis()));
+    }
+
+    private String getKey(Class<?> entityClass, String group, String id) {
+        return getStreamKey(entityClass) + APPLIED_SUFFIX + KEY_SEPARATOR + group + KEY_SEPARATOR + id;
+    }
+}
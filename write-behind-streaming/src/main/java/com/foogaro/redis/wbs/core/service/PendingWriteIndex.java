@@ -0,0 +1,136 @@
+package com.foogaro.redis.wbs.core.service;
+
+import com.foogaro.redis.wbs.core.processor.AcknowledgeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.util.*;
+
+import static com.foogaro.redis.wbs.core.Misc.*;
+
+/***
+ * Index of the entities having events not yet persisted by each consumer group, updated atomically with the XADD
+ * of {@link #add(Class, MapRecord, Object)}, so that readers can route only their reads to Redis.
+ */
+public class PendingWriteIndex implements AcknowledgeListener {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private static final RedisScript<String> ADD_SCRIPT = RedisScript.of("""
+            local streamId = redis.call('XADD', KEYS[1], '*', unpack(ARGV, 2))
+            for _, group in ipairs(redis.call('SMEMBERS', KEYS[3])) do
+              redis.call('HSET', KEYS[2], group .. ':' .. ARGV[1], streamId)
+            end
+            return streamId
+            """, String.class);
+
+    private static final RedisScript<Long> CLEAR_SCRIPT = RedisScript.of("""
+            if redis.call('HGET', KEYS[1], ARGV[1]) == ARGV[2] then
+              return redis.call('HDEL', KEYS[1], ARGV[1])
+            end
+            return 0
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    public PendingWriteIndex(RedisConnectionFactory connectionFactory) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    /***
+     * Adds the event to its stream and indexes it as pending for all the consumer groups of the stream.
+     * The ID is also carried by the event, in the {@code id} field, for the consumers to clear the index.
+     */
+    public RecordId add(Class<?> entityClass, MapRecord<String, String, String> record, Object id) {
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(id));
+        args.add(EVENT_ID_KEY);
+        args.add(String.valueOf(id));
+        record.getValue().forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        String streamId = redisTemplate.execute(ADD_SCRIPT,
+                List.of(record.getStream(), getPendingIndexKey(entityClass), getGroupsKey(entityClass)),
+                args.toArray());
+        return RecordId.of(streamId);
+    }
+
+    /***
+     * Registers the consumer group, so that the events produced from now on are indexed for it.
+     */
+    public void registerGroup(Class<?> entityClass, String group) {
+        redisTemplate.opsForSet().add(getGroupsKey(entityClass), group);
+    }
+
+    /***
+     * Clears the ID from the index of the group, if the acknowledged record is the newest pending event for it.
+     */
+    @Override
+    public void acknowledged(Class<?> entityClass, String group, MapRecord<String, String, String> record) {
+        String id = record.getValue().get(EVENT_ID_KEY);
+        if (id == null) return;
+        Long cleared = redisTemplate.execute(CLEAR_SCRIPT, List.of(getPendingIndexKey(entityClass)),
+                group + KEY_SEPARATOR + id, record.getId().getValue());
+        logger.trace("Pending write of {} {} for group {} {}", entityClass.getSimpleName(), id, group,
+                cleared != null && cleared > 0 ? "cleared" : "superseded");
+    }
+
+    /***
+     * @return <code>true</code> if the ID has events not yet persisted by the consumer group of the repository.
+     */
+    public boolean isPending(Class<?> entityClass, Class<?> repositoryClass, Object id) {
+        return getNewestPendingId(entityClass, repositoryClass, id).isPresent();
+    }
+
+    /***
+     * @return <code>true</code> if the ID has events not yet persisted by any consumer group.
+     */
+    public boolean isPending(Class<?> entityClass, Object id) {
+        Set<String> groups = redisTemplate.opsForSet().members(getGroupsKey(entityClass));
+        if (groups == null || groups.isEmpty()) return false;
+        List<Object> fields = groups.stream().map(group -> (Object) (group + KEY_SEPARATOR + id)).toList();
+        List<Object> values = redisTemplate.opsForHash().multiGet(getPendingIndexKey(entityClass), fields);
+        return values.stream().anyMatch(Objects::nonNull);
+    }
+
+    /***
+     * @return the IDs, among the given ones, having events not yet persisted by any consumer group, with one round trip.
+     */
+    public Set<String> findPending(Class<?> entityClass, Collection<?> ids) {
+        Set<String> groups = redisTemplate.opsForSet().members(getGroupsKey(entityClass));
+        if (groups == null || groups.isEmpty() || ids.isEmpty()) return Set.of();
+        List<String> keys = new ArrayList<>();
+        List<Object> fields = new ArrayList<>();
+        for (Object id : ids) {
+            for (String group : groups) {
+                keys.add(String.valueOf(id));
+                fields.add(group + KEY_SEPARATOR + id);
+            }
+        }
+        List<Object> values = redisTemplate.opsForHash().multiGet(getPendingIndexKey(entityClass), fields);
+        Set<String> pending = new HashSet<>();
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null) pending.add(keys.get(i));
+        }
+        return pending;
+    }
+
+    public Optional<RecordId> getNewestPendingId(Class<?> entityClass, Class<?> repositoryClass, Object id) {
+        Object streamId = redisTemplate.opsForHash().get(getPendingIndexKey(entityClass),
+                getConsumerGroup(repositoryClass) + KEY_SEPARATOR + id);
+        return Optional.ofNullable(streamId).map(value -> RecordId.of(value.toString()));
+    }
+
+    /***
+     * @return the number of IDs pending, across all the consumer groups of the entity.
+     */
+    public long size(Class<?> entityClass) {
+        return redisTemplate.opsForHash().size(getPendingIndexKey(entityClass));
+    }
+}
@@ -0,0 +1,27 @@
+package com.foogaro.redis.wbs.core.watchdog;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+
+import java.util.Map;
+
+/***
+ * Health of the stream subscriptions, as last checked by the {@link SubscriptionWatchdog}: down while any of them
+ * is stalled, with the check of each one, by consumer name, as details.
+ */
+public class SubscriptionHealthIndicator extends AbstractHealthIndicator {
+
+    private final SubscriptionWatchdog subscriptionWatchdog;
+
+    public SubscriptionHealthIndicator(SubscriptionWatchdog subscriptionWatchdog) {
+        super("Stream subscriptions health check failed");
+        this.subscriptionWatchdog = subscriptionWatchdog;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        Map<String, SubscriptionWatchdog.Check> checks = subscriptionWatchdog.getChecks();
+        boolean stalled = checks.values().stream().anyMatch(SubscriptionWatchdog.Check::stalled);
+        (stalled ? builder.down() : builder.up()).withDetails(checks);
+    }
+}
@@ -0,0 +1,150 @@
+package com.foogaro.redis.wbs.core.watchdog;
+
+import com.foogaro.redis.wbs.core.listener.AbstractStreamListener;
+import com.foogaro.redis.wbs.core.listener.SubscriptionStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/***
+ * Resubscribes the stream listeners whose subscription stalled, e.g. cancelled by the container after a <code>NOGROUP</code>,
+ * recreating the stream and the group if needed, with an exponential backoff until they are healthy again.
+ */
+public class SubscriptionWatchdog {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    /***
+     * The last check of a subscription.
+     * @param stalled whether the subscription was found stalled
+     * @param attempts the resubscriptions since it was last found healthy
+     * @param lastResubscription when it was last resubscribed, <code>null</code> if never
+     */
+    public record Check(SubscriptionStatus status, boolean stalled, int attempts, Instant lastResubscription) {
+    }
+
+    private final ObjectProvider<AbstractStreamListener<?, ?>> listeners;
+    private final Duration interval;
+    private final Duration stallTimeout;
+    private final Duration maxBackoff;
+    private final MeterRegistry meterRegistry;
+    private final Map<AbstractStreamListener<?, ?>, Check> checks = new ConcurrentHashMap<>();
+    private final Map<AbstractStreamListener<?, ?>, Long> nextAttempts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "wb-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /***
+     * @param interval how often the subscriptions are checked, and the first backoff
+     * @param stallTimeout how long a subscription whose group is behind may go without deliveries
+     * @param maxBackoff the maximum time between two resubscriptions of the same listener
+     * @param meterRegistry where to count the resubscriptions, <code>null</code> for none
+     */
+    public SubscriptionWatchdog(ObjectProvider<AbstractStreamListener<?, ?>> listeners, Duration interval, Duration stallTimeout,
+                                Duration maxBackoff, MeterRegistry meterRegistry) {
+        this.listeners = listeners;
+        this.interval = interval;
+        this.stallTimeout = stallTimeout;
+        this.maxBackoff = maxBackoff;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    private void start() {
+        scheduler.scheduleWithFixedDelay(this::checkAll, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /***
+     * @return the last check of each running listener, by consumer name.
+     */
+    public Map<String, Check> getChecks() {
+        Map<String, Check> byConsumer = new TreeMap<>();
+        checks.values().forEach(check -> byConsumer.put(check.status().consumer(), check));
+        return byConsumer;
+    }
+
+    public void checkAll() {
+        listeners.orderedStream().forEach(listener -> {
+            if (!listener.isRunning()) {
+                checks.remove(listener);
+                nextAttempts.remove(listener);
+                return;
+            }
+            try {
+                check(listener);
+            } catch (Exception e) {
+                logger.warn("Error checking the subscription of listener {} - {}", listener.getClass().getSimpleName(), e.getMessage());
+            }
+        });
+    }
+
+    private void check(AbstractStreamListener<?, ?> listener) {
+        SubscriptionStatus status = listener.getSubscriptionStatus();
+        Check previous = checks.get(listener);
+        if (!isStalled(status)) {
+            if (previous != null && previous.stalled()) {
+                logger.info("Subscription of consumer {} to stream {} recovered after {} resubscriptions",
+                        status.consumer(), status.stream(), previous.attempts());
+            }
+            checks.put(listener, new Check(status, false, 0, previous != null ? previous.lastResubscription() : null));
+            nextAttempts.remove(listener);
+            return;
+        }
+
+        int attempts = previous != null && previous.stalled() ? previous.attempts() : 0;
+        Instant lastResubscription = previous != null ? previous.lastResubscription() : null;
+        long now = System.currentTimeMillis();
+        if (now >= nextAttempts.getOrDefault(listener, 0L)) {
+            logger.warn("Subscription of consumer {} to stream {} stalled: active {}, group {}, lag {}, idle {} ms, resubscribing",
+                    status.consumer(), status.stream(), status.active(), status.groupExists() ? "existing" : "missing",
+                    status.lag(), status.idle().toMillis());
+            try {
+                listener.resubscribe();
+                if (meterRegistry != null) {
+                    Counter.builder("wb.watchdog.resubscriptions")
+                            .tags("stream", status.stream(), "group", status.group())
+                            .register(meterRegistry)
+                            .increment();
+                }
+            } catch (Exception e) {
+                logger.error("Error resubscribing consumer {} to stream {} - {}", status.consumer(), status.stream(), e.getMessage());
+            }
+            attempts++;
+            lastResubscription = Instant.ofEpochMilli(now);
+            nextAttempts.put(listener, now + getBackoff(attempts).toMillis());
+        }
+        checks.put(listener, new Check(status, true, attempts, lastResubscription));
+    }
+
+    private boolean isStalled(SubscriptionStatus status) {
+        return !status.active() || !status.groupExists() || (status.behind() && !status.delivering() && status.idle().compareTo(stallTimeout) > 0);
+    }
+
+    /***
+     * @return the interval doubled for each attempt, up to the maximum backoff.
+     */
+    private Duration getBackoff(int attempts) {
+        long backoff = interval.toMillis() << Math.min(attempts - 1, 20);
+        return Duration.ofMillis(Math.min(backoff, maxBackoff.toMillis()));
+    }
+}
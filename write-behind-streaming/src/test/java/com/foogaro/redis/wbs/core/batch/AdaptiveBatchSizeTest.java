@@ -0,0 +1,91 @@
+package com.foogaro.redis.wbs.core.batch;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AdaptiveBatchSizeTest {
+
+    private static final Duration TARGET = Duration.ofMillis(100);
+    private static final Duration FAST = Duration.ofMillis(10);
+    private static final Duration SLOW = Duration.ofMillis(500);
+
+    @Test
+    void clampsTheInitialSizeWithinTheBounds() {
+        assertEquals(10, new AdaptiveBatchSize(1, 10, 100, 5, TARGET).getSize());
+        assertEquals(100, new AdaptiveBatchSize(1000, 10, 100, 5, TARGET).getSize());
+        assertEquals(1, new AdaptiveBatchSize(0, 0, 0, 0, TARGET).getSize());
+    }
+
+    @Test
+    void growsAdditivelyUpToTheMaximumWhileBatchesAreFull() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 10, 30, 5, TARGET);
+        batchSize.record(10, true, FAST);
+        assertEquals(15, batchSize.getSize());
+        batchSize.record(15, true, FAST);
+        assertEquals(20, batchSize.getSize());
+        for (int i = 0; i < 10; i++) {
+            batchSize.record(batchSize.getSize(), true, FAST);
+        }
+        assertEquals(30, batchSize.getSize());
+    }
+
+    @Test
+    void keepsTheSizeWhenBatchesAreNotFull() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 10, 30, 5, TARGET);
+        batchSize.record(3, false, FAST);
+        assertEquals(10, batchSize.getSize());
+    }
+
+    @Test
+    void keepsTheSizeWhenTheLatencyPerRecordGetsWorse() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 10, 30, 5, TARGET);
+        batchSize.record(10, true, Duration.ofMillis(10));
+        assertEquals(15, batchSize.getSize());
+        batchSize.record(15, true, Duration.ofMillis(30));
+        assertEquals(15, batchSize.getSize());
+    }
+
+    @Test
+    void halvesDownToTheMinimumWhenTheP99ExceedsTheTarget() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(100, 10, 100, 5, TARGET);
+        batchSize.record(100, true, SLOW);
+        assertEquals(50, batchSize.getSize());
+        assertEquals(SLOW, batchSize.getP99());
+        batchSize.record(50, true, SLOW);
+        assertEquals(25, batchSize.getSize());
+        batchSize.record(25, true, SLOW);
+        assertEquals(12, batchSize.getSize());
+        batchSize.record(12, true, SLOW);
+        assertEquals(10, batchSize.getSize());
+    }
+
+    @Test
+    void startsOverTheWindowAfterShrinking() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(100, 10, 200, 5, TARGET);
+        batchSize.record(100, true, SLOW);
+        assertEquals(50, batchSize.getSize());
+        batchSize.record(50, true, FAST);
+        assertEquals(FAST, batchSize.getP99());
+        assertEquals(55, batchSize.getSize());
+    }
+
+    @Test
+    void halvesWhenAWriteFails() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(30, 10, 100, 5, TARGET);
+        batchSize.failed();
+        assertEquals(15, batchSize.getSize());
+        batchSize.failed();
+        assertEquals(10, batchSize.getSize());
+    }
+
+    @Test
+    void ignoresEmptyBatches() {
+        AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 10, 30, 5, TARGET);
+        batchSize.record(0, true, SLOW);
+        assertEquals(10, batchSize.getSize());
+        assertEquals(Duration.ZERO, batchSize.getP99());
+    }
+}
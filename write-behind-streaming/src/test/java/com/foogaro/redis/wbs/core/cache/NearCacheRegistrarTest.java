@@ -0,0 +1,81 @@
+package com.foogaro.redis.wbs.core.cache;
+
+import com.foogaro.redis.wbs.core.annotation.WriteBehind;
+import com.foogaro.redis.wbs.core.listener.AbstractStreamListener;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheRegistrarTest {
+
+    @WriteBehind
+    static class Employer {
+        Long id;
+    }
+
+    @WriteBehind
+    static class Project {
+        Long id;
+    }
+
+    abstract static class EmployerStreamListener extends AbstractStreamListener<Employer, Object> {
+
+        EmployerStreamListener() {
+            super(Employer.class, Object.class);
+        }
+    }
+
+    abstract static class ProjectStreamListener extends AbstractStreamListener<Project, Object> {
+
+        ProjectStreamListener() {
+            super(Project.class, Object.class);
+        }
+    }
+
+    @Test
+    void registersANearCachePerEntityOfTheListeners() {
+        DefaultListableBeanFactory registry = registry(environment("wb.stream.near-cache.maximum-size", "5"));
+
+        RootBeanDefinition definition = (RootBeanDefinition) registry.getBeanDefinition("employerNearCache");
+        assertEquals(ResolvableType.forClassWithGenerics(NearCache.class, Employer.class).getType(), definition.getResolvableType().getType());
+        assertTrue(registry.containsBeanDefinition("projectNearCache"));
+        assertNotNull(definition.getInstanceSupplier().get());
+    }
+
+    @Test
+    void skipsTheEntitiesDisabledOrDeclared() {
+        DefaultListableBeanFactory registry = new DefaultListableBeanFactory();
+        registry.registerBeanDefinition("employerNearCache", new RootBeanDefinition(Object.class));
+        registry = registry(registry, environment("wb.stream.near-cache.project.enabled", "false"));
+
+        assertEquals(Object.class, registry.getBeanDefinition("employerNearCache").getResolvableType().resolve());
+        assertFalse(registry.containsBeanDefinition("projectNearCache"));
+    }
+
+    private static StandardEnvironment environment(String name, String value) {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("test", Map.of(name, value)));
+        return environment;
+    }
+
+    private static DefaultListableBeanFactory registry(StandardEnvironment environment) {
+        return registry(new DefaultListableBeanFactory(), environment);
+    }
+
+    private static DefaultListableBeanFactory registry(DefaultListableBeanFactory registry, StandardEnvironment environment) {
+        registry.registerBeanDefinition("employerStreamListener", new RootBeanDefinition(EmployerStreamListener.class));
+        registry.registerBeanDefinition("projectStreamListener", new RootBeanDefinition(ProjectStreamListener.class));
+        NearCacheRegistrar registrar = new NearCacheRegistrar();
+        registrar.setEnvironment(environment);
+        registrar.setBeanClassLoader(NearCacheRegistrarTest.class.getClassLoader());
+        registrar.postProcessBeanDefinitionRegistry(registry);
+        return registry;
+    }
+}
@@ -0,0 +1,104 @@
+package com.foogaro.redis.wbs.core.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.foogaro.redis.wbs.core.Misc.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheTest {
+
+    record Item(Long id, String name) {
+    }
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void cachesTheEntityOfSaveEventsOnMiss() throws Exception {
+        NearCache<Item> cache = cache(true);
+
+        cache.onEvent(save("1-0", new Item(1L, "new")));
+
+        assertEquals(Optional.of(new Item(1L, "new")), cache.get(1L, this::load));
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    void doesNotCacheLoadsStartedBeforeASaveEvent() throws Exception {
+        NearCache<Item> cache = cache(true);
+
+        Optional<Item> loaded = cache.get(1L, id -> {
+            cache.onEvent(save("1-0", new Item(1L, "new")));
+            return Optional.of(new Item(1L, "old"));
+        });
+
+        assertEquals(Optional.of(new Item(1L, "old")), loaded);
+        assertEquals(Optional.of(new Item(1L, "new")), cache.get(1L, this::load));
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    void invalidatesOnSaveEventsWithoutRefreshOnWrite() throws Exception {
+        NearCache<Item> cache = cache(false);
+        cache.put(new Item(1L, "old"));
+
+        cache.onEvent(save("1-0", new Item(1L, "new")));
+        assertEquals(0, cache.size());
+
+        cache.get(1L, id -> {
+            cache.onEvent(save("2-0", new Item(1L, "newer")));
+            return Optional.of(new Item(1L, "new"));
+        });
+        assertEquals(0, cache.size());
+        assertEquals(Optional.of(new Item(1L, "loaded")), cache.get(1L, this::load));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void deleteEventsInvalidateAndDiscardLoadsInProgress() throws Exception {
+        NearCache<Item> cache = cache(true);
+        cache.put(new Item(1L, "old"));
+        cache.put(new Item(2L, "other"));
+
+        cache.onEvent(delete("1-0", "1"));
+        assertEquals(1, cache.size());
+
+        cache.get(1L, id -> {
+            cache.onEvent(delete("2-0", "1"));
+            return Optional.of(new Item(1L, "deleted"));
+        });
+        assertEquals(Optional.of(new Item(1L, "loaded")), cache.get(1L, this::load));
+        assertEquals(1, loads.get());
+    }
+
+    private Optional<Item> load(Object id) {
+        loads.incrementAndGet();
+        return Optional.of(new Item((Long) id, "loaded"));
+    }
+
+    private static NearCache<Item> cache(boolean refreshOnWrite) throws Exception {
+        NearCache<Item> cache = NearCache.builder(Item.class, Item::id).refreshOnWrite(refreshOnWrite).build();
+        Field objectMapper = NearCache.class.getDeclaredField("objectMapper");
+        objectMapper.setAccessible(true);
+        objectMapper.set(cache, new ObjectMapper());
+        return cache;
+    }
+
+    private static MapRecord<String, String, String> save(String id, Item item) {
+        String content = "{\"id\":" + item.id() + ",\"name\":\"" + item.name() + "\"}";
+        return StreamRecords.newRecord().in(getStreamKey(Item.class)).withId(id)
+                .ofMap(Map.of(EVENT_CONTENT_KEY, content, EVENT_OPERATION_KEY, Operation.CREATE.getValue()));
+    }
+
+    private static MapRecord<String, String, String> delete(String id, String entityId) {
+        return StreamRecords.newRecord().in(getStreamKey(Item.class)).withId(id)
+                .ofMap(Map.of(EVENT_CONTENT_KEY, entityId, EVENT_OPERATION_KEY, Operation.DELETE.getValue()));
+    }
+}
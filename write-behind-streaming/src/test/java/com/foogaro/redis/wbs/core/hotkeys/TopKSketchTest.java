@@ -0,0 +1,72 @@
+package com.foogaro.redis.wbs.core.hotkeys;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopKSketchTest {
+
+    @Test
+    void countsEveryOccurrence() {
+        TopKSketch sketch = new TopKSketch(3, 1024, 4);
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, sketch.add("employer:1"));
+        }
+        assertEquals(5, sketch.getCount("employer:1"));
+        assertEquals(0, sketch.getCount("employer:2"));
+    }
+
+    @Test
+    void keepsTheMostFrequentKeysInDescendingOrder() {
+        TopKSketch sketch = new TopKSketch(3, 1024, 4);
+        for (int key = 1; key <= 10; key++) {
+            for (int i = 0; i < key * 10; i++) {
+                sketch.add("employer:" + key);
+            }
+        }
+        List<TopKSketch.Entry> topK = sketch.getTopK();
+        assertEquals(List.of("employer:10", "employer:9", "employer:8"), topK.stream().map(TopKSketch.Entry::key).toList());
+        topK.forEach(entry -> assertTrue(entry.count() >= Long.parseLong(entry.key().substring(9)) * 10));
+    }
+
+    @Test
+    void replacesACandidateWithAHotterKey() {
+        TopKSketch sketch = new TopKSketch(2, 1024, 4);
+        sketch.add("a");
+        sketch.add("b");
+        sketch.add("b");
+        for (int i = 0; i < 5; i++) {
+            sketch.add("c");
+        }
+        assertEquals(List.of("c", "b"), sketch.getTopK().stream().map(TopKSketch.Entry::key).toList());
+        assertEquals(0, sketch.getCount("a"));
+    }
+
+    @Test
+    void neverUndercountsWhenKeysCollide() {
+        TopKSketch sketch = new TopKSketch(4, 8, 2);
+        for (int key = 0; key < 100; key++) {
+            sketch.add("employer:" + key);
+        }
+        for (int i = 1; i <= 50; i++) {
+            assertTrue(sketch.add("employer:hot") >= i);
+        }
+        assertEquals("employer:hot", sketch.getTopK().get(0).key());
+    }
+
+    @Test
+    void decayHalvesTheCountsAndDropsTheColdKeys() {
+        TopKSketch sketch = new TopKSketch(3, 1024, 4);
+        for (int i = 0; i < 8; i++) {
+            sketch.add("hot");
+        }
+        sketch.add("cold");
+        sketch.decay();
+        assertEquals(4, sketch.getCount("hot"));
+        assertEquals(0, sketch.getCount("cold"));
+        assertEquals(List.of(new TopKSketch.Entry("hot", 4)), sketch.getTopK());
+        assertEquals(5, sketch.add("hot"));
+    }
+}
@@ -0,0 +1,187 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import jakarta.persistence.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EntityMappingTest {
+
+    @Entity
+    @Table(name = "departments")
+    static class Department {
+        @Id
+        Long id;
+        String name;
+    }
+
+    @Embeddable
+    static class Address {
+        String street;
+        @Column(name = "zip")
+        String postalCode;
+    }
+
+    enum Status {ACTIVE, RETIRED}
+
+    static class UpperCase implements AttributeConverter<String, String> {
+        @Override
+        public String convertToDatabaseColumn(String value) {
+            return value == null ? null : value.toUpperCase();
+        }
+
+        @Override
+        public String convertToEntityAttribute(String value) {
+            return value;
+        }
+    }
+
+    @Entity
+    @Table(name = "employees")
+    static class Employee {
+        @Id
+        Long id;
+        @Column(name = "full_name")
+        String fullName;
+        @ManyToOne
+        Department department;
+        @ManyToOne
+        @JoinColumn(name = "manager")
+        Employee manager;
+        @Column(name = "department_id", insertable = false, updatable = false)
+        Long departmentId;
+        @Embedded
+        Address home;
+        @Embedded
+        @AttributeOverride(name = "street", column = @Column(name = "work_street"))
+        @AttributeOverride(name = "postalCode", column = @Column(name = "work_zip"))
+        Address work;
+        @Enumerated(EnumType.STRING)
+        Status status;
+        Status level;
+        @Convert(converter = UpperCase.class)
+        String code;
+        @OneToMany(mappedBy = "manager")
+        List<Employee> reports;
+        @Transient
+        String ignored;
+    }
+
+    @Test
+    void mapsColumnsForeignKeysAndEmbeddables() {
+        EntityMapping<Employee> mapping = new EntityMapping<>(Employee.class);
+        assertEquals("employees", mapping.getTable());
+        assertEquals("id", mapping.getIdColumn());
+        assertEquals(List.of("id", "full_name", "department_id", "manager", "street", "zip", "work_street", "work_zip",
+                "status", "level", "code"), mapping.getColumns());
+    }
+
+    @Test
+    void readsTheIdOfRelatedEntitiesAndConvertsTheValues() {
+        Department department = new Department();
+        department.id = 7L;
+        Employee manager = new Employee();
+        manager.id = 2L;
+        Employee employee = new Employee();
+        employee.id = 1L;
+        employee.fullName = "Ada";
+        employee.department = department;
+        employee.manager = manager;
+        employee.home = new Address();
+        employee.home.street = "Main Street";
+        employee.home.postalCode = "00100";
+        employee.status = Status.RETIRED;
+        employee.level = Status.RETIRED;
+        employee.code = "abc";
+
+        assertArrayEquals(new Object[]{1L, "Ada", 7L, 2L, "Main Street", "00100", null, null, "RETIRED", 1, "ABC"},
+                new EntityMapping<>(Employee.class).getValues(employee));
+        assertArrayEquals(new Object[]{2L, null, null, null, null, null, null, null, null, null, null},
+                new EntityMapping<>(Employee.class).getValues(manager));
+    }
+
+    @Entity
+    static class Versioned {
+        @Id
+        Long id;
+        @Version
+        long version;
+    }
+
+    @Entity
+    static class Cascading {
+        @Id
+        Long id;
+        @ManyToOne(cascade = CascadeType.ALL)
+        Department department;
+    }
+
+    @Entity
+    static class OwningCollection {
+        @Id
+        Long id;
+        @OneToMany
+        @JoinColumn(name = "owner_id")
+        List<Department> departments;
+    }
+
+    @Entity
+    static class Tags {
+        @Id
+        Long id;
+        @ElementCollection
+        List<String> tags;
+    }
+
+    @Embeddable
+    static class Key {
+        Long a;
+        Long b;
+    }
+
+    @Entity
+    static class Composite {
+        @EmbeddedId
+        Key key;
+    }
+
+    @Entity
+    static class Base {
+        @Id
+        Long id;
+    }
+
+    @Entity
+    static class Derived extends Base {
+        String name;
+    }
+
+    @Entity
+    static class ReferencingOtherColumn {
+        @Id
+        Long id;
+        @ManyToOne
+        @JoinColumn(name = "department_name", referencedColumnName = "name")
+        Department department;
+    }
+
+    @Entity
+    static class NoId {
+        Long id;
+    }
+
+    @Test
+    void rejectsMappingsTheUpsertCannotReproduce() {
+        for (Class<?> entityClass : List.of(Versioned.class, Cascading.class, OwningCollection.class, Tags.class,
+                Composite.class, Derived.class, ReferencingOtherColumn.class, NoId.class)) {
+            assertThrows(IllegalArgumentException.class, () -> new EntityMapping<>(entityClass), entityClass.getSimpleName());
+        }
+    }
+
+    @Test
+    void convertsTheIdOfDeleteEvents() {
+        assertEquals(42L, new EntityMapping<>(Department.class).toId("42"));
+    }
+}
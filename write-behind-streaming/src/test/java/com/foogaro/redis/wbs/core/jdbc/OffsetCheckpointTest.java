@@ -0,0 +1,161 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffsetCheckpointTest {
+
+    private static final String GROUP = "jpaemployerrepository_group";
+
+    private record Event(String entityId, String recordId, boolean delete) {
+    }
+
+    private final InMemoryJdbcTemplate jdbcTemplate = new InMemoryJdbcTemplate();
+    private final OffsetCheckpoint checkpoint = new OffsetCheckpoint(jdbcTemplate, new NoTransactionManager(),
+            OffsetCheckpoint.DEFAULT_TABLE, UpsertDialect.POSTGRESQL, null);
+
+    @Test
+    void skipsRecordsAtOrBelowTheCheckpointOfTheirEntity() {
+        write(save("1", "1-0"), save("2", "2-0"));
+
+        List<Event> written = write(save("1", "1-0"), save("2", "1-5"), save("1", "3-0"));
+
+        assertEquals(List.of(save("1", "3-0")), written);
+        assertEquals(Optional.of(RecordId.of("3-0")), checkpoint.getCheckpoint(GROUP, "1"));
+        assertEquals(Optional.of(RecordId.of("2-0")), checkpoint.getCheckpoint(GROUP, "2"));
+    }
+
+    @Test
+    void appliesRecordsRetriedAfterNewerOnesOfOtherEntities() {
+        write(save("1", "5-0"));
+
+        assertEquals(List.of(save("2", "4-0")), write(save("2", "4-0")));
+        assertEquals(Optional.of(RecordId.of("4-0")), checkpoint.getCheckpoint(GROUP, "2"));
+    }
+
+    @Test
+    void deleteRemovesTheCheckpointOfItsEntity() {
+        write(save("1", "1-0"), save("2", "1-1"));
+
+        assertEquals(List.of(delete("1", "2-0"), save("2", "2-1"), delete("2", "2-2")),
+                write(delete("1", "2-0"), save("2", "2-1"), delete("2", "2-2")));
+        assertTrue(checkpoint.getCheckpoint(GROUP, "1").isEmpty());
+        assertTrue(checkpoint.getCheckpoint(GROUP, "2").isEmpty());
+
+        write(delete("3", "3-0"), save("3", "3-1"));
+        assertEquals(Optional.of(RecordId.of("3-1")), checkpoint.getCheckpoint(GROUP, "3"));
+    }
+
+    @Test
+    void writesRecordsWithoutIdWithoutCheckpoint() {
+        Event anonymous = save(null, "1-0");
+
+        assertEquals(List.of(anonymous), write(anonymous));
+        assertEquals(List.of(anonymous), write(anonymous));
+        assertTrue(jdbcTemplate.rows.isEmpty());
+    }
+
+    @Test
+    void prunesCheckpointsNoRecordCanBeRetriedAgainst() {
+        write(save("1", "1-0"), save("2", "5-0"), save("3", "9-0"));
+        jdbcTemplate.rows.put("mongoemployerrepository_group:1", "1-0");
+
+        assertEquals(1, checkpoint.prune(GROUP, RecordId.of("9-0"), RecordId.of("5-0")));
+        assertTrue(checkpoint.getCheckpoint(GROUP, "1").isEmpty());
+        assertTrue(checkpoint.getCheckpoint(GROUP, "2").isPresent());
+
+        assertEquals(1, checkpoint.prune(GROUP, RecordId.of("8-0"), null));
+        assertTrue(checkpoint.getCheckpoint(GROUP, "2").isEmpty());
+        assertTrue(checkpoint.getCheckpoint(GROUP, "3").isPresent());
+
+        assertEquals(1, checkpoint.prune(GROUP, RecordId.of("9-0"), null));
+        assertEquals(Map.of("mongoemployerrepository_group:1", "1-0"), jdbcTemplate.rows);
+    }
+
+    private List<Event> write(Event... events) {
+        List<Event> written = new ArrayList<>();
+        List<Event> fresh = checkpoint.write(GROUP, List.of(events), Event::entityId, event -> RecordId.of(event.recordId()),
+                Event::delete, written::addAll);
+        assertEquals(written, fresh);
+        return fresh;
+    }
+
+    private static Event save(String entityId, String recordId) {
+        return new Event(entityId, recordId, false);
+    }
+
+    private static Event delete(String entityId, String recordId) {
+        return new Event(entityId, recordId, true);
+    }
+
+    /***
+     * The checkpoint table as a map of the keys to the last IDs, answering the statements of the OffsetCheckpoint.
+     */
+    private static class InMemoryJdbcTemplate extends JdbcTemplate {
+
+        private final Map<String, String> rows = new TreeMap<>();
+
+        @Override
+        public void query(String sql, RowCallbackHandler handler, Object... args) {
+            List<String> keys = sql.contains(" LIKE ")
+                    ? rows.keySet().stream().filter(key -> key.startsWith(((String) args[0]).replace("%", ""))).toList()
+                    : Arrays.stream(args).map(String.class::cast).filter(rows::containsKey).toList();
+            for (String key : keys) {
+                try {
+                    handler.processRow(row(key, rows.get(key)));
+                } catch (SQLException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            for (Object[] args : batchArgs) {
+                if (sql.startsWith("DELETE")) {
+                    rows.remove((String) args[0], (String) args[1]);
+                } else {
+                    rows.put((String) args[0], (String) args[1]);
+                }
+            }
+            return new int[batchArgs.size()];
+        }
+
+        private static ResultSet row(String key, String lastId) {
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "getString" -> (int) args[0] == 1 ? key : lastId;
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+
+    private static class NoTransactionManager implements PlatformTransactionManager {
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) {
+        }
+
+        @Override
+        public void rollback(TransactionStatus status) {
+        }
+    }
+}
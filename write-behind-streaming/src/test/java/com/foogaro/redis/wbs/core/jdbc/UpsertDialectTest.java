@@ -0,0 +1,76 @@
+package com.foogaro.redis.wbs.core.jdbc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class UpsertDialectTest {
+
+    private static final List<String> COLUMNS = List.of("id", "name", "order");
+    private static final List<String> ID_ONLY = List.of("id");
+
+    @Test
+    void mysqlUpdatesTheOtherColumnsOnDuplicateKey() {
+        assertEquals("INSERT INTO `employer` (`id`, `name`, `order`) VALUES (?, ?, ?)"
+                        + " ON DUPLICATE KEY UPDATE `name` = VALUES(`name`), `order` = VALUES(`order`)",
+                UpsertDialect.MYSQL.upsert("employer", COLUMNS, "id"));
+    }
+
+    @Test
+    void mysqlIgnoresDuplicatesOfIdOnlyEntities() {
+        assertEquals("INSERT IGNORE INTO `tag` (`id`) VALUES (?)", UpsertDialect.MYSQL.upsert("tag", ID_ONLY, "id"));
+    }
+
+    @Test
+    void postgresqlUpdatesTheOtherColumnsOnConflict() {
+        assertEquals("INSERT INTO \"employer\" (\"id\", \"name\", \"order\") VALUES (?, ?, ?)"
+                        + " ON CONFLICT (\"id\") DO UPDATE SET \"name\" = EXCLUDED.\"name\", \"order\" = EXCLUDED.\"order\"",
+                UpsertDialect.POSTGRESQL.upsert("employer", COLUMNS, "id"));
+    }
+
+    @Test
+    void postgresqlDoesNothingOnConflictOfIdOnlyEntities() {
+        assertEquals("INSERT INTO \"tag\" (\"id\") VALUES (?) ON CONFLICT (\"id\") DO NOTHING",
+                UpsertDialect.POSTGRESQL.upsert("tag", ID_ONLY, "id"));
+    }
+
+    @Test
+    void h2MergesOnTheKey() {
+        assertEquals("MERGE INTO \"EMPLOYER\" (\"ID\", \"NAME\", \"ORDER\") KEY (\"ID\") VALUES (?, ?, ?)",
+                UpsertDialect.H2.upsert("employer", COLUMNS, "id"));
+        assertEquals("MERGE INTO \"TAG\" (\"ID\") KEY (\"ID\") VALUES (?)", UpsertDialect.H2.upsert("tag", ID_ONLY, "id"));
+    }
+
+    @Test
+    void deletesByTheQuotedId() {
+        assertEquals("DELETE FROM `employer` WHERE `id` = ?", UpsertDialect.MYSQL.delete("employer", "id"));
+        assertEquals("DELETE FROM \"employer\" WHERE \"id\" = ?", UpsertDialect.POSTGRESQL.delete("employer", "id"));
+        assertEquals("DELETE FROM \"EMPLOYER\" WHERE \"ID\" = ?", UpsertDialect.H2.delete("employer", "id"));
+    }
+
+    @Test
+    void quotesEachPartOfQualifiedNames() {
+        assertEquals("`hr`.`employer`", UpsertDialect.MYSQL.quote("hr.employer"));
+        assertEquals("\"hr\".\"employer\"", UpsertDialect.POSTGRESQL.quote("HR.Employer"));
+        assertEquals("\"HR\".\"EMPLOYER\"", UpsertDialect.H2.quote("hr.employer"));
+    }
+
+    @Test
+    void keepsTheCaseOfQuotedNames() {
+        assertEquals("\"Employer\"", UpsertDialect.POSTGRESQL.quote("\"Employer\""));
+        assertEquals("\"Employer\"", UpsertDialect.H2.quote("`Employer`"));
+        assertEquals("`a``b`", UpsertDialect.MYSQL.quote("a`b"));
+    }
+
+    @Test
+    void detectsTheDialectFromTheProductName() {
+        assertEquals(UpsertDialect.MYSQL, UpsertDialect.fromProductName("MySQL"));
+        assertEquals(UpsertDialect.MYSQL, UpsertDialect.fromProductName("MariaDB"));
+        assertEquals(UpsertDialect.POSTGRESQL, UpsertDialect.fromProductName("PostgreSQL"));
+        assertEquals(UpsertDialect.H2, UpsertDialect.fromProductName("H2"));
+        assertThrows(IllegalArgumentException.class, () -> UpsertDialect.fromProductName("Oracle"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.foogaro.redis.wbs.core.listener;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.foogaro.redis.wbs.core.orchestrator.ProcessOrchestrator;
+import com.foogaro.redis.wbs.core.processor.Processor;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.stream.StreamMessageListenerContainer;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AbstractStreamListenerTest {
+
+    private final List<CompletableFuture<Void>> orchestrated = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void drainWaitsForTheRecordsInFlight() throws Exception {
+        TestStreamListener listener = listener(5000);
+        listener.onMessage(record("1-0"));
+        CompletableFuture<Void> inFlight = orchestrated.get(0);
+        CompletableFuture.delayedExecutor(100, TimeUnit.MILLISECONDS).execute(() -> inFlight.complete(null));
+
+        listener.stop();
+        assertTrue(inFlight.isDone());
+        assertFalse(listener.isRunning());
+    }
+
+    @Test
+    void drainAbandonsTheRecordsInFlightAfterTheTimeoutWithoutTouchingThem() throws Exception {
+        TestStreamListener listener = listener(100);
+        listener.onMessage(record("1-0"));
+
+        long start = System.nanoTime();
+        listener.stop();
+        assertTrue(System.nanoTime() - start < 2_000_000_000L);
+        assertFalse(orchestrated.get(0).isDone());
+        assertFalse(listener.isRunning());
+    }
+
+    @Test
+    void rejectsTheRecordsDeliveredWhileDraining() throws Exception {
+        TestStreamListener listener = listener(5000);
+        listener.onMessage(record("1-0"));
+        Thread drain = new Thread(listener::stop);
+        drain.start();
+        while (!draining(listener)) {
+            Thread.sleep(5);
+        }
+
+        listener.onMessage(record("2-0"));
+        assertEquals(1, orchestrated.size());
+        orchestrated.get(0).complete(null);
+        drain.join(5000);
+        assertFalse(listener.isRunning());
+    }
+
+    private TestStreamListener listener(long drainTimeout) throws Exception {
+        TestStreamListener listener = new TestStreamListener();
+        set(listener, "drainTimeout", drainTimeout);
+        set(listener, "running", true);
+        return listener;
+    }
+
+    private static boolean draining(AbstractStreamListener<?, ?> listener) throws Exception {
+        Field field = AbstractStreamListener.class.getDeclaredField("draining");
+        field.setAccessible(true);
+        return field.getBoolean(listener);
+    }
+
+    private static void set(AbstractStreamListener<?, ?> listener, String name, Object value) throws Exception {
+        Field field = AbstractStreamListener.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(listener, value);
+    }
+
+    private static MapRecord<String, String, String> record(String id) {
+        return StreamRecords.newRecord().in("wb:stream:entity:object").withId(id)
+                .ofMap(Map.of("content", "{}", "operation", "CREATE"));
+    }
+
+    private class TestStreamListener extends AbstractStreamListener<Object, Object> {
+
+        TestStreamListener() {
+            super(Object.class, Object.class);
+        }
+
+        @Override
+        public ProcessOrchestrator<Object, Object> getProcessOrchestrator() {
+            return new ProcessOrchestrator<>() {
+                @Override
+                public void orchestrate(MapRecord<String, String, String> record, Processor<Object, Object> processor) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public CompletableFuture<Void> orchestrateAsync(MapRecord<String, String, String> record, Processor<Object, Object> processor) {
+                    CompletableFuture<Void> future = new CompletableFuture<>();
+                    orchestrated.add(future);
+                    return future;
+                }
+            };
+        }
+
+        @Override
+        public Processor<Object, Object> getProcessor() {
+            return null;
+        }
+
+        @Override
+        public RedisTemplate<String, String> getRedisTemplate() {
+            return null;
+        }
+
+        @Override
+        public StreamMessageListenerContainer<String, MapRecord<String, String, String>> getStreamMessageListenerContainer() {
+            return null;
+        }
+
+        @Override
+        public ObjectMapper getObjectMapper() {
+            return null;
+        }
+    }
+}
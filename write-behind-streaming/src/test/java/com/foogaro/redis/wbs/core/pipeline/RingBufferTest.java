@@ -0,0 +1,111 @@
+package com.foogaro.redis.wbs.core.pipeline;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+    @Test
+    void roundsTheCapacityUpToAPowerOfTwo() {
+        assertEquals(1, new RingBuffer<>(1, AtomicLong::new, RingBuffer.WaitStrategy.BLOCKING).capacity());
+        assertEquals(4, new RingBuffer<>(4, AtomicLong::new, RingBuffer.WaitStrategy.BLOCKING).capacity());
+        assertEquals(8, new RingBuffer<>(5, AtomicLong::new, RingBuffer.WaitStrategy.BLOCKING).capacity());
+    }
+
+    @Test
+    void reusesTheSlotsAroundTheRing() throws InterruptedException {
+        RingBuffer<AtomicLong> ring = new RingBuffer<>(4, AtomicLong::new, RingBuffer.WaitStrategy.BLOCKING);
+        AtomicLong[] slots = new AtomicLong[4];
+        for (long i = 0; i < 10; i++) {
+            AtomicLong slot = ring.claim();
+            slot.set(i);
+            ring.publish();
+            if (i < 4) {
+                slots[(int) i] = slot;
+            } else {
+                assertSame(slots[(int) i % 4], slot);
+            }
+            assertEquals(1, ring.size());
+            assertEquals(i, ring.take().get());
+            ring.release();
+            assertEquals(0, ring.size());
+        }
+    }
+
+    @Test
+    void takesInTheOrderPublished() throws InterruptedException {
+        RingBuffer<AtomicLong> ring = new RingBuffer<>(4, AtomicLong::new, RingBuffer.WaitStrategy.BLOCKING);
+        for (long round = 0; round < 3; round++) {
+            for (long i = 0; i < 4; i++) {
+                ring.claim().set(round * 4 + i);
+                ring.publish();
+            }
+            assertEquals(4, ring.size());
+            for (long i = 0; i < 4; i++) {
+                assertEquals(round * 4 + i, ring.take().get());
+                ring.release();
+            }
+        }
+    }
+
+    @Test
+    void blocksTheProducerWhileFull() throws Exception {
+        for (RingBuffer.WaitStrategy waitStrategy : RingBuffer.WaitStrategy.values()) {
+            RingBuffer<AtomicLong> ring = new RingBuffer<>(2, AtomicLong::new, waitStrategy);
+            for (long i = 0; i < 2; i++) {
+                ring.claim().set(i);
+                ring.publish();
+            }
+            CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+                try {
+                    ring.claim().set(2);
+                    ring.publish();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> producer.get(100, TimeUnit.MILLISECONDS), waitStrategy.name());
+
+            assertEquals(0, ring.take().get());
+            ring.release();
+            producer.get(5, TimeUnit.SECONDS);
+            assertEquals(1, ring.take().get());
+            ring.release();
+            assertEquals(2, ring.take().get());
+            ring.release();
+        }
+    }
+
+    @Test
+    void blocksTheConsumerWhileEmpty() throws Exception {
+        for (RingBuffer.WaitStrategy waitStrategy : RingBuffer.WaitStrategy.values()) {
+            RingBuffer<AtomicLong> ring = new RingBuffer<>(2, AtomicLong::new, waitStrategy);
+            CompletableFuture<Long> consumer = CompletableFuture.supplyAsync(() -> {
+                try {
+                    long value = ring.take().get();
+                    ring.release();
+                    return value;
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> consumer.get(100, TimeUnit.MILLISECONDS), waitStrategy.name());
+
+            ring.claim().set(42);
+            ring.publish();
+            assertEquals(42, consumer.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    void parsesTheWaitStrategy() {
+        assertEquals(RingBuffer.WaitStrategy.BUSY_SPIN, RingBuffer.WaitStrategy.from(" busy-spin "));
+        assertEquals(RingBuffer.WaitStrategy.BLOCKING, RingBuffer.WaitStrategy.from("blocking"));
+    }
+}
@@ -0,0 +1,87 @@
+package com.foogaro.redis.wbs.core.pipeline;
+
+import com.foogaro.redis.wbs.core.exception.ProcessMessageException;
+import com.foogaro.redis.wbs.core.processor.Processor;
+import io.micrometer.core.instrument.Tags;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StagedPipelineTest {
+
+    private final List<String> processed = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> acknowledged = Collections.synchronizedList(new ArrayList<>());
+    private final StagedPipeline<Object, Object> pipeline =
+            new StagedPipeline<>("test", 4, RingBuffer.WaitStrategy.BLOCKING, null, Tags.empty());
+
+    @AfterEach
+    void stop() {
+        pipeline.stop();
+    }
+
+    @Test
+    void writesAndAcknowledgesInStreamOrder() throws Exception {
+        Processor<Object, Object> processor = processor(null);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            ids.add(i + "-0");
+            futures.add(pipeline.submit(record(i + "-0"), processor));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        assertEquals(ids, processed);
+        assertEquals(ids, acknowledged);
+    }
+
+    @Test
+    void doesNotAcknowledgeRecordsFailingToBeWritten() throws Exception {
+        Processor<Object, Object> processor = processor("2-0");
+        CompletableFuture<Void> first = pipeline.submit(record("1-0"), processor);
+        CompletableFuture<Void> failed = pipeline.submit(record("2-0"), processor);
+        CompletableFuture<Void> third = pipeline.submit(record("3-0"), processor);
+
+        third.get(5, TimeUnit.SECONDS);
+        first.get(5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(ProcessMessageException.class, e.getCause());
+        assertEquals(List.of("1-0", "3-0"), acknowledged);
+    }
+
+    private static MapRecord<String, String, String> record(String id) {
+        return StreamRecords.newRecord().in("wb:stream:test").withId(id).ofMap(Map.of("content", "{}"));
+    }
+
+    /***
+     * A processor recording the records written and acknowledged, failing to write the record with the given ID.
+     */
+    @SuppressWarnings("unchecked")
+    private Processor<Object, Object> processor(String failingId) {
+        return (Processor<Object, Object>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Processor.class},
+                (proxy, method, args) -> {
+                    String id = args != null && args.length == 1 && args[0] instanceof MapRecord<?, ?, ?> record
+                            ? record.getId().getValue() : null;
+                    switch (method.getName()) {
+                        case "process" -> {
+                            if (id.equals(failingId)) throw new ProcessMessageException(new IllegalStateException(id));
+                            processed.add(id);
+                        }
+                        case "acknowledge" -> acknowledged.add(id);
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    }
+                    return null;
+                });
+    }
+}
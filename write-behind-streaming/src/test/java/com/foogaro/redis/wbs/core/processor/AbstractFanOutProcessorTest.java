@@ -0,0 +1,200 @@
+package com.foogaro.redis.wbs.core.processor;
+
+import com.foogaro.redis.wbs.core.fanout.FanOutProgress;
+import com.foogaro.redis.wbs.core.service.BeanFinder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.foogaro.redis.wbs.core.Misc.getConsumerGroup;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AbstractFanOutProcessorTest {
+
+    interface JpaRepository {
+    }
+
+    interface MongoRepository {
+    }
+
+    private final Map<RecordId, Set<String>> store = new ConcurrentHashMap<>();
+    private final List<TestFanOutProcessor> processors = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() throws Exception {
+        for (TestFanOutProcessor processor : processors) {
+            invoke(processor, "shutdownSinks");
+        }
+    }
+
+    @Test
+    void retriesOnlyTheSinksWhichFailed() throws Exception {
+        Sink jpa = new Sink(JpaRepository.class);
+        Sink mongo = new Sink(MongoRepository.class);
+        mongo.failing = true;
+        TestFanOutProcessor processor = processor(16, jpa, mongo);
+
+        MapRecord<String, String, String> record = record("1-0");
+        assertThrows(ExecutionException.class, () -> processor.dispatch(record).get(5, TimeUnit.SECONDS));
+        assertEquals(Set.of(getConsumerGroup(JpaRepository.class)), store.get(record.getId()));
+
+        mongo.failing = false;
+        processor.dispatch(record).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("1-0"), jpa.applied);
+        assertEquals(List.of("1-0"), mongo.applied);
+        assertEquals(2, store.get(record.getId()).size());
+    }
+
+    @Test
+    void skipsTheSinksWhichAppliedTheRecordBeforeARestart() throws Exception {
+        Sink jpa = new Sink(JpaRepository.class);
+        Sink mongo = new Sink(MongoRepository.class);
+        mongo.failing = true;
+        MapRecord<String, String, String> record = record("1-0");
+        assertThrows(ExecutionException.class, () -> processor(16, jpa, mongo).dispatch(record).get(5, TimeUnit.SECONDS));
+
+        Sink restartedJpa = new Sink(JpaRepository.class);
+        Sink restartedMongo = new Sink(MongoRepository.class);
+        processor(16, restartedJpa, restartedMongo).dispatch(record).get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(), restartedJpa.applied);
+        assertEquals(List.of("1-0"), restartedMongo.applied);
+    }
+
+    @Test
+    void discardForgetsTheSinksWhichAppliedTheRecord() throws Exception {
+        Sink jpa = new Sink(JpaRepository.class);
+        TestFanOutProcessor processor = processor(16, jpa);
+        MapRecord<String, String, String> record = record("1-0");
+        processor.dispatch(record).get(5, TimeUnit.SECONDS);
+        assertTrue(store.containsKey(record.getId()));
+
+        processor.discard(record);
+        assertFalse(store.containsKey(record.getId()));
+    }
+
+    @Test
+    void rejectsRecordsForAFullSinkWithoutHoldingBackTheOthers() throws Exception {
+        Sink fast = new Sink(JpaRepository.class);
+        Sink slow = new Sink(MongoRepository.class);
+        slow.gate = new CountDownLatch(1);
+        TestFanOutProcessor processor = processor(1, fast, slow);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            MapRecord<String, String, String> record = record(i + "-0");
+            futures.add(processor.dispatch(record));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!store.getOrDefault(record.getId(), Set.of()).contains(getConsumerGroup(JpaRepository.class))) {
+                assertTrue(System.nanoTime() < deadline, "record " + record.getId() + " not applied by the fast sink");
+                Thread.sleep(5);
+            }
+        }
+        assertEquals(List.of("1-0", "2-0", "3-0", "4-0"), fast.applied);
+
+        slow.gate.countDown();
+        futures.get(0).get(5, TimeUnit.SECONDS);
+        futures.get(1).get(5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> futures.get(3).get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+    private TestFanOutProcessor processor(int queueCapacity, Sink... sinks) throws Exception {
+        TestFanOutProcessor processor = new TestFanOutProcessor(Arrays.stream(sinks).map(Sink::processor).toList());
+        Field field = AbstractFanOutProcessor.class.getDeclaredField("queueCapacity");
+        field.setAccessible(true);
+        field.setInt(processor, queueCapacity);
+        invoke(processor, "initSinks");
+        processors.add(processor);
+        return processor;
+    }
+
+    private static void invoke(AbstractFanOutProcessor<?> processor, String name) throws Exception {
+        Method method = AbstractFanOutProcessor.class.getDeclaredMethod(name);
+        method.setAccessible(true);
+        method.invoke(processor);
+    }
+
+    private static MapRecord<String, String, String> record(String id) {
+        return StreamRecords.newRecord().in("wb:stream:entity:employer").withId(id)
+                .ofMap(Map.of("content", "{}", "operation", "CREATE", "id", "1"));
+    }
+
+    private class TestFanOutProcessor extends AbstractFanOutProcessor<Object> {
+
+        private final List<Processor<Object, ?>> sinkProcessors;
+
+        TestFanOutProcessor(List<Processor<Object, ?>> sinkProcessors) {
+            super(Object.class);
+            this.sinkProcessors = sinkProcessors;
+        }
+
+        @Override
+        public List<Processor<Object, ?>> getSinkProcessors() {
+            return sinkProcessors;
+        }
+
+        @Override
+        protected FanOutProgress createProgress() {
+            return new FanOutProgress(null, Duration.ZERO) {
+                @Override
+                public Set<String> getApplied(MapRecord<String, String, String> record) {
+                    return Set.copyOf(store.getOrDefault(record.getId(), Set.of()));
+                }
+
+                @Override
+                public void applied(MapRecord<String, String, String> record, String sink) {
+                    store.computeIfAbsent(record.getId(), id -> ConcurrentHashMap.newKeySet()).add(sink);
+                }
+
+                @Override
+                public void clear(MapRecord<String, String, String> record) {
+                    store.remove(record.getId());
+                }
+            };
+        }
+
+        @Override
+        public BeanFinder getRepositoryFinder() {
+            return null;
+        }
+    }
+
+    /***
+     * The processor of a repository, recording the records it applied.
+     */
+    private static class Sink {
+
+        private final Class<?> repositoryClass;
+        private final List<String> applied = Collections.synchronizedList(new ArrayList<>());
+        private volatile boolean failing;
+        private volatile CountDownLatch gate;
+
+        Sink(Class<?> repositoryClass) {
+            this.repositoryClass = repositoryClass;
+        }
+
+        @SuppressWarnings("unchecked")
+        Processor<Object, ?> processor() {
+            return (Processor<Object, ?>) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Processor.class},
+                    (proxy, method, args) -> switch (method.getName()) {
+                        case "getRepositoryClass" -> repositoryClass;
+                        case "process" -> {
+                            if (gate != null) gate.await();
+                            if (failing) throw new IllegalStateException("failed");
+                            applied.add(((RecordView<?>) args[0]).getRecord().getId().getValue());
+                            yield null;
+                        }
+                        default -> throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.foogaro.redis.wbs.core.scheduler;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrioritySchedulerTest {
+
+    private final PriorityScheduler scheduler = new PriorityScheduler(1, 100, "wb-test-scheduler-", null);
+    private final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void destroy() {
+        scheduler.destroy();
+    }
+
+    @Test
+    void sharesASingleWorkerByPriority() throws Exception {
+        CountDownLatch gate = blockWorker();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(scheduler.submit("high", 10, task("high")));
+        }
+        for (int i = 0; i < 20; i++) {
+            futures.add(scheduler.submit("low", 1, task("low")));
+        }
+        gate.countDown();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        List<String> rounds = executed.subList(1, 23);
+        assertEquals(20, Collections.frequency(rounds, "high"));
+        assertEquals(2, Collections.frequency(rounds, "low"));
+        assertEquals(10, Collections.frequency(executed.subList(1, 12), "high"));
+        assertEquals(41, executed.size());
+    }
+
+    @Test
+    void sharesEquallyAmongEqualPriorities() throws Exception {
+        CountDownLatch gate = blockWorker();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(scheduler.submit("a", 3, task("a")));
+            futures.add(scheduler.submit("b", 3, task("b")));
+        }
+        gate.countDown();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+
+        for (int i = 1; i < executed.size() - 1; i++) {
+            assertNotEquals(executed.get(i), executed.get(i + 1));
+        }
+    }
+
+    @Test
+    void failsTheFutureOfAFailingTask() {
+        CompletableFuture<Void> future;
+        try {
+            future = scheduler.submit("a", 1, () -> {
+                throw new IllegalStateException("failed");
+            });
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+    }
+
+    @Test
+    void rejectsTheRecordsLeftOnShutdown() throws Exception {
+        CountDownLatch gate = blockWorker();
+        CompletableFuture<Void> queued = scheduler.submit("a", 1, task("a"));
+        scheduler.destroy();
+        gate.countDown();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> queued.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertThrows(RejectedExecutionException.class, () -> scheduler.submit("a", 1, task("a")));
+    }
+
+    /***
+     * Keeps the single worker busy until the latch is released, so that the records submitted meanwhile all wait.
+     */
+    private CountDownLatch blockWorker() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch gate = new CountDownLatch(1);
+        scheduler.submit("gate", 1, () -> {
+            executed.add("gate");
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return gate;
+    }
+
+    private Supplier<CompletableFuture<Void>> task(String lane) {
+        return () -> {
+            executed.add(lane);
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+}
@@ -0,0 +1,39 @@
+package com.foogaro.redis.wbs.core.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.RecordId;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FlushBarrierTest {
+
+    @Test
+    void persistedOnceDeliveredToEveryGroup() {
+        assertTrue(FlushBarrier.isPersisted(RecordId.of("5-0"), List.of(RecordId.of("5-0"), RecordId.of("7-0")), List.of()));
+        assertFalse(FlushBarrier.isPersisted(RecordId.of("5-1"), List.of(RecordId.of("5-0"), RecordId.of("7-0")), List.of()));
+        assertFalse(FlushBarrier.isPersisted(RecordId.of("6-0"), List.of(RecordId.of("7-0"), RecordId.of("5-3")), List.of()));
+    }
+
+    @Test
+    void notPersistedWhileItOrAnOlderRecordIsPending() {
+        List<RecordId> committed = List.of(RecordId.of("9-0"), RecordId.of("9-0"));
+
+        assertFalse(FlushBarrier.isPersisted(RecordId.of("5-0"), committed, List.of(RecordId.of("5-0"))));
+        assertFalse(FlushBarrier.isPersisted(RecordId.of("5-0"), committed, List.of(RecordId.of("8-0"), RecordId.of("4-9"))));
+        assertTrue(FlushBarrier.isPersisted(RecordId.of("5-0"), committed, List.of(RecordId.of("5-1"), RecordId.of("8-0"))));
+    }
+
+    @Test
+    void comparesSequencesNumerically() {
+        assertTrue(FlushBarrier.isPersisted(RecordId.of("5-9"), List.of(RecordId.of("5-10")), List.of(RecordId.of("5-11"))));
+        assertFalse(FlushBarrier.isPersisted(RecordId.of("10-0"), List.of(RecordId.of("9-99")), List.of()));
+    }
+
+    @Test
+    void persistedWithoutConsumerGroups() {
+        assertTrue(FlushBarrier.isPersisted(RecordId.of("1-0"), List.of(), List.of()));
+    }
+}